@@ -0,0 +1,97 @@
+package com.test.weighttrackingapplicationmatthewbates;
+
+/**
+ * Describes the compact binary backup format written by BackupWriter and read by BackupReader, and
+ * holds the variable-length integer encoding both use.
+ * <pre>
+ * file    = magic "WTBK", version byte, block*, end block
+ * block   = type byte, payload length (varint), payload, CRC32 of the type and payload (4 bytes, big-endian)
+ * users   = user count, then per user: user ID, flags byte, then the username, weight goal and phone
+ *           number that the flags say are present; strings are a byte length and UTF-8 bytes
+ * weights = user ID, entry count, then per entry: date and weight, each as the difference from the
+ *           previous entry of the block (the first from 0)
+ * end     = total user count, total weight entry count
+ * </pre>
+ * Every integer is a varint, and signed ones (the differences and the goal) are zigzag-encoded first.
+ * Weights and goals are stored as hundredths. Entries are written in date order, so a daily entry usually
+ * takes two bytes, against several dozen for its row and index entries in the database file. Each block
+ * can be checked on its own, and the end block's totals catch a file that was cut short. Passwords are
+ * never written, as a backup file may be shared or synced anywhere.
+ */
+public final class BackupFormat {
+
+    // The first bytes of every backup, "WTBK"
+    static final byte[] MAGIC = {'W', 'T', 'B', 'K'};
+    static final int VERSION = 1;
+
+    // Block types
+    static final int BLOCK_END = 0;
+    static final int BLOCK_USERS = 1;
+    static final int BLOCK_WEIGHTS = 2;
+
+    // Flags of a user record saying which optional fields follow
+    static final int FLAG_USERNAME = 1;
+    static final int FLAG_WEIGHT_GOAL = 1 << 1;
+    static final int FLAG_PHONE_NUMBER = 1 << 2;
+
+    // Entries per weights block, and the largest payload a reader accepts, so a corrupt length can't exhaust memory
+    static final int MAX_BLOCK_ENTRIES = 4096;
+    static final int MAX_PAYLOAD_BYTES = 1 << 20;
+
+    // Weights and goals are stored as whole multiples of this
+    static final double WEIGHT_SCALE = 100;
+
+    private BackupFormat() {}
+
+    /**
+     * Converts a weight to the whole hundredths it is stored as.
+     * @param weight The weight.
+     * @return The weight in hundredths, rounded to the nearest.
+     */
+    static long quantize(double weight) {
+        return Math.round(weight * WEIGHT_SCALE);
+    }
+
+    /**
+     * Converts stored hundredths back to a weight.
+     * @param hundredths The weight in hundredths.
+     * @return The weight.
+     */
+    static double dequantize(long hundredths) {
+        return hundredths / WEIGHT_SCALE;
+    }
+
+    /**
+     * Maps a signed value to an unsigned one so that values near zero, of either sign, encode in few bytes.
+     * @param value The signed value.
+     * @return 0 for 0, 1 for -1, 2 for 1, 3 for -2, and so on.
+     */
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /**
+     * Reverses {@link #zigzag(long)}.
+     * @param value The zigzag-encoded value.
+     * @return The signed value.
+     */
+    static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Writes an unsigned varint, seven bits per byte with the high bit set on all but the last byte.
+     * @param buffer The buffer to write to; must have room for 10 bytes.
+     * @param position The index to write at.
+     * @param value The value, treated as unsigned.
+     * @return The index after the last byte written.
+     */
+    static int putVarint(byte[] buffer, int position, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+        return position;
+    }
+}
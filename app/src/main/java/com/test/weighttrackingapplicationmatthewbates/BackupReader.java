@@ -0,0 +1,287 @@
+package com.test.weighttrackingapplicationmatthewbates;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * Reads a stream written in the {@link BackupFormat} one block at a time. Each block's checksum is
+ * verified before any of its records are returned, and the end block's totals are compared with the
+ * records read, so a damaged or truncated backup is reported with an IOException instead of being
+ * partly restored. Only one block is held in memory at a time.
+ */
+public final class BackupReader {
+
+    private final InputStream in;
+    private final CRC32 crc = new CRC32();
+    private byte[] payload = new byte[64 * 1024];
+    private int payloadLength;
+    private int position;
+    private int blockNumber;
+
+    // The records left in the current block
+    private int remainingRecords;
+    private int blockUserId;
+    private int userCount;
+    private int weightCount;
+
+    // The user read by the last call to nextUser()
+    private int userId;
+    private String username;
+    private Float weightGoal;
+    private String phoneNumber;
+
+    /**
+     * Constructor for a BackupReader, which reads and checks the file header straight away.
+     * @param in The stream to read; it is not closed.
+     * @throws IOException If reading fails or the stream is not a backup in a supported version.
+     */
+    public BackupReader(InputStream in) throws IOException {
+        this.in = new BufferedInputStream(in);
+        for (byte expected : BackupFormat.MAGIC) {
+            if (this.in.read() != expected) {
+                throw new IOException("Not a weight tracker backup");
+            }
+        }
+        int version = this.in.read();
+        if (version != BackupFormat.VERSION) {
+            throw new IOException("Unsupported backup version " + version);
+        }
+    }
+
+    /**
+     * Reads and verifies the next block.
+     * @return BLOCK_USERS, BLOCK_WEIGHTS or, after the last block, BLOCK_END.
+     * @throws IOException If reading fails or the block is damaged.
+     */
+    public int nextBlock() throws IOException {
+        if (remainingRecords > 0 || position != payloadLength) {
+            throw corrupt("has unread records");
+        }
+        blockNumber++;
+        int type = in.read();
+        if (type == -1) {
+            throw new EOFException("Backup ends before its end block");
+        }
+        long length = readStreamVarint();
+        if (length > BackupFormat.MAX_PAYLOAD_BYTES) {
+            throw corrupt("is too long");
+        }
+        payloadLength = (int) length;
+        if (payload.length < payloadLength) {
+            payload = new byte[payloadLength];
+        }
+        readFully(payload, payloadLength);
+        long checksum = 0;
+        for (int i = 0; i < 4; i++) {
+            int b = in.read();
+            if (b == -1) {
+                throw new EOFException("Backup ends inside block " + blockNumber);
+            }
+            checksum = (checksum << 8) | b;
+        }
+        crc.reset();
+        crc.update(type);
+        crc.update(payload, 0, payloadLength);
+        if (crc.getValue() != checksum) {
+            throw corrupt("fails its checksum");
+        }
+        position = 0;
+
+        switch (type) {
+            case BackupFormat.BLOCK_USERS:
+                remainingRecords = readInt();
+                userCount += remainingRecords;
+                break;
+            case BackupFormat.BLOCK_WEIGHTS:
+                blockUserId = readInt();
+                remainingRecords = readInt();
+                if (remainingRecords > BackupFormat.MAX_BLOCK_ENTRIES) {
+                    throw corrupt("has too many entries");
+                }
+                weightCount += remainingRecords;
+                break;
+            case BackupFormat.BLOCK_END:
+                if (readInt() != userCount || readInt() != weightCount || position != payloadLength) {
+                    throw corrupt("does not match the records before it");
+                }
+                break;
+            default:
+                throw corrupt("has unknown type " + type);
+        }
+        return type;
+    }
+
+    /**
+     * Reads the next user of a users block; its fields are then available from the getters.
+     * @return false if the block has no more users.
+     * @throws IOException If the record is malformed.
+     */
+    public boolean nextUser() throws IOException {
+        if (remainingRecords == 0) {
+            return false;
+        }
+        remainingRecords--;
+        userId = readInt();
+        if (position == payloadLength) {
+            throw corrupt("ends inside a user");
+        }
+        int flags = payload[position++];
+        username = (flags & BackupFormat.FLAG_USERNAME) != 0 ? readString() : null;
+        weightGoal = (flags & BackupFormat.FLAG_WEIGHT_GOAL) != 0
+                ? (float) BackupFormat.dequantize(BackupFormat.unzigzag(readVarint())) : null;
+        phoneNumber = (flags & BackupFormat.FLAG_PHONE_NUMBER) != 0 ? readString() : null;
+        return true;
+    }
+
+    /**
+     * Gets the ID of the user last read by {@link #nextUser()}.
+     * @return The user ID.
+     */
+    public int getUserId() {
+        return userId;
+    }
+
+    /**
+     * Gets the username of the user last read by {@link #nextUser()}.
+     * @return The username, or null.
+     */
+    public String getUsername() {
+        return username;
+    }
+
+    /**
+     * Gets the weight goal of the user last read by {@link #nextUser()}.
+     * @return The weight goal, or null if none was set.
+     */
+    public Float getWeightGoal() {
+        return weightGoal;
+    }
+
+    /**
+     * Gets the phone number of the user last read by {@link #nextUser()}.
+     * @return The phone number, or null.
+     */
+    public String getPhoneNumber() {
+        return phoneNumber;
+    }
+
+    /**
+     * Gets the ID of the user the entries of the current weights block belong to.
+     * @return The user ID.
+     */
+    public int getBlockUserId() {
+        return blockUserId;
+    }
+
+    /**
+     * Decodes all the entries of a weights block.
+     * @param epochDays Receives the dates of the entries; must hold MAX_BLOCK_ENTRIES values.
+     * @param weights Receives the weights, parallel to {@code epochDays}; must hold MAX_BLOCK_ENTRIES values.
+     * @return The number of entries decoded.
+     * @throws IOException If the block is malformed.
+     */
+    public int readWeights(int[] epochDays, double[] weights) throws IOException {
+        int count = remainingRecords;
+        long epochDay = 0;
+        long weight = 0;
+        for (int i = 0; i < count; i++) {
+            epochDay += BackupFormat.unzigzag(readVarint());
+            weight += BackupFormat.unzigzag(readVarint());
+            if (epochDay != (int) epochDay) {
+                throw corrupt("has a date out of range");
+            }
+            epochDays[i] = (int) epochDay;
+            weights[i] = BackupFormat.dequantize(weight);
+        }
+        remainingRecords = 0;
+        if (position != payloadLength) {
+            throw corrupt("has data after its entries");
+        }
+        return count;
+    }
+
+    /**
+     * Reads a varint from the payload of the current block.
+     */
+    private long readVarint() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (position == payloadLength) {
+                throw corrupt("ends inside a record");
+            }
+            byte b = payload[position++];
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw corrupt("has an overlong number");
+    }
+
+    /**
+     * Reads a varint that must fit in a non-negative int from the payload of the current block.
+     */
+    private int readInt() throws IOException {
+        long value = readVarint();
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            throw corrupt("has a number out of range");
+        }
+        return (int) value;
+    }
+
+    /**
+     * Reads a length-prefixed UTF-8 string from the payload of the current block.
+     */
+    private String readString() throws IOException {
+        int length = readInt();
+        if (length > payloadLength - position) {
+            throw corrupt("ends inside a string");
+        }
+        String value = new String(payload, position, length, StandardCharsets.UTF_8);
+        position += length;
+        return value;
+    }
+
+    /**
+     * Reads a varint from the stream, outside any block's payload.
+     */
+    private long readStreamVarint() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.read();
+            if (b == -1) {
+                throw new EOFException("Backup ends inside block " + blockNumber);
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw corrupt("has an overlong length");
+    }
+
+    /**
+     * Fills the start of a buffer from the stream.
+     */
+    private void readFully(byte[] buffer, int length) throws IOException {
+        int read = 0;
+        while (read < length) {
+            int count = in.read(buffer, read, length - read);
+            if (count == -1) {
+                throw new EOFException("Backup ends inside block " + blockNumber);
+            }
+            read += count;
+        }
+    }
+
+    /**
+     * Creates the exception for a damaged current block.
+     */
+    private IOException corrupt(String problem) {
+        return new IOException("Backup block " + blockNumber + " " + problem);
+    }
+}
@@ -0,0 +1,206 @@
+package com.test.weighttrackingapplicationmatthewbates;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * Writes users and weight entries to a stream in the {@link BackupFormat}. Records are gathered into one
+ * block at a time, which is written with its checksum as soon as it is full, so memory use doesn't depend
+ * on the number of entries. Write every user first, then every weight entry grouped by user and in date
+ * order, and finish with {@link #finish()}.
+ */
+public final class BackupWriter {
+
+    // A users block is written once its records reach this size
+    private static final int USERS_BLOCK_BYTES = 64 * 1024;
+    // The most a record can add to a weights block: two 10-byte varints
+    private static final int MAX_WEIGHT_RECORD_BYTES = 20;
+
+    private final OutputStream out;
+    private final CRC32 crc = new CRC32();
+    // The records of the block being gathered, and room for a block's header and framing
+    private byte[] records = new byte[BackupFormat.MAX_BLOCK_ENTRIES * MAX_WEIGHT_RECORD_BYTES];
+    private int recordsLength;
+    private final byte[] header = new byte[32];
+    private final byte[] frame = new byte[11];
+    private final byte[] checksumBytes = new byte[4];
+
+    // The type of the block being gathered, or BLOCK_END if there is none
+    private int blockType = BackupFormat.BLOCK_END;
+    private int blockRecordCount;
+    // The user of the weights block being gathered, and its previous entry, which the next one is stored relative to
+    private int blockUserId;
+    private long previousEpochDay;
+    private long previousWeight;
+
+    private int userCount;
+    private int weightCount;
+    private long bytesWritten;
+
+    /**
+     * Constructor for a BackupWriter, which writes the file header straight away.
+     * @param out The stream to write to; it is flushed by {@link #finish()} but not closed.
+     * @throws IOException If writing to the stream fails.
+     */
+    public BackupWriter(OutputStream out) throws IOException {
+        this.out = out;
+        out.write(BackupFormat.MAGIC);
+        out.write(BackupFormat.VERSION);
+        bytesWritten = BackupFormat.MAGIC.length + 1;
+    }
+
+    /**
+     * Adds a user. All users must be written before any weight entry.
+     * @param userId The user's ID, which their weight entries refer to.
+     * @param username The username, or null.
+     * @param weightGoal The weight goal, or null if none is set; stored to the nearest hundredth.
+     * @param phoneNumber The phone number for SMS alerts, or null.
+     * @throws IOException If writing to the stream fails.
+     */
+    public void writeUser(int userId, String username, Float weightGoal, String phoneNumber) throws IOException {
+        if (blockType != BackupFormat.BLOCK_USERS) {
+            flushBlock();
+            blockType = BackupFormat.BLOCK_USERS;
+        }
+        byte[] usernameBytes = username != null ? username.getBytes(StandardCharsets.UTF_8) : null;
+        byte[] phoneBytes = phoneNumber != null ? phoneNumber.getBytes(StandardCharsets.UTF_8) : null;
+        int flags = (usernameBytes != null ? BackupFormat.FLAG_USERNAME : 0)
+                | (weightGoal != null ? BackupFormat.FLAG_WEIGHT_GOAL : 0)
+                | (phoneBytes != null ? BackupFormat.FLAG_PHONE_NUMBER : 0);
+
+        // Room for the ID, flags and goal, plus each string with its length
+        ensureCapacity(32 + stringSize(usernameBytes) + stringSize(phoneBytes));
+        recordsLength = BackupFormat.putVarint(records, recordsLength, userId);
+        records[recordsLength++] = (byte) flags;
+        putString(usernameBytes);
+        if (weightGoal != null) {
+            recordsLength = BackupFormat.putVarint(records, recordsLength,
+                    BackupFormat.zigzag(BackupFormat.quantize(weightGoal)));
+        }
+        putString(phoneBytes);
+        blockRecordCount++;
+        userCount++;
+        if (recordsLength >= USERS_BLOCK_BYTES) {
+            flushBlock();
+        }
+    }
+
+    /**
+     * Adds a weight entry. Entries must be grouped by user, and are smallest in ascending date order.
+     * @param userId The ID of the user the entry belongs to, written earlier with {@link #writeUser}.
+     * @param epochDay The date of the entry, as days since 1970-01-01.
+     * @param weight The weight; stored to the nearest hundredth.
+     * @throws IOException If writing to the stream fails.
+     */
+    public void writeWeight(int userId, int epochDay, double weight) throws IOException {
+        if (blockType != BackupFormat.BLOCK_WEIGHTS || blockUserId != userId
+                || blockRecordCount == BackupFormat.MAX_BLOCK_ENTRIES) {
+            flushBlock();
+            blockType = BackupFormat.BLOCK_WEIGHTS;
+            blockUserId = userId;
+            previousEpochDay = 0;
+            previousWeight = 0;
+        }
+        long quantized = BackupFormat.quantize(weight);
+        recordsLength = BackupFormat.putVarint(records, recordsLength, BackupFormat.zigzag(epochDay - previousEpochDay));
+        recordsLength = BackupFormat.putVarint(records, recordsLength, BackupFormat.zigzag(quantized - previousWeight));
+        previousEpochDay = epochDay;
+        previousWeight = quantized;
+        blockRecordCount++;
+        weightCount++;
+    }
+
+    /**
+     * Writes the last block and the end block, and flushes the stream.
+     * @throws IOException If writing to the stream fails.
+     */
+    public void finish() throws IOException {
+        flushBlock();
+        blockType = BackupFormat.BLOCK_END;
+        writeBlock(BackupFormat.putVarint(header, BackupFormat.putVarint(header, 0, userCount), weightCount));
+        out.flush();
+    }
+
+    /**
+     * Gets the number of bytes written so far, to compare against the size of the database.
+     * @return The byte count.
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Writes the block being gathered, if any, with its header in front.
+     */
+    private void flushBlock() throws IOException {
+        if (blockType == BackupFormat.BLOCK_END) {
+            return;
+        }
+        int headerLength = 0;
+        if (blockType == BackupFormat.BLOCK_WEIGHTS) {
+            headerLength = BackupFormat.putVarint(header, headerLength, blockUserId);
+        }
+        headerLength = BackupFormat.putVarint(header, headerLength, blockRecordCount);
+        writeBlock(headerLength);
+        blockType = BackupFormat.BLOCK_END;
+        blockRecordCount = 0;
+        recordsLength = 0;
+    }
+
+    /**
+     * Writes a block of the current type whose payload is the first headerLength bytes of the header
+     * followed by the gathered records, framed by its type, length and checksum.
+     */
+    private void writeBlock(int headerLength) throws IOException {
+        int payloadLength = headerLength + recordsLength;
+        frame[0] = (byte) blockType;
+        int frameLength = BackupFormat.putVarint(frame, 1, payloadLength);
+
+        crc.reset();
+        crc.update(blockType);
+        crc.update(header, 0, headerLength);
+        crc.update(records, 0, recordsLength);
+        long checksum = crc.getValue();
+
+        out.write(frame, 0, frameLength);
+        out.write(header, 0, headerLength);
+        out.write(records, 0, recordsLength);
+        for (int i = 0; i < 4; i++) {
+            checksumBytes[i] = (byte) (checksum >>> (24 - 8 * i));
+        }
+        out.write(checksumBytes);
+        bytesWritten += frameLength + payloadLength + 4;
+    }
+
+    /**
+     * Grows the records buffer, if needed, to take another record of up to the given size.
+     */
+    private void ensureCapacity(int recordSize) {
+        if (recordsLength + recordSize > records.length) {
+            byte[] larger = new byte[Math.max(records.length * 2, recordsLength + recordSize)];
+            System.arraycopy(records, 0, larger, 0, recordsLength);
+            records = larger;
+        }
+    }
+
+    /**
+     * Appends a string's length and bytes to the records, if it is present.
+     */
+    private void putString(byte[] bytes) {
+        if (bytes == null) {
+            return;
+        }
+        recordsLength = BackupFormat.putVarint(records, recordsLength, bytes.length);
+        System.arraycopy(bytes, 0, records, recordsLength, bytes.length);
+        recordsLength += bytes.length;
+    }
+
+    /**
+     * Gets the most bytes a string can take in a record, with its length.
+     */
+    private static int stringSize(byte[] bytes) {
+        return bytes == null ? 0 : bytes.length + 10;
+    }
+}
@@ -0,0 +1,241 @@
+package com.test.weighttrackingapplicationmatthewbates;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleEventObserver;
+import androidx.lifecycle.LifecycleOwner;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs DatabaseHelper operations off the main thread and delivers their results back on it.
+ * Writes go to a single writer thread, so they are applied one at a time in the order they were
+ * submitted; reads run on a small pool, which write-ahead logging lets proceed alongside a write.
+ * Any DatabaseHelper method can be run through {@link #read} or {@link #write} as an {@link Operation}.
+ * A result that is {@link Closeable}, such as a Cursor, belongs to the callback once delivered; if it is
+ * never delivered, e.g. because the owner was destroyed while the operation ran, it is closed here.
+ */
+public final class DatabaseExecutor {
+
+    private static final String TAG = "DatabaseExecutor";
+
+    // A couple of readers is enough for one screen's queries without competing with the UI for CPU
+    private static final int READER_THREADS = 2;
+
+    // The process-wide shared instance, created lazily by getInstance()
+    private static DatabaseExecutor instance;
+
+    private final DatabaseHelper databaseHelper;
+    private final ExecutorService writeExecutor;
+    private final ExecutorService readExecutor;
+    private final Handler mainHandler;
+
+    /**
+     * A unit of database work, run on a background thread.
+     * @param <T> The type of the operation's result.
+     */
+    public interface Operation<T> {
+        /**
+         * Performs the work.
+         * @param db The shared DatabaseHelper.
+         * @return The result to deliver to the callback.
+         * @throws Exception If the work fails; the failure is logged and the callback is not invoked.
+         */
+        T run(DatabaseHelper db) throws Exception;
+    }
+
+    /**
+     * Receives the result of an operation on the main thread.
+     * @param <T> The type of the operation's result.
+     */
+    public interface Callback<T> {
+        /**
+         * Called on the main thread once the operation has completed, unless it was cancelled.
+         * @param result The operation's result.
+         */
+        void onResult(T result);
+    }
+
+    /**
+     * Returns the process-wide DatabaseExecutor, creating it on first use.
+     * @param context Any context; only its application context is retained.
+     * @return The shared DatabaseExecutor instance.
+     */
+    public static synchronized DatabaseExecutor getInstance(Context context) {
+        if (instance == null) {
+            instance = new DatabaseExecutor(DatabaseHelper.getInstance(context));
+        }
+        return instance;
+    }
+
+    /**
+     * Constructor for the DatabaseExecutor. Use {@link #getInstance(Context)} instead.
+     * @param databaseHelper The DatabaseHelper that operations are run against.
+     */
+    private DatabaseExecutor(DatabaseHelper databaseHelper) {
+        this.databaseHelper = databaseHelper;
+        this.writeExecutor = Executors.newSingleThreadExecutor(namedThreads("db-writer"));
+        this.readExecutor = Executors.newFixedThreadPool(READER_THREADS, namedThreads("db-reader"));
+        this.mainHandler = new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * Runs a read-only operation on the reader pool.
+     * If the owner is destroyed first, the operation is cancelled and the callback is never invoked.
+     * @param owner The lifecycle to bind the result to, e.g. a fragment's view lifecycle owner.
+     * @param operation The work to run.
+     * @param callback Receives the result on the main thread.
+     * @param <T> The type of the operation's result.
+     * @return A handle that can be used to cancel the operation.
+     */
+    public <T> Task read(LifecycleOwner owner, Operation<T> operation, Callback<T> callback) {
+        return submit(readExecutor, true, owner, operation, callback);
+    }
+
+    /**
+     * Runs an operation that modifies the database on the writer thread.
+     * A write always runs to completion once submitted, so that no data is lost when the user leaves a
+     * screen; if the owner is destroyed first, only the callback is dropped.
+     * @param owner The lifecycle to bind the result to, or null if nothing needs the result.
+     * @param operation The work to run.
+     * @param callback Receives the result on the main thread, or null if nothing needs the result.
+     * @param <T> The type of the operation's result.
+     * @return A handle that can be used to drop the callback.
+     */
+    public <T> Task write(LifecycleOwner owner, Operation<T> operation, Callback<T> callback) {
+        return submit(writeExecutor, false, owner, operation, callback);
+    }
+
+    /**
+     * Submits an operation and arranges for its result to be delivered on the main thread.
+     * Must be called on the main thread, as it observes the owner's lifecycle.
+     */
+    private <T> Task submit(ExecutorService executor, boolean interruptible, LifecycleOwner owner,
+                            Operation<T> operation, Callback<T> callback) {
+        Task task = new Task(interruptible);
+        if (owner != null) {
+            if (owner.getLifecycle().getCurrentState() == Lifecycle.State.DESTROYED) {
+                return task; // Nothing could ever receive the result
+            }
+            task.bindTo(owner.getLifecycle());
+        }
+
+        task.future = executor.submit(() -> {
+            if (task.isCancelled() && interruptible) {
+                return;
+            }
+            T result;
+            try {
+                result = operation.run(databaseHelper);
+            } catch (Exception e) {
+                Log.e(TAG, "Database operation failed", e);
+                mainHandler.post(task::unbind);
+                return;
+            }
+            mainHandler.post(() -> {
+                task.unbind();
+                if (!task.isCancelled() && callback != null) {
+                    callback.onResult(result);
+                } else {
+                    closeUndelivered(result);
+                }
+            });
+        });
+        return task;
+    }
+
+    /**
+     * Closes a result that no callback will receive, if it holds resources, so that e.g. a Cursor's
+     * window isn't leaked when its screen is destroyed during the query.
+     */
+    private static void closeUndelivered(Object result) {
+        if (result instanceof Closeable) {
+            try {
+                ((Closeable) result).close();
+            } catch (IOException e) {
+                Log.w(TAG, "Could not close an undelivered result", e);
+            }
+        }
+    }
+
+    /**
+     * Creates a thread factory whose threads are named for debugging and run below UI priority.
+     * @param name The base name of the threads.
+     * @return The thread factory.
+     */
+    private static ThreadFactory namedThreads(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(() -> {
+                android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
+                runnable.run();
+            }, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * A handle to a submitted operation. Cancelling it guarantees that its callback will not be invoked;
+     * a read that has not started yet is also skipped.
+     */
+    public static final class Task {
+        private final boolean interruptible;
+        private volatile boolean cancelled;
+        private volatile Future<?> future;
+        private Lifecycle lifecycle;
+        private LifecycleEventObserver observer;
+
+        private Task(boolean interruptible) {
+            this.interruptible = interruptible;
+        }
+
+        /**
+         * Cancels the operation. Must be called on the main thread.
+         */
+        public void cancel() {
+            cancelled = true;
+            Future<?> pending = future;
+            if (interruptible && pending != null) {
+                pending.cancel(false);
+            }
+            unbind();
+        }
+
+        /**
+         * Checks whether the operation has been cancelled.
+         * @return true if {@link #cancel()} has been called or the bound lifecycle was destroyed.
+         */
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        private void bindTo(Lifecycle lifecycle) {
+            this.lifecycle = lifecycle;
+            this.observer = (source, event) -> {
+                if (event == Lifecycle.Event.ON_DESTROY) {
+                    cancel();
+                }
+            };
+            lifecycle.addObserver(observer);
+        }
+
+        private void unbind() {
+            if (lifecycle != null) {
+                lifecycle.removeObserver(observer);
+                lifecycle = null;
+                observer = null;
+            }
+        }
+    }
+}
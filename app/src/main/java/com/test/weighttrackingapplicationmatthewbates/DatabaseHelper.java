@@ -2,21 +2,35 @@ package com.test.weighttrackingapplicationmatthewbates;
 
 import android.content.ContentValues;
 import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteConstraintException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
 import android.database.Cursor;
 
 /**
  * Manages the application's local database for storing user and weight data.
  * Handles table creation, upgrades, and provides CRUD (Create, Read, Update, Delete) operations.
+ * A single shared instance is used for the whole process (see {@link #getInstance(Context)}) so the
+ * underlying connection is opened once and kept open, rather than being opened and closed per call.
  */
 public class DatabaseHelper extends SQLiteOpenHelper {
 
     // --- Database Constants ---
     private static final String DATABASE_NAME = "weightTracker.db";
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 6;
 
     // --- User Table Columns ---
     private static final String TABLE_USERS = "users";
@@ -29,21 +43,224 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     // --- Weight Table Columns ---
     private static final String TABLE_WEIGHTS = "weights";
     private static final String COLUMN_WEIGHT_ID = "weight_id";
-    private static final String COLUMN_DATE = "date";
+    private static final String COLUMN_DATE = "date"; // Epoch day (days since 1970-01-01) as an INTEGER
     private static final String COLUMN_WEIGHT = "weight";
     // COLUMN_USER_ID is also used here as a foreign key
 
+    // Unique index that allows only one weight entry per user per date
+    private static final String INDEX_USER_DATE = "idx_user_date";
+    // Covering indexes for the per-user date and weight orderings
+    private static final String INDEX_USER_DATE_WEIGHT = "idx_user_date_weight";
+    private static final String INDEX_USER_WEIGHT = "idx_user_weight";
+
+    // --- Rollup Table Columns ---
+    // One row per user per day, ISO week or month (see PeriodUtils), kept up to date by triggers
+    private static final String TABLE_ROLLUPS = "weight_rollups";
+    private static final String COLUMN_PERIOD = "period";
+    private static final String COLUMN_PERIOD_START = "period_start";
+    private static final String COLUMN_ENTRY_COUNT = "entry_count";
+    private static final String COLUMN_WEIGHT_SUM = "weight_sum";
+    private static final String COLUMN_MIN_WEIGHT = "min_weight";
+    private static final String COLUMN_MAX_WEIGHT = "max_weight";
+    private static final String COLUMN_FIRST_DATE = "first_date";
+    private static final String COLUMN_FIRST_WEIGHT = "first_weight";
+    private static final String COLUMN_LAST_DATE = "last_date";
+    private static final String COLUMN_LAST_WEIGHT = "last_weight";
+    // COLUMN_USER_ID is also used here
+
+    // --- Statistics Table Columns ---
+    // One row per user with running regression sums and the moving average, kept up to date by triggers
+    private static final String TABLE_STATS = "weight_stats";
+    private static final String COLUMN_SUM_X = "sum_x"; // x is the epoch day
+    private static final String COLUMN_SUM_Y = "sum_y"; // y is the weight
+    private static final String COLUMN_SUM_XX = "sum_xx";
+    private static final String COLUMN_SUM_XY = "sum_xy";
+    private static final String COLUMN_EMA = "ema";
+    private static final String COLUMN_EMA_DATE = "ema_date"; // NULL while the EMA needs repairing
+    // COLUMN_USER_ID and COLUMN_ENTRY_COUNT are also used here
+
+    // Smoothing factor of the moving average, for a span of 10 entries
+    private static final double EMA_ALPHA = 2.0 / (10 + 1);
+    // Entries re-read to repair the moving average; older ones carry a weight of (1 - EMA_ALPHA)^100 < 1e-8
+    private static final int EMA_WINDOW = 100;
+
+    // The periods that are rolled up, in the order of the PeriodUtils constants
+    private static final int[] ROLLUP_PERIODS = {PeriodUtils.DAY, PeriodUtils.WEEK, PeriodUtils.MONTH};
+
+    // IDs bound per DELETE statement; SQLite before 3.32 allows at most 999 bound parameters per statement
+    private static final int DELETE_CHUNK_SIZE = 500;
+
+    // The Julian day number of 1970-01-01, used to convert SQLite date functions to epoch days
+    private static final String JULIAN_DAY_OF_EPOCH = "2440587.5";
+
+    // --- Statements compiled once and cached for the hot paths ---
+    private static final String SQL_SELECT_WEIGHT_ID_FOR_DATE = "SELECT " + COLUMN_WEIGHT_ID + " FROM " + TABLE_WEIGHTS +
+            " WHERE " + COLUMN_USER_ID + "=? AND " + COLUMN_DATE + "=?";
+    private static final String SQL_UPDATE_WEIGHT = "UPDATE " + TABLE_WEIGHTS + " SET " + COLUMN_WEIGHT + "=?" +
+            " WHERE " + COLUMN_WEIGHT_ID + "=?";
+    private static final String SQL_INSERT_WEIGHT = "INSERT INTO " + TABLE_WEIGHTS +
+            "(" + COLUMN_DATE + ", " + COLUMN_WEIGHT + ", " + COLUMN_USER_ID + ") VALUES (?, ?, ?)";
+    private static final String SQL_SELECT_MOST_RECENT_WEIGHT = "SELECT " + COLUMN_WEIGHT + " FROM " + TABLE_WEIGHTS +
+            " WHERE " + COLUMN_USER_ID + "=? ORDER BY " + COLUMN_DATE + " DESC LIMIT 1";
+    private static final String SQL_SELECT_WEIGHT_GOAL = "SELECT " + COLUMN_WEIGHT_GOAL + " FROM " + TABLE_USERS +
+            " WHERE " + COLUMN_USER_ID + "=?";
+    private static final String SQL_SELECT_USERNAME = "SELECT " + COLUMN_USERNAME + " FROM " + TABLE_USERS +
+            " WHERE " + COLUMN_USER_ID + "=?";
+    private static final String SQL_SELECT_PHONE_NUMBER = "SELECT " + COLUMN_PHONE_NUMBER + " FROM " + TABLE_USERS +
+            " WHERE " + COLUMN_USER_ID + "=?";
+    private static final String SQL_UPDATE_WEIGHT_GOAL = "UPDATE " + TABLE_USERS + " SET " + COLUMN_WEIGHT_GOAL + "=?" +
+            " WHERE " + COLUMN_USER_ID + "=?";
+    private static final String SQL_UPDATE_PHONE_NUMBER = "UPDATE " + TABLE_USERS + " SET " + COLUMN_PHONE_NUMBER + "=?" +
+            " WHERE " + COLUMN_USER_ID + "=?";
+    private static final String SQL_SELECT_USER_ID = "SELECT " + COLUMN_USER_ID + " FROM " + TABLE_USERS +
+            " WHERE " + COLUMN_USERNAME + "=? AND " + COLUMN_PASSWORD + "=?";
+    private static final String SQL_UPSERT_UPDATE_WEIGHT = "UPDATE " + TABLE_WEIGHTS + " SET " + COLUMN_WEIGHT + "=?" +
+            " WHERE " + COLUMN_USER_ID + "=? AND " + COLUMN_DATE + "=?";
+    private static final String SQL_UPSERT_INSERT_WEIGHT = "INSERT OR IGNORE INTO " + TABLE_WEIGHTS +
+            "(" + COLUMN_DATE + ", " + COLUMN_WEIGHT + ", " + COLUMN_USER_ID + ") VALUES (?, ?, ?)";
+    // Passwords are left out, so a backup file never holds credentials
+    private static final String SQL_SELECT_BACKUP_USERS = "SELECT " + COLUMN_USER_ID + ", " + COLUMN_USERNAME + ", " +
+            COLUMN_WEIGHT_GOAL + ", " + COLUMN_PHONE_NUMBER + " FROM " + TABLE_USERS + " ORDER BY " + COLUMN_USER_ID;
+    private static final String SQL_SELECT_PASSWORDS = "SELECT " + COLUMN_USERNAME + ", " + COLUMN_PASSWORD +
+            " FROM " + TABLE_USERS + " WHERE " + COLUMN_USERNAME + " IS NOT NULL";
+    // Entries of users that no longer exist are left out, as they couldn't be restored
+    private static final String SQL_SELECT_BACKUP_WEIGHTS = "SELECT " + COLUMN_USER_ID + ", " + COLUMN_DATE + ", " +
+            COLUMN_WEIGHT + " FROM " + TABLE_WEIGHTS + " WHERE " + COLUMN_WEIGHT + " IS NOT NULL AND " + COLUMN_USER_ID +
+            " IN (SELECT " + COLUMN_USER_ID + " FROM " + TABLE_USERS + ") ORDER BY " + COLUMN_USER_ID + ", " + COLUMN_DATE;
+    private static final String SQL_SELECT_USERNAMES_WITHOUT_PASSWORD = "SELECT " + COLUMN_USERNAME + " FROM " +
+            TABLE_USERS + " WHERE " + COLUMN_PASSWORD + " IS NULL AND " + COLUMN_USERNAME + " IS NOT NULL" +
+            " ORDER BY " + COLUMN_USER_ID;
+    private static final String SQL_RESTORE_USER = "INSERT INTO " + TABLE_USERS + "(" + COLUMN_USER_ID + ", " +
+            COLUMN_USERNAME + ", " + COLUMN_PASSWORD + ", " + COLUMN_WEIGHT_GOAL + ", " + COLUMN_PHONE_NUMBER + ")" +
+            " VALUES (?, ?, ?, ?, ?)";
+
+    // Batches at least this large suspend the per-row rollup triggers and refresh the periods they touched once
+    private static final int BULK_UPSERT_THRESHOLD = 256;
+    // Dates of a bulk batch closer together than this share one refreshed range, gaps included
+    private static final int ROLLUP_REFRESH_GAP_DAYS = 62;
+    // The trigger whose absence shows a bulk upsert was interrupted, leaving the rollups stale
+    private static final String SQL_COUNT_ROLLUP_TRIGGER = "SELECT COUNT(*) FROM sqlite_master" +
+            " WHERE type = 'trigger' AND name = 'weights_rollup_insert'";
+
+    // The process-wide shared instance, created lazily by getInstance()
+    private static DatabaseHelper instance;
+
+    // The user of the bulk upsert in progress, or -1 if there is none, and the date ranges its batches
+    // wrote, each start mapped to its end, whose rollups are refreshed when it ends
+    private int bulkUserId = -1;
+    private final TreeMap<Integer, Integer> bulkRanges = new TreeMap<>();
+
+    // Compiled statements keyed by their SQL, kept for as long as the connection is open
+    private final Map<String, SQLiteStatement> statementCache = new HashMap<>();
+
+    // Call counts, latencies and slow queries of every public operation below
+    private final QueryMetrics metrics = new QueryMetrics();
+
     /**
-     * Constructor for the DatabaseHelper.
+     * Returns the process-wide DatabaseHelper, creating it on first use.
+     * The helper is bound to the application context so it never leaks an Activity or Fragment.
+     * @param context Any context; only its application context is retained.
+     * @return The shared DatabaseHelper instance.
+     */
+    public static synchronized DatabaseHelper getInstance(Context context) {
+        if (instance == null) {
+            instance = new DatabaseHelper(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Closes the shared connection and discards the shared instance.
+     * The next call to {@link #getInstance(Context)} opens a fresh connection. Normal app code never
+     * needs this, as the connection is meant to live as long as the process.
+     */
+    public static synchronized void closeInstance() {
+        if (instance != null) {
+            instance.close();
+            instance = null;
+        }
+    }
+
+    /**
+     * Constructor for the DatabaseHelper. Use {@link #getInstance(Context)} instead.
+     * Write-ahead logging is enabled so readers are not blocked while a write is in progress.
      * @param context The application context.
      */
-    public DatabaseHelper(Context context) {
+    private DatabaseHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    /**
+     * Gets the metrics of the operations run through this helper, e.g. to dump them in a debug build.
+     * @return The helper's QueryMetrics.
+     */
+    public QueryMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Closes the cached statements along with the database.
+     */
+    @Override
+    public synchronized void close() {
+        synchronized (statementCache) {
+            for (SQLiteStatement statement : statementCache.values()) {
+                statement.close();
+            }
+            statementCache.clear();
+        }
+        super.close();
+    }
+
+    /**
+     * Returns the compiled statement for a SQL string, compiling it the first time it is asked for, so
+     * SQLite parses and plans each hot statement only once per connection.
+     * A statement holds its bound arguments, so callers synchronize on it from the first bind until the
+     * result has been read, and clear its bindings before releasing it.
+     * @param sql The SQL of the statement, one of the SQL_ constants.
+     * @return The cached statement.
+     */
+    private SQLiteStatement cachedStatement(String sql) {
+        synchronized (statementCache) {
+            SQLiteStatement statement = statementCache.get(sql);
+            if (statement == null) {
+                statement = this.getWritableDatabase().compileStatement(sql);
+                statementCache.put(sql, statement);
+            }
+            return statement;
+        }
+    }
+
+    /**
+     * Runs a cached single-value query on one ID, without a cursor, and records it in the metrics.
+     * @param operation The name of the calling operation, for the metrics.
+     * @param sql The SQL of the query, with the ID as its only argument.
+     * @param id The ID to bind.
+     * @return The value of the first column of the first row as text, or null if there is no row or it is NULL.
+     */
+    private String simpleQueryForString(String operation, String sql, long id) {
+        long start = System.nanoTime();
+        SQLiteStatement statement = cachedStatement(sql);
+        String value;
+        synchronized (statement) {
+            try {
+                statement.bindLong(1, id);
+                value = statement.simpleQueryForString();
+            } catch (SQLiteDoneException e) {
+                value = null; // No row
+            } finally {
+                statement.clearBindings();
+            }
+        }
+        metrics.record(getReadableDatabase(), operation, start, value == null ? 0 : 1, sql, new String[]{String.valueOf(id)});
+        return value;
     }
 
     /**
      * Called when the database is created for the first time.
-     * This is where the creation of tables and the initial population of the tables should happen.
+     * Creates the original version 1 schema and then applies every migration, so a fresh install
+     * always ends up with exactly the same schema as an upgraded one.
      * @param db The database.
      */
     @Override
@@ -74,20 +291,560 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         String dateIndex = "CREATE INDEX idx_date ON " + TABLE_WEIGHTS + "(" + COLUMN_DATE + ")";
         db.execSQL(userIndex);
         db.execSQL(dateIndex);
+
+        migrate(db, 1, DATABASE_VERSION);
     }
 
     /**
      * Called when the database needs to be upgraded.
-     * This method will drop the existing tables and recreate them.
+     * Applies each migration between the two versions in order, keeping the existing data.
      * @param db The database.
      * @param oldVersion The old database version.
      * @param newVersion The new database version.
      */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_USERS);
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_WEIGHTS);
-        onCreate(db);
+        migrate(db, oldVersion, newVersion);
+    }
+
+    /**
+     * Moves the schema forward one version at a time. SQLiteOpenHelper already runs onCreate and
+     * onUpgrade inside a transaction, so a failed step leaves the database at its old version.
+     * To change the schema, bump DATABASE_VERSION and add a case for the new version below.
+     * @param db The database.
+     * @param fromVersion The version the database is currently at.
+     * @param toVersion The version to migrate to.
+     */
+    private void migrate(SQLiteDatabase db, int fromVersion, int toVersion) {
+        for (int version = fromVersion + 1; version <= toVersion; version++) {
+            switch (version) {
+                case 2:
+                    migrateToVersion2(db);
+                    break;
+                case 3:
+                    migrateToVersion3(db);
+                    break;
+                case 4:
+                    migrateToVersion4(db);
+                    break;
+                case 5:
+                    migrateToVersion5(db);
+                    break;
+                case 6:
+                    migrateToVersion6(db);
+                    break;
+                default:
+                    throw new IllegalStateException("No migration to database version " + version);
+            }
+        }
+    }
+
+    /**
+     * Version 2: allow at most one weight entry per user per date.
+     * @param db The database.
+     */
+    private void migrateToVersion2(SQLiteDatabase db) {
+        // Keep only the most recently added entry for each (user, date) before enforcing uniqueness
+        db.execSQL("DELETE FROM " + TABLE_WEIGHTS + " WHERE " + COLUMN_WEIGHT_ID + " NOT IN (" +
+                "SELECT MAX(" + COLUMN_WEIGHT_ID + ") FROM " + TABLE_WEIGHTS +
+                " GROUP BY " + COLUMN_USER_ID + ", " + COLUMN_DATE + ")");
+        db.execSQL("CREATE UNIQUE INDEX " + INDEX_USER_DATE + " ON " + TABLE_WEIGHTS +
+                "(" + COLUMN_USER_ID + ", " + COLUMN_DATE + ")");
+    }
+
+    /**
+     * Version 3: replace the single-column indexes with covering composite ones.
+     * (user_id, date, weight) answers the date orderings and (user_id, weight, date) the weight orderings
+     * straight from the index, in order, without a table lookup or a temporary sort. weight_id is the
+     * rowid, which every index already carries.
+     * @param db The database.
+     */
+    private void migrateToVersion3(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX " + INDEX_USER_DATE_WEIGHT + " ON " + TABLE_WEIGHTS +
+                "(" + COLUMN_USER_ID + ", " + COLUMN_DATE + ", " + COLUMN_WEIGHT + ")");
+        db.execSQL("CREATE INDEX " + INDEX_USER_WEIGHT + " ON " + TABLE_WEIGHTS +
+                "(" + COLUMN_USER_ID + ", " + COLUMN_WEIGHT + ", " + COLUMN_DATE + ")");
+        // Both are prefixes of, or unused next to, the new indexes
+        db.execSQL("DROP INDEX IF EXISTS idx_user_id");
+        db.execSQL("DROP INDEX IF EXISTS idx_date");
+    }
+
+    /**
+     * Version 4: store entry dates as INTEGER epoch days (days since 1970-01-01) instead of
+     * "YYYY-MM-DD" text. SQLite cannot change a column's type in place, so the weights table is
+     * rebuilt and each existing date is converted with julianday(). Rows whose text could never be
+     * parsed as a date are dropped, as they could not be placed in date order anyway.
+     * @param db The database.
+     */
+    private void migrateToVersion4(SQLiteDatabase db) {
+        String newTable = TABLE_WEIGHTS + "_new";
+        db.execSQL("CREATE TABLE " + newTable + "(" +
+                COLUMN_WEIGHT_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                COLUMN_DATE + " INTEGER NOT NULL, " +
+                COLUMN_WEIGHT + " REAL, " +
+                COLUMN_USER_ID + " INTEGER, " +
+                "FOREIGN KEY(" + COLUMN_USER_ID + ") REFERENCES " + TABLE_USERS + "(" + COLUMN_USER_ID + ")" +
+                ")");
+        db.execSQL("INSERT INTO " + newTable + "(" +
+                COLUMN_WEIGHT_ID + ", " + COLUMN_DATE + ", " + COLUMN_WEIGHT + ", " + COLUMN_USER_ID + ")" +
+                " SELECT " + COLUMN_WEIGHT_ID + ", " +
+                "CAST(julianday(" + COLUMN_DATE + ") - " + JULIAN_DAY_OF_EPOCH + " AS INTEGER), " +
+                COLUMN_WEIGHT + ", " + COLUMN_USER_ID +
+                " FROM " + TABLE_WEIGHTS +
+                " WHERE julianday(" + COLUMN_DATE + ") IS NOT NULL");
+        db.execSQL("DROP TABLE " + TABLE_WEIGHTS);
+        db.execSQL("ALTER TABLE " + newTable + " RENAME TO " + TABLE_WEIGHTS);
+        createWeightIndexes(db);
+    }
+
+    /**
+     * Version 5: add the per-period rollup table, fill it from the existing entries and install the
+     * triggers that keep it up to date.
+     * @param db The database.
+     */
+    private void migrateToVersion5(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_ROLLUPS + "(" +
+                COLUMN_USER_ID + " INTEGER NOT NULL, " +
+                COLUMN_PERIOD + " INTEGER NOT NULL, " +
+                COLUMN_PERIOD_START + " INTEGER NOT NULL, " +
+                COLUMN_ENTRY_COUNT + " INTEGER NOT NULL, " +
+                COLUMN_WEIGHT_SUM + " REAL NOT NULL, " +
+                COLUMN_MIN_WEIGHT + " REAL, " +
+                COLUMN_MAX_WEIGHT + " REAL, " +
+                COLUMN_FIRST_DATE + " INTEGER, " +
+                COLUMN_FIRST_WEIGHT + " REAL, " +
+                COLUMN_LAST_DATE + " INTEGER, " +
+                COLUMN_LAST_WEIGHT + " REAL, " +
+                "PRIMARY KEY(" + COLUMN_USER_ID + ", " + COLUMN_PERIOD + ", " + COLUMN_PERIOD_START + ")" +
+                ") WITHOUT ROWID");
+        rebuildRollups(db);
+        createRollupTriggers(db);
+    }
+
+    /**
+     * Version 6: add the per-user statistics table, fill it from the existing entries and install the
+     * triggers that keep it up to date.
+     * @param db The database.
+     */
+    private void migrateToVersion6(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_STATS + "(" +
+                COLUMN_USER_ID + " INTEGER PRIMARY KEY, " +
+                COLUMN_ENTRY_COUNT + " INTEGER NOT NULL, " +
+                COLUMN_SUM_X + " REAL NOT NULL, " +
+                COLUMN_SUM_Y + " REAL NOT NULL, " +
+                COLUMN_SUM_XX + " REAL NOT NULL, " +
+                COLUMN_SUM_XY + " REAL NOT NULL, " +
+                COLUMN_EMA + " REAL, " +
+                COLUMN_EMA_DATE + " INTEGER" +
+                ")");
+        rebuildStats(db);
+        createStatsTriggers(db);
+    }
+
+    /**
+     * Creates the current set of indexes on the weights table, e.g. after the table has been rebuilt.
+     * @param db The database.
+     */
+    private void createWeightIndexes(SQLiteDatabase db) {
+        db.execSQL("CREATE UNIQUE INDEX " + INDEX_USER_DATE + " ON " + TABLE_WEIGHTS +
+                "(" + COLUMN_USER_ID + ", " + COLUMN_DATE + ")");
+        db.execSQL("CREATE INDEX " + INDEX_USER_DATE_WEIGHT + " ON " + TABLE_WEIGHTS +
+                "(" + COLUMN_USER_ID + ", " + COLUMN_DATE + ", " + COLUMN_WEIGHT + ")");
+        db.execSQL("CREATE INDEX " + INDEX_USER_WEIGHT + " ON " + TABLE_WEIGHTS +
+                "(" + COLUMN_USER_ID + ", " + COLUMN_WEIGHT + ", " + COLUMN_DATE + ")");
+    }
+
+    // --- Rollup Maintenance ---
+
+    /**
+     * Builds the SQL expression for the first epoch day of the period containing a date.
+     * Weeks are ISO weeks starting on Monday; 1970-01-01 was a Thursday, hence the offset of 3.
+     * @param period A constant from PeriodUtils.
+     * @param date An SQL expression for an epoch day.
+     * @return The SQL expression for the period's first day.
+     */
+    private static String periodStartSql(int period, String date) {
+        switch (period) {
+            case PeriodUtils.WEEK:
+                return "(" + date + " - ((" + date + " % 7 + 10) % 7))";
+            case PeriodUtils.MONTH:
+                return "CAST(julianday(" + date + " + " + JULIAN_DAY_OF_EPOCH + ", 'start of month') - " +
+                        JULIAN_DAY_OF_EPOCH + " AS INTEGER)";
+            case PeriodUtils.DAY:
+            default:
+                return "(" + date + ")";
+        }
+    }
+
+    /**
+     * Builds the SQL expression for the first epoch day after the period containing a date.
+     * @param period A constant from PeriodUtils.
+     * @param date An SQL expression for an epoch day.
+     * @return The SQL expression for the day following the period's last day.
+     */
+    private static String periodEndSql(int period, String date) {
+        switch (period) {
+            case PeriodUtils.WEEK:
+                return "(" + periodStartSql(period, date) + " + 7)";
+            case PeriodUtils.MONTH:
+                return "CAST(julianday(" + date + " + " + JULIAN_DAY_OF_EPOCH + ", 'start of month', '+1 month') - " +
+                        JULIAN_DAY_OF_EPOCH + " AS INTEGER)";
+            case PeriodUtils.DAY:
+            default:
+                return "(" + date + " + 1)";
+        }
+    }
+
+    /**
+     * Builds the statements that fold one new entry into its rollup row, in O(1).
+     * @param period A constant from PeriodUtils.
+     * @return The SQL statements, each terminated by a semicolon, for use in a trigger body.
+     */
+    private static String rollupAddSql(int period) {
+        String start = periodStartSql(period, "NEW." + COLUMN_DATE);
+        return "INSERT OR IGNORE INTO " + TABLE_ROLLUPS + " VALUES (NEW." + COLUMN_USER_ID + ", " + period + ", " +
+                start + ", 0, 0, NEW." + COLUMN_WEIGHT + ", NEW." + COLUMN_WEIGHT + ", NEW." + COLUMN_DATE + ", NEW." +
+                COLUMN_WEIGHT + ", NEW." + COLUMN_DATE + ", NEW." + COLUMN_WEIGHT + "); " +
+                // Every right-hand side below sees the row's values from before this UPDATE
+                "UPDATE " + TABLE_ROLLUPS + " SET " +
+                COLUMN_ENTRY_COUNT + " = " + COLUMN_ENTRY_COUNT + " + 1, " +
+                COLUMN_WEIGHT_SUM + " = " + COLUMN_WEIGHT_SUM + " + NEW." + COLUMN_WEIGHT + ", " +
+                COLUMN_MIN_WEIGHT + " = MIN(" + COLUMN_MIN_WEIGHT + ", NEW." + COLUMN_WEIGHT + "), " +
+                COLUMN_MAX_WEIGHT + " = MAX(" + COLUMN_MAX_WEIGHT + ", NEW." + COLUMN_WEIGHT + "), " +
+                COLUMN_FIRST_WEIGHT + " = CASE WHEN NEW." + COLUMN_DATE + " <= " + COLUMN_FIRST_DATE +
+                " THEN NEW." + COLUMN_WEIGHT + " ELSE " + COLUMN_FIRST_WEIGHT + " END, " +
+                COLUMN_FIRST_DATE + " = MIN(" + COLUMN_FIRST_DATE + ", NEW." + COLUMN_DATE + "), " +
+                COLUMN_LAST_WEIGHT + " = CASE WHEN NEW." + COLUMN_DATE + " >= " + COLUMN_LAST_DATE +
+                " THEN NEW." + COLUMN_WEIGHT + " ELSE " + COLUMN_LAST_WEIGHT + " END, " +
+                COLUMN_LAST_DATE + " = MAX(" + COLUMN_LAST_DATE + ", NEW." + COLUMN_DATE + ")" +
+                " WHERE " + COLUMN_USER_ID + " = NEW." + COLUMN_USER_ID + " AND " + COLUMN_PERIOD + " = " + period +
+                " AND " + COLUMN_PERIOD_START + " = " + start + "; ";
+    }
+
+    /**
+     * Builds the statements that recompute the rollup row of the period containing a row's date.
+     * A removal cannot be folded out of a min/max incrementally, so the one affected period is re-read
+     * from the (user_id, date, weight) index instead; an emptied period loses its row.
+     * @param period A constant from PeriodUtils.
+     * @param row The trigger row alias, "OLD" or "NEW".
+     * @return The SQL statements, each terminated by a semicolon, for use in a trigger body.
+     */
+    private static String rollupRecomputeSql(int period, String row) {
+        String date = row + "." + COLUMN_DATE;
+        String start = periodStartSql(period, date);
+        String inPeriod = COLUMN_USER_ID + " = " + row + "." + COLUMN_USER_ID +
+                " AND " + COLUMN_DATE + " >= " + start + " AND " + COLUMN_DATE + " < " + periodEndSql(period, date);
+        return "DELETE FROM " + TABLE_ROLLUPS + " WHERE " + COLUMN_USER_ID + " = " + row + "." + COLUMN_USER_ID +
+                " AND " + COLUMN_PERIOD + " = " + period + " AND " + COLUMN_PERIOD_START + " = " + start + "; " +
+                "INSERT INTO " + TABLE_ROLLUPS + " SELECT " + COLUMN_USER_ID + ", " + period + ", " + start + ", " +
+                "COUNT(*), SUM(" + COLUMN_WEIGHT + "), MIN(" + COLUMN_WEIGHT + "), MAX(" + COLUMN_WEIGHT + "), " +
+                "MIN(" + COLUMN_DATE + "), (SELECT " + COLUMN_WEIGHT + " FROM " + TABLE_WEIGHTS + " WHERE " + inPeriod +
+                " ORDER BY " + COLUMN_DATE + " ASC LIMIT 1), " +
+                "MAX(" + COLUMN_DATE + "), (SELECT " + COLUMN_WEIGHT + " FROM " + TABLE_WEIGHTS + " WHERE " + inPeriod +
+                " ORDER BY " + COLUMN_DATE + " DESC LIMIT 1)" +
+                " FROM " + TABLE_WEIGHTS + " WHERE " + inPeriod + " GROUP BY " + COLUMN_USER_ID + "; ";
+    }
+
+    /**
+     * Installs the triggers that keep the rollup table in step with every write to the weights table,
+     * whichever code path performs it.
+     * @param db The database.
+     */
+    private void createRollupTriggers(SQLiteDatabase db) {
+        StringBuilder onInsert = new StringBuilder();
+        StringBuilder onDelete = new StringBuilder();
+        StringBuilder onUpdate = new StringBuilder();
+        for (int period : ROLLUP_PERIODS) {
+            onInsert.append(rollupAddSql(period));
+            onDelete.append(rollupRecomputeSql(period, "OLD"));
+            onUpdate.append(rollupRecomputeSql(period, "OLD")).append(rollupRecomputeSql(period, "NEW"));
+        }
+        db.execSQL("CREATE TRIGGER weights_rollup_insert AFTER INSERT ON " + TABLE_WEIGHTS +
+                " BEGIN " + onInsert + "END");
+        db.execSQL("CREATE TRIGGER weights_rollup_delete AFTER DELETE ON " + TABLE_WEIGHTS +
+                " BEGIN " + onDelete + "END");
+        db.execSQL("CREATE TRIGGER weights_rollup_update AFTER UPDATE OF " +
+                COLUMN_DATE + ", " + COLUMN_WEIGHT + ", " + COLUMN_USER_ID + " ON " + TABLE_WEIGHTS +
+                " BEGIN " + onUpdate + "END");
+    }
+
+    /**
+     * Recomputes the whole rollup table from the weights table in one pass per period.
+     * Only needed when the rollups are first created or every entry was replaced; otherwise the triggers maintain them.
+     * @param db The database.
+     */
+    private void rebuildRollups(SQLiteDatabase db) {
+        db.execSQL("DELETE FROM " + TABLE_ROLLUPS);
+        for (int period : ROLLUP_PERIODS) {
+            db.execSQL(rollupInsertSql(period, null));
+        }
+        db.execSQL(rollupEndWeightsSql(null));
+    }
+
+    /**
+     * Removes the triggers installed by {@link #createRollupTriggers(SQLiteDatabase)}, so a bulk write can
+     * bring the rollups up to date once instead of once per row. Call it inside the write's transaction and
+     * reinstall the triggers before committing, so no other write ever sees them missing.
+     * @param db The database.
+     */
+    private void dropRollupTriggers(SQLiteDatabase db) {
+        db.execSQL("DROP TRIGGER IF EXISTS weights_rollup_insert");
+        db.execSQL("DROP TRIGGER IF EXISTS weights_rollup_delete");
+        db.execSQL("DROP TRIGGER IF EXISTS weights_rollup_update");
+    }
+
+    /**
+     * Adds written dates to a set of date ranges whose rollups need refreshing. Dates and ranges closer
+     * together than ROLLUP_REFRESH_GAP_DAYS are merged into one range, so a batch of consecutive days,
+     * or a run of such batches, ends up as a single range.
+     * @param ranges The ranges, each start mapped to its end, to add to.
+     * @param epochDays The dates written, in any order.
+     * @param count The number of leading dates of the array to use.
+     */
+    private static void addRefreshRanges(TreeMap<Integer, Integer> ranges, int[] epochDays, int count) {
+        if (count == 0) {
+            return;
+        }
+        int[] sorted = Arrays.copyOf(epochDays, count);
+        Arrays.sort(sorted);
+        int rangeStart = sorted[0];
+        for (int i = 1; i <= count; i++) {
+            if (i < count && sorted[i] - sorted[i - 1] <= ROLLUP_REFRESH_GAP_DAYS) {
+                continue;
+            }
+            int start = rangeStart;
+            int end = sorted[i - 1];
+            // Absorb the range before this one and any after it that are near enough
+            Map.Entry<Integer, Integer> before = ranges.floorEntry(start);
+            if (before != null && before.getValue() + ROLLUP_REFRESH_GAP_DAYS >= start) {
+                start = before.getKey();
+                end = Math.max(end, before.getValue());
+            }
+            Map.Entry<Integer, Integer> after = ranges.ceilingEntry(start);
+            while (after != null && after.getKey() <= end + ROLLUP_REFRESH_GAP_DAYS) {
+                end = Math.max(end, after.getValue());
+                ranges.remove(after.getKey());
+                after = ranges.ceilingEntry(start);
+            }
+            ranges.put(start, end);
+            if (i < count) {
+                rangeStart = sorted[i];
+            }
+        }
+    }
+
+    /**
+     * Recomputes a user's rollup rows for every period overlapping the given date ranges, after entries
+     * in them were written with the rollup triggers removed. Each range costs a few statements per period.
+     * @param db The database.
+     * @param userId The ID of the user whose entries were written.
+     * @param ranges The written date ranges, each start mapped to its end, as built by addRefreshRanges.
+     */
+    private void refreshRollups(SQLiteDatabase db, int userId, TreeMap<Integer, Integer> ranges) {
+        for (Map.Entry<Integer, Integer> range : ranges.entrySet()) {
+            int rangeStart = range.getKey();
+            int rangeEnd = range.getValue();
+            for (int period : ROLLUP_PERIODS) {
+                String firstStart = periodStartSql(period, String.valueOf(rangeStart));
+                String lastStart = periodStartSql(period, String.valueOf(rangeEnd));
+                String rollupsInRange = COLUMN_USER_ID + " = " + userId + " AND " + COLUMN_PERIOD + " = " + period +
+                        " AND " + COLUMN_PERIOD_START + " BETWEEN " + firstStart + " AND " + lastStart;
+                db.execSQL("DELETE FROM " + TABLE_ROLLUPS + " WHERE " + rollupsInRange);
+                db.execSQL(rollupInsertSql(period, COLUMN_USER_ID + " = " + userId + " AND " + COLUMN_DATE +
+                        " >= " + firstStart + " AND " + COLUMN_DATE + " < " + periodEndSql(period, String.valueOf(rangeEnd))));
+                db.execSQL(rollupEndWeightsSql(rollupsInRange));
+            }
+        }
+    }
+
+    /**
+     * Builds the statement that inserts the rollup rows of one period length, grouped from the weights
+     * table, leaving their first and last weights to {@link #rollupEndWeightsSql(String)}.
+     * @param period A constant from PeriodUtils.
+     * @param where A condition on the weights table selecting the entries to group, or null for all of them.
+     * @return The SQL statement.
+     */
+    private static String rollupInsertSql(int period, String where) {
+        return "INSERT INTO " + TABLE_ROLLUPS + " SELECT " + COLUMN_USER_ID + ", " + period + ", " +
+                periodStartSql(period, COLUMN_DATE) + " AS start, " +
+                "COUNT(*), SUM(" + COLUMN_WEIGHT + "), MIN(" + COLUMN_WEIGHT + "), MAX(" + COLUMN_WEIGHT + "), " +
+                "MIN(" + COLUMN_DATE + "), NULL, MAX(" + COLUMN_DATE + "), NULL" +
+                " FROM " + TABLE_WEIGHTS + (where == null ? "" : " WHERE " + where) +
+                " GROUP BY " + COLUMN_USER_ID + ", start";
+    }
+
+    /**
+     * Builds the statement that fills in the first and last weights of rollup rows from their dates.
+     * Dates are unique per user, so each is a single index lookup.
+     * @param where A condition on the rollup table selecting the rows to fill in, or null for all of them.
+     * @return The SQL statement.
+     */
+    private static String rollupEndWeightsSql(String where) {
+        return "UPDATE " + TABLE_ROLLUPS + " SET " +
+                COLUMN_FIRST_WEIGHT + " = (SELECT w." + COLUMN_WEIGHT + " FROM " + TABLE_WEIGHTS + " w" +
+                " WHERE w." + COLUMN_USER_ID + " = " + TABLE_ROLLUPS + "." + COLUMN_USER_ID +
+                " AND w." + COLUMN_DATE + " = " + TABLE_ROLLUPS + "." + COLUMN_FIRST_DATE + "), " +
+                COLUMN_LAST_WEIGHT + " = (SELECT w." + COLUMN_WEIGHT + " FROM " + TABLE_WEIGHTS + " w" +
+                " WHERE w." + COLUMN_USER_ID + " = " + TABLE_ROLLUPS + "." + COLUMN_USER_ID +
+                " AND w." + COLUMN_DATE + " = " + TABLE_ROLLUPS + "." + COLUMN_LAST_DATE + ")" +
+                (where == null ? "" : " WHERE " + where);
+    }
+
+    // --- Statistics Maintenance ---
+
+    /**
+     * Builds the assignments that add a row to, or subtract it from, its user's entry count and regression sums.
+     * The sums of a user left without entries are reset to exactly 0, so rounding never accumulates.
+     * @param row The trigger row alias, "OLD" or "NEW".
+     * @param add true to add the row, false to subtract it.
+     * @return The assignments, for the SET clause of an UPDATE.
+     */
+    private static String statsSumsSql(String row, boolean add) {
+        String date = row + "." + COLUMN_DATE;
+        String weight = row + "." + COLUMN_WEIGHT;
+        String[][] sums = {{COLUMN_SUM_X, date}, {COLUMN_SUM_Y, weight},
+                {COLUMN_SUM_XX, date + " * " + date}, {COLUMN_SUM_XY, date + " * " + weight}};
+        StringBuilder sql = new StringBuilder(COLUMN_ENTRY_COUNT + " = " + COLUMN_ENTRY_COUNT + (add ? " + 1" : " - 1"));
+        for (String[] sum : sums) {
+            sql.append(", ").append(sum[0]).append(" = ");
+            if (add) {
+                sql.append(sum[0]).append(" + ").append(sum[1]);
+            } else {
+                sql.append("CASE WHEN ").append(COLUMN_ENTRY_COUNT).append(" = 1 THEN 0 ELSE ")
+                        .append(sum[0]).append(" - ").append(sum[1]).append(" END");
+            }
+        }
+        return sql.toString();
+    }
+
+    /**
+     * Builds the statement that removes a row from its user's statistics. A moving average can't be
+     * unwound, so it is marked for repair by {@link #repairStaleStats(SQLiteDatabase)}.
+     * @param row The trigger row alias, "OLD" or "NEW".
+     * @return The SQL statement, terminated by a semicolon, for use in a trigger body.
+     */
+    private static String statsRemoveSql(String row) {
+        return "UPDATE " + TABLE_STATS + " SET " + statsSumsSql(row, false) + ", " +
+                COLUMN_EMA + " = NULL, " + COLUMN_EMA_DATE + " = NULL" +
+                " WHERE " + COLUMN_USER_ID + " = " + row + "." + COLUMN_USER_ID + "; ";
+    }
+
+    /**
+     * Builds the statements that fold a new row into its user's statistics in O(1). A row newer than
+     * every other entry advances the moving average; one dated earlier marks it for repair instead.
+     * @param row The trigger row alias, "NEW".
+     * @param alwaysStale Whether to mark the moving average for repair whatever the date, e.g. after an update.
+     * @return The SQL statements, each terminated by a semicolon, for use in a trigger body.
+     */
+    private static String statsAddSql(String row, boolean alwaysStale) {
+        String date = row + "." + COLUMN_DATE;
+        String weight = row + "." + COLUMN_WEIGHT;
+        String first = COLUMN_ENTRY_COUNT + " = 0";
+        String appended = COLUMN_EMA_DATE + " IS NOT NULL AND " + date + " > " + COLUMN_EMA_DATE;
+        String ema = "NULL";
+        String emaDate = "NULL";
+        if (!alwaysStale) {
+            ema = "CASE WHEN " + first + " THEN " + weight + " WHEN " + appended + " THEN " +
+                    COLUMN_EMA + " + " + EMA_ALPHA + " * (" + weight + " - " + COLUMN_EMA + ") ELSE NULL END";
+            emaDate = "CASE WHEN " + first + " OR (" + appended + ") THEN " + date + " ELSE NULL END";
+        }
+        return "INSERT OR IGNORE INTO " + TABLE_STATS + " VALUES (" + row + "." + COLUMN_USER_ID +
+                ", 0, 0, 0, 0, 0, NULL, NULL); " +
+                // Every right-hand side below sees the row's values from before this UPDATE
+                "UPDATE " + TABLE_STATS + " SET " + statsSumsSql(row, true) + ", " +
+                COLUMN_EMA + " = " + ema + ", " + COLUMN_EMA_DATE + " = " + emaDate +
+                " WHERE " + COLUMN_USER_ID + " = " + row + "." + COLUMN_USER_ID + "; ";
+    }
+
+    /**
+     * Installs the triggers that keep the statistics table in step with every write to the weights table.
+     * @param db The database.
+     */
+    private void createStatsTriggers(SQLiteDatabase db) {
+        db.execSQL("CREATE TRIGGER weights_stats_insert AFTER INSERT ON " + TABLE_WEIGHTS +
+                " BEGIN " + statsAddSql("NEW", false) + "END");
+        db.execSQL("CREATE TRIGGER weights_stats_delete AFTER DELETE ON " + TABLE_WEIGHTS +
+                " BEGIN " + statsRemoveSql("OLD") + "END");
+        db.execSQL("CREATE TRIGGER weights_stats_update AFTER UPDATE OF " +
+                COLUMN_DATE + ", " + COLUMN_WEIGHT + ", " + COLUMN_USER_ID + " ON " + TABLE_WEIGHTS +
+                " BEGIN " + statsRemoveSql("OLD") + statsAddSql("NEW", true) + "END");
+    }
+
+    /**
+     * Removes the triggers installed by {@link #createStatsTriggers(SQLiteDatabase)}, e.g. while a restore
+     * replaces every entry. Call it inside the write's transaction and reinstall the triggers before committing.
+     * @param db The database.
+     */
+    private void dropStatsTriggers(SQLiteDatabase db) {
+        db.execSQL("DROP TRIGGER IF EXISTS weights_stats_insert");
+        db.execSQL("DROP TRIGGER IF EXISTS weights_stats_delete");
+        db.execSQL("DROP TRIGGER IF EXISTS weights_stats_update");
+    }
+
+    /**
+     * Recomputes the whole statistics table from the weights table in one pass.
+     * Only needed when the statistics are first created or every entry was replaced; otherwise the triggers maintain them.
+     * @param db The database.
+     */
+    private void rebuildStats(SQLiteDatabase db) {
+        db.execSQL("DELETE FROM " + TABLE_STATS);
+        db.execSQL("INSERT INTO " + TABLE_STATS + " SELECT " + COLUMN_USER_ID + ", COUNT(*), " +
+                "SUM(" + COLUMN_DATE + "), SUM(" + COLUMN_WEIGHT + "), " +
+                "SUM(" + COLUMN_DATE + " * " + COLUMN_DATE + "), SUM(" + COLUMN_DATE + " * " + COLUMN_WEIGHT + "), " +
+                "NULL, NULL FROM " + TABLE_WEIGHTS + " GROUP BY " + COLUMN_USER_ID);
+        repairStaleStats(db);
+    }
+
+    /**
+     * Recomputes the moving average of every user whose triggers marked it for repair, from their newest
+     * EMA_WINDOW entries only, so a repair costs the same however long the history is. Called at the end
+     * of every write to the weights table, inside its transaction.
+     * @param db The database.
+     */
+    private void repairStaleStats(SQLiteDatabase db) {
+        Cursor stale = db.rawQuery("SELECT " + COLUMN_USER_ID + " FROM " + TABLE_STATS +
+                " WHERE " + COLUMN_EMA_DATE + " IS NULL AND " + COLUMN_ENTRY_COUNT + " > 0", null);
+        while (stale.moveToNext()) {
+            String userId = stale.getString(0);
+            Cursor newest = db.rawQuery("SELECT " + COLUMN_DATE + ", " + COLUMN_WEIGHT + " FROM " + TABLE_WEIGHTS +
+                    " WHERE " + COLUMN_USER_ID + "=? ORDER BY " + COLUMN_DATE + " DESC LIMIT " + EMA_WINDOW,
+                    new String[]{userId});
+            // Fold oldest to newest, seeded with the oldest weight just as the triggers seed a first entry
+            newest.moveToLast();
+            double ema = newest.getDouble(1);
+            while (newest.moveToPrevious()) {
+                ema += EMA_ALPHA * (newest.getDouble(1) - ema);
+            }
+            newest.moveToFirst();
+            int emaDate = newest.getInt(0);
+            newest.close();
+            db.execSQL("UPDATE " + TABLE_STATS + " SET " + COLUMN_EMA + "=?, " + COLUMN_EMA_DATE + "=?" +
+                    " WHERE " + COLUMN_USER_ID + "=?", new Object[]{ema, emaDate, userId});
+        }
+        stale.close();
+    }
+
+    /**
+     * Called once the database is open and up to date. If a bulk upsert was interrupted, e.g. by the
+     * process being killed during an import, the rollup triggers are missing and the rollups stale, so
+     * both are rebuilt here.
+     * @param db The database.
+     */
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (db.isReadOnly() || DatabaseUtils.longForQuery(db, SQL_COUNT_ROLLUP_TRIGGER, null) > 0) {
+            return;
+        }
+        db.beginTransaction();
+        try {
+            dropRollupTriggers(db);
+            rebuildRollups(db);
+            createRollupTriggers(db);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
     }
 
     /**
@@ -110,13 +867,16 @@ public class DatabaseHelper extends SQLiteOpenHelper {
      * @return true if the user was added successfully, false otherwise.
      */
     public boolean addUser(String username, String password) {
+        long start = System.nanoTime();
         SQLiteDatabase db = this.getWritableDatabase();
         ContentValues values = new ContentValues();
         values.put(COLUMN_USERNAME, username);
         values.put(COLUMN_PASSWORD, password);
 
         long result = db.insert(TABLE_USERS, null, values);
-        db.close();
+        // The arguments aren't kept, so a password never reaches the slow-query log
+        metrics.record(db, "addUser", start, result != -1 ? 1 : 0,
+                "INSERT INTO " + TABLE_USERS + "(" + COLUMN_USERNAME + ", " + COLUMN_PASSWORD + ") VALUES (?, ?)", null);
         return result != -1;
     }
 
@@ -127,18 +887,17 @@ public class DatabaseHelper extends SQLiteOpenHelper {
      * @return The integer user ID if credentials are valid, null otherwise.
      */
     public Integer getUserId(String username, String password) {
+        long start = System.nanoTime();
         SQLiteDatabase db = this.getReadableDatabase();
-        Cursor cursor = db.query(TABLE_USERS,
-                new String[]{COLUMN_USER_ID},
-                COLUMN_USERNAME + "=? AND " + COLUMN_PASSWORD + "=?",
-                new String[]{username, password}, null, null, null);
+        Cursor cursor = db.rawQuery(SQL_SELECT_USER_ID, new String[]{username, password});
 
         Integer userId = null;
         if (cursor.moveToFirst()) {
             userId = cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_USER_ID));
         }
         cursor.close();
-        db.close();
+        // The arguments aren't kept, so a password never reaches the slow-query log
+        metrics.record(db, "getUserId", start, userId == null ? 0 : 1, SQL_SELECT_USER_ID, null);
         return userId;
     }
 
@@ -146,21 +905,224 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 
     /**
      * Adds a new weight entry for a specific user.
-     * @param date The date of the weight entry (e.g., "YYYY-MM-DD").
+     * If the user already has an entry for the date, its weight is replaced instead and its ID is kept.
+     * @param epochDay The date of the weight entry, as days since 1970-01-01.
      * @param weight The weight value.
      * @param userId The ID of the user this entry belongs to.
-     * @return true if the entry was added successfully, false otherwise.
+     * @return The ID of the added or updated entry, or -1 if the entry was rejected.
      */
-    public boolean addWeight(String date, float weight, int userId) {
+    public int addWeight(int epochDay, float weight, int userId) {
+        if (!(weight > 0)) {
+            return -1;
+        }
+        long start = System.nanoTime();
         SQLiteDatabase db = this.getWritableDatabase();
-        ContentValues values = new ContentValues();
-        values.put(COLUMN_DATE, date);
-        values.put(COLUMN_WEIGHT, weight);
-        values.put(COLUMN_USER_ID, userId);
+        SQLiteStatement findId = cachedStatement(SQL_SELECT_WEIGHT_ID_FOR_DATE);
+        SQLiteStatement update = cachedStatement(SQL_UPDATE_WEIGHT);
+        SQLiteStatement insert = cachedStatement(SQL_INSERT_WEIGHT);
+        long weightId = -1;
+        boolean updated = false;
+        db.beginTransaction();
+        try {
+            synchronized (findId) {
+                try {
+                    findId.bindLong(1, userId);
+                    findId.bindLong(2, epochDay);
+                    weightId = findId.simpleQueryForLong();
+                } catch (SQLiteDoneException e) {
+                    weightId = -1; // No entry for the date yet
+                } finally {
+                    findId.clearBindings();
+                }
+            }
 
-        long result = db.insert(TABLE_WEIGHTS, null, values);
-        db.close();
-        return result != -1;
+            if (weightId != -1) {
+                updated = true;
+                synchronized (update) {
+                    try {
+                        update.bindDouble(1, weight);
+                        update.bindLong(2, weightId);
+                        update.executeUpdateDelete();
+                    } finally {
+                        update.clearBindings();
+                    }
+                }
+            } else {
+                synchronized (insert) {
+                    try {
+                        insert.bindLong(1, epochDay);
+                        insert.bindDouble(2, weight);
+                        insert.bindLong(3, userId);
+                        weightId = insert.executeInsert();
+                    } finally {
+                        insert.clearBindings();
+                    }
+                }
+            }
+            repairStaleStats(db);
+            db.setTransactionSuccessful();
+        } catch (SQLiteConstraintException e) {
+            // e.g. the user does not exist
+            weightId = -1;
+        } finally {
+            db.endTransaction();
+        }
+        metrics.record(db, "addWeight", start, weightId != -1 ? 1 : 0,
+                updated ? SQL_UPDATE_WEIGHT : SQL_INSERT_WEIGHT, null);
+        return (int) weightId;
+    }
+
+    /**
+     * Inserts or updates a batch of weight entries for a specific user.
+     * @param userId The ID of the user the entries belong to.
+     * @param epochDays The dates of the entries, as days since 1970-01-01.
+     * @param weights The weight values, parallel to {@code epochDays}.
+     * @return The number of rows inserted, updated and rejected.
+     * @see #upsertWeights(int, int[], float[], int)
+     */
+    public WeightBatchResult upsertWeights(int userId, int[] epochDays, float[] weights) {
+        return upsertWeights(userId, epochDays, weights, epochDays.length);
+    }
+
+    /**
+     * Inserts or updates a batch of weight entries for a specific user in a single transaction.
+     * An entry whose date already exists for the user overwrites that row's weight, so re-importing
+     * the same history never creates duplicates. Entries with a non-positive weight are rejected and
+     * the rest of the batch is still written. A batch of BULK_UPSERT_THRESHOLD entries or more suspends the
+     * rollup triggers and recomputes the periods it touched once at the end; within a bulk upsert started by
+     * {@link #beginBulkUpsert(int)}, that recomputation is left to {@link #endBulkUpsert()}.
+     * @param userId The ID of the user the entries belong to.
+     * @param epochDays The dates of the entries, as days since 1970-01-01.
+     * @param weights The weight values, parallel to {@code epochDays}.
+     * @param count The number of leading entries of the arrays to write.
+     * @return The number of rows inserted, updated and rejected.
+     * @throws IllegalStateException If a bulk upsert for another user is in progress.
+     */
+    public WeightBatchResult upsertWeights(int userId, int[] epochDays, float[] weights, int count) {
+        boolean inSession = bulkUserId != -1;
+        if (inSession && userId != bulkUserId) {
+            throw new IllegalStateException("A bulk upsert for user " + bulkUserId + " is in progress");
+        }
+        int inserted = 0;
+        int updated = 0;
+        int rejected = 0;
+
+        long start = System.nanoTime();
+        SQLiteDatabase db = this.getWritableDatabase();
+        SQLiteStatement update = db.compileStatement(SQL_UPSERT_UPDATE_WEIGHT);
+        SQLiteStatement insert = db.compileStatement(SQL_UPSERT_INSERT_WEIGHT);
+        // Within a bulk upsert the triggers are already removed, and the rollups are refreshed at its end
+        boolean bulk = !inSession && count >= BULK_UPSERT_THRESHOLD;
+
+        db.beginTransaction();
+        try {
+            if (bulk) {
+                dropRollupTriggers(db);
+            }
+            for (int i = 0; i < count; i++) {
+                int epochDay = epochDays[i];
+                float weight = weights[i];
+                if (!(weight > 0)) {
+                    rejected++;
+                    continue;
+                }
+
+                // Try to insert first, which is one statement for a new date; an existing date makes the
+                // insert a no-op, and that row's weight is overwritten instead
+                insert.bindLong(1, epochDay);
+                insert.bindDouble(2, weight);
+                insert.bindLong(3, userId);
+                try {
+                    if (insert.executeInsert() != -1) {
+                        inserted++;
+                        continue;
+                    }
+                } catch (SQLiteConstraintException e) {
+                    // e.g. the user does not exist; skip this row and keep the rest of the batch
+                    rejected++;
+                    continue;
+                }
+
+                update.bindDouble(1, weight);
+                update.bindLong(2, userId);
+                update.bindLong(3, epochDay);
+                if (update.executeUpdateDelete() > 0) {
+                    updated++;
+                } else {
+                    rejected++;
+                }
+            }
+            if (bulk) {
+                TreeMap<Integer, Integer> ranges = new TreeMap<>();
+                addRefreshRanges(ranges, epochDays, count);
+                refreshRollups(db, userId, ranges);
+                createRollupTriggers(db);
+            } else if (inSession) {
+                addRefreshRanges(bulkRanges, epochDays, count);
+            }
+            repairStaleStats(db);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            update.close();
+            insert.close();
+        }
+        // The insert is tried for every entry, so its plan is the one that matters most
+        metrics.record(db, "upsertWeights", start, inserted + updated, SQL_UPSERT_INSERT_WEIGHT, null);
+        return new WeightBatchResult(inserted, updated, rejected);
+    }
+
+    /**
+     * Starts a bulk upsert, e.g. a file import written as many upsertWeights batches: the rollup triggers
+     * are removed until {@link #endBulkUpsert()}, which refreshes the rollups of every date range the
+     * batches wrote in one pass. Each batch is still its own transaction, so the batches written before
+     * a failure or cancellation are kept. The rollups are out of date while the bulk upsert runs, and if
+     * the process dies before it ends, they are rebuilt when the database is next opened.
+     * Call both methods and every batch from the one thread that writes, e.g. the DatabaseExecutor's writer.
+     * @param userId The ID of the user whose entries will be written.
+     * @throws IllegalStateException If a bulk upsert is already in progress.
+     */
+    public void beginBulkUpsert(int userId) {
+        if (bulkUserId != -1) {
+            throw new IllegalStateException("A bulk upsert for user " + bulkUserId + " is already in progress");
+        }
+        SQLiteDatabase db = this.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            dropRollupTriggers(db);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        bulkUserId = userId;
+        bulkRanges.clear();
+    }
+
+    /**
+     * Ends the bulk upsert started by {@link #beginBulkUpsert(int)}, refreshing the rollups of the dates its
+     * batches wrote and reinstalling the rollup triggers in one transaction. Does nothing if none is in progress.
+     */
+    public void endBulkUpsert() {
+        if (bulkUserId == -1) {
+            return;
+        }
+        long start = System.nanoTime();
+        int userId = bulkUserId;
+        int rangeCount = bulkRanges.size();
+        SQLiteDatabase db = this.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            refreshRollups(db, userId, bulkRanges);
+            createRollupTriggers(db);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            bulkUserId = -1;
+            bulkRanges.clear();
+        }
+        // The rows counted are the refreshed ranges; grouping the entries into rollups is the costly part
+        metrics.record(db, "endBulkUpsert", start, rangeCount,
+                rollupInsertSql(ROLLUP_PERIODS[0], COLUMN_USER_ID + " = " + userId), null);
     }
 
     /**
@@ -169,99 +1131,520 @@ public class DatabaseHelper extends SQLiteOpenHelper {
      * @return The most recent weight as a Float, or null if no entries exist.
      */
     public Float getMostRecentWeight(int userId) {
+        String recentWeight = simpleQueryForString("getMostRecentWeight", SQL_SELECT_MOST_RECENT_WEIGHT, userId);
+        return recentWeight == null ? null : Float.parseFloat(recentWeight);
+    }
+
+    /**
+     * Retrieves all weight entries for a specific user from the database, with a specified sort order.
+     * @param userId The ID of the user whose entries to fetch.
+     * @param sortOption A constant from SortUtils defining the sort order.
+     * @return A WeightSeries holding all weight entries.
+     */
+    public WeightSeries getAllWeightEntries(int userId, int sortOption) {
+        return getAllWeightEntries(userId, sortOption, null);
+    }
+
+    /**
+     * Retrieves the weight entries for a specific user that match a filter, with a specified sort order.
+     * @param userId The ID of the user whose entries to fetch.
+     * @param sortOption A constant from SortUtils defining the sort order.
+     * @param filter The date range and weight band to restrict to, or null for all entries.
+     * @return A WeightSeries holding the matching weight entries.
+     */
+    public WeightSeries getAllWeightEntries(int userId, int sortOption, WeightFilter filter) {
+        return getAllWeightEntries(userId, sortOption, filter, 0);
+    }
+
+    /**
+     * Retrieves up to a given number of a user's weight entries that match a filter, in a specified
+     * sort order. A limited DISTANCE_FROM_GOAL query, such as "the N entries closest to goal", is ordered by
+     * the database, which only ever keeps N rows in its sorter. The whole history in that order is read
+     * by date instead and sorted once in memory, see {@link #sortByGoalDistance}.
+     * @param userId The ID of the user whose entries to fetch.
+     * @param sortOption A constant from SortUtils defining the sort order.
+     * @param filter The date range and weight band to restrict to, or null for all entries.
+     * @param limit The maximum number of entries to return, or 0 for no limit.
+     * @return A WeightSeries holding the matching weight entries.
+     */
+    public WeightSeries getAllWeightEntries(int userId, int sortOption, WeightFilter filter, int limit) {
+        if (sortOption == SortUtils.DISTANCE_FROM_GOAL && limit == 0) {
+            WeightSeries byDate = getAllWeightEntries(userId, SortUtils.DATE_OLDEST, filter, 0);
+            return sortByGoalDistance(byDate, getWeightGoal(userId));
+        }
+        long start = System.nanoTime();
+        List<String> selectionArgs = new ArrayList<>();
+        String sql = buildWeightEntriesQuery(userId, sortOption, filter, limit, selectionArgs);
+        String[] args = selectionArgs.toArray(new String[0]);
         SQLiteDatabase db = this.getReadableDatabase();
-        Cursor cursor = db.query(TABLE_WEIGHTS,
-                new String[]{COLUMN_WEIGHT},
-                COLUMN_USER_ID + "=?",
-                new String[]{String.valueOf(userId)},
-                null, null, COLUMN_DATE + " DESC", // Order by date descending
-                "1"); // Limit to the most recent entry
-
-        Float recentWeight = null;
-        if (cursor.moveToFirst()) {
-            recentWeight = cursor.getFloat(cursor.getColumnIndexOrThrow(COLUMN_WEIGHT));
+        WeightSeries weightEntries = readWeightEntries(db.rawQuery(sql, args));
+        metrics.record(db, "getAllWeightEntries", start, weightEntries.size(), sql, args);
+        return weightEntries;
+    }
+
+    /**
+     * Puts date-ordered entries into DISTANCE_FROM_GOAL order with a WeightOrderIndex permutation.
+     * No index can return that order, so SQLite would sort the whole history in its sorter; reading the
+     * entries in index order and sorting them here once makes a full read cost the same as a date order.
+     * @param byDate The entries, oldest first.
+     * @param weightGoal The user's weight goal, or null if none is set.
+     * @return The same entries, closest to the goal first and newest first among equal distances.
+     */
+    static WeightSeries sortByGoalDistance(WeightSeries byDate, Float weightGoal) {
+        WeightOrderIndex index = new WeightOrderIndex(byDate);
+        WeightSeries sorted = new WeightSeries(byDate.size());
+        for (int i = 0; i < byDate.size(); i++) {
+            int position = index.seriesIndex(SortUtils.DISTANCE_FROM_GOAL, weightGoal, i);
+            sorted.add(byDate.getWeightId(position), byDate.getEpochDay(position), byDate.getWeight(position));
         }
-        cursor.close();
-        db.close();
-        return recentWeight;
+        return sorted;
     }
 
     /**
-     * Retrieves all weight entries for a specific user from the database, with a specified sort order.
+     * Counts the weight entries for a specific user that match a filter.
+     * @param userId The ID of the user whose entries to count.
+     * @param filter The date range and weight band to restrict to, or null for all entries.
+     * @return The number of matching entries.
+     */
+    public long countWeightEntries(int userId, WeightFilter filter) {
+        long start = System.nanoTime();
+        SQLiteDatabase db = this.getReadableDatabase();
+        List<String> selectionArgs = new ArrayList<>();
+        String sql = "SELECT COUNT(*) FROM " + TABLE_WEIGHTS + " WHERE " + buildFilterSelection(userId, filter, selectionArgs);
+        String[] args = selectionArgs.toArray(new String[0]);
+        long count = DatabaseUtils.longForQuery(db, sql, args);
+        metrics.record(db, "countWeightEntries", start, 1, sql, args);
+        return count;
+    }
+
+    /**
+     * Builds the query behind {@link #getAllWeightEntries(int, int, WeightFilter, int)}.
+     * @return The SQL, whose arguments have been appended to selectionArgs.
+     */
+    private String buildWeightEntriesQuery(int userId, int sortOption, WeightFilter filter, int limit,
+                                           List<String> selectionArgs) {
+        String selection = buildFilterSelection(userId, filter, selectionArgs);
+        return SQLiteQueryBuilder.buildQueryString(false, TABLE_WEIGHTS,
+                new String[]{COLUMN_WEIGHT_ID, COLUMN_DATE, COLUMN_WEIGHT},
+                selection, null, null, getOrderByClause(userId, sortOption), limit > 0 ? String.valueOf(limit) : null);
+    }
+
+    /**
+     * Retrieves one page of a user's weight entries using keyset (seek) pagination.
+     * Instead of an OFFSET, the page starts strictly after the given entry in the sort order, using its
+     * sort key as the cursor, so every page costs the same no matter how deep it is. Dates are unique per
+     * user, so they identify a position on their own and break ties between equal weights or distances.
      * @param userId The ID of the user whose entries to fetch.
      * @param sortOption A constant from SortUtils defining the sort order.
-     * @return A List of ProgressItem objects representing all weight entries.
+     * @param filter The date range and weight band to restrict to, or null for all entries.
+     * @param after The last entry of the previous page, or null to fetch the first page.
+     * @param pageSize The maximum number of entries to return.
+     * @return A WeightSeries of at most pageSize entries; fewer means the end has been reached.
      */
-    public List<ProgressItem> getAllWeightEntries(int userId, int sortOption) {
-        List<ProgressItem> weightEntries = new ArrayList<>();
+    public WeightSeries getWeightEntriesPage(int userId, int sortOption, WeightFilter filter,
+                                             ProgressItem after, int pageSize) {
+        long start = System.nanoTime();
         SQLiteDatabase db = this.getReadableDatabase();
+        List<String> selectionArgs = new ArrayList<>();
+        String selection = buildFilterSelection(userId, filter, selectionArgs);
+
+        if (after != null) {
+            String comparison = isDescending(sortOption) ? "<" : ">";
+            String afterWeight = Double.toString(after.getWeight()); // Widen exactly as the value was stored
+            String afterDate = String.valueOf(after.getEpochDay());
+            switch (sortOption) {
+                case SortUtils.WEIGHT_HIGHEST:
+                case SortUtils.WEIGHT_LOWEST:
+                    // A row-value comparison lets SQLite seek straight into the (user_id, weight, date) index
+                    selection += " AND (" + COLUMN_WEIGHT + ", " + COLUMN_DATE + ")" + comparison + "(?, ?)";
+                    selectionArgs.add(afterWeight);
+                    selectionArgs.add(afterDate);
+                    break;
+                case SortUtils.DISTANCE_FROM_GOAL:
+                    // Distance ascending, then newest first; the previous distance is recomputed in SQL
+                    // from the previous weight so it is compared with exactly the same arithmetic
+                    String distance = getGoalDistanceSql(userId, COLUMN_WEIGHT);
+                    String afterDistance = getGoalDistanceSql(userId, "CAST(? AS REAL)");
+                    selection += " AND (" + distance + " > " + afterDistance +
+                            " OR (" + distance + " = " + afterDistance + " AND " + COLUMN_DATE + " < ?))";
+                    selectionArgs.add(afterWeight);
+                    selectionArgs.add(afterWeight);
+                    selectionArgs.add(afterDate);
+                    break;
+                case SortUtils.DATE_NEWEST:
+                case SortUtils.DATE_OLDEST:
+                default:
+                    // Dates are unique per user, so the date alone identifies the position
+                    selection += " AND " + COLUMN_DATE + comparison + "?";
+                    selectionArgs.add(afterDate);
+                    break;
+            }
+        }
+
+        String sql = SQLiteQueryBuilder.buildQueryString(false, TABLE_WEIGHTS,
+                new String[]{COLUMN_WEIGHT_ID, COLUMN_DATE, COLUMN_WEIGHT},
+                selection, null, null, getOrderByClause(userId, sortOption), String.valueOf(pageSize));
+        String[] args = selectionArgs.toArray(new String[0]);
+        WeightSeries page = readWeightEntries(db.rawQuery(sql, args));
+        metrics.record(db, "getWeightEntriesPage", start, page.size(), sql, args);
+        return page;
+    }
+
+    /**
+     * Builds the WHERE clause for a user's entries restricted by a filter.
+     * Every bound is a plain range on an indexed column, so a date range is answered by a range scan of
+     * the (user_id, date, weight) index and a weight band by one of the (user_id, weight, date) index.
+     * @param userId The ID of the user whose entries to select.
+     * @param filter The date range and weight band to restrict to, or null for all entries.
+     * @param selectionArgs The list to append the bound arguments to.
+     * @return The WHERE clause, without the keyword.
+     */
+    private String buildFilterSelection(int userId, WeightFilter filter, List<String> selectionArgs) {
+        StringBuilder selection = new StringBuilder(COLUMN_USER_ID + "=?");
+        selectionArgs.add(String.valueOf(userId));
+        if (filter == null) {
+            return selection.toString();
+        }
+
+        if (filter.getFromEpochDay() != null) {
+            selection.append(" AND ").append(COLUMN_DATE).append(">=?");
+            selectionArgs.add(String.valueOf(filter.getFromEpochDay()));
+        }
+        if (filter.getToEpochDay() != null) {
+            selection.append(" AND ").append(COLUMN_DATE).append("<=?");
+            selectionArgs.add(String.valueOf(filter.getToEpochDay()));
+        }
+        if (filter.getMinWeight() != null) {
+            selection.append(" AND ").append(COLUMN_WEIGHT).append(">=?");
+            selectionArgs.add(Double.toString(filter.getMinWeight()));
+        }
+        if (filter.getMaxWeight() != null) {
+            selection.append(" AND ").append(COLUMN_WEIGHT).append("<=?");
+            selectionArgs.add(Double.toString(filter.getMaxWeight()));
+        }
+        return selection.toString();
+    }
 
-        String orderByClause;
+    /**
+     * Builds the ORDER BY clause for a sort option. Dates are unique per user, so the date orders need no
+     * tie-breaker and the other orders use the date as theirs, which makes every order total. The date
+     * and weight orders are read straight from the matching covering index without a temporary sort.
+     * @param userId The ID of the user whose entries are being sorted.
+     * @param sortOption A constant from SortUtils defining the sort order.
+     * @return The ORDER BY clause, without the keyword.
+     */
+    private String getOrderByClause(int userId, int sortOption) {
+        String direction = isDescending(sortOption) ? " DESC" : " ASC";
         switch (sortOption) {
-            case SortUtils.DATE_OLDEST:
-                orderByClause = COLUMN_DATE + " ASC";
-                break;
             case SortUtils.WEIGHT_HIGHEST:
-                orderByClause = COLUMN_WEIGHT + " DESC";
-                break;
             case SortUtils.WEIGHT_LOWEST:
-                orderByClause = COLUMN_WEIGHT + " ASC";
-                break;
+                return COLUMN_WEIGHT + direction + ", " + COLUMN_DATE + direction;
+            case SortUtils.DISTANCE_FROM_GOAL:
+                // Closest to goal first, and newest first among equal distances
+                return getGoalDistanceSql(userId, COLUMN_WEIGHT) + " ASC, " + COLUMN_DATE + " DESC";
             case SortUtils.DATE_NEWEST:
+            case SortUtils.DATE_OLDEST:
             default:
-                orderByClause = COLUMN_DATE + " DESC";
-                break;
+                return COLUMN_DATE + direction;
         }
+    }
 
-        Cursor cursor = db.query(TABLE_WEIGHTS,
-                new String[]{COLUMN_WEIGHT_ID, COLUMN_DATE, COLUMN_WEIGHT},
-                COLUMN_USER_ID + "=?", // Filter by user ID
-                new String[]{String.valueOf(userId)}, // Pass userId here
-                null, null, orderByClause);
+    /**
+     * Builds the SQL expression for the absolute distance between a weight and the user's goal.
+     * The goal is read by an uncorrelated subquery, which SQLite evaluates once per statement. Without a
+     * goal every distance is 0, so the DISTANCE_FROM_GOAL order falls back to newest first.
+     * @param userId The ID of the user whose goal to measure against; an int, so safe to inline.
+     * @param weight An SQL expression for the weight.
+     * @return The SQL expression for the distance.
+     */
+    private String getGoalDistanceSql(int userId, String weight) {
+        return "IFNULL(ABS(" + weight + " - (SELECT " + COLUMN_WEIGHT_GOAL + " FROM " + TABLE_USERS +
+                " WHERE " + COLUMN_USER_ID + " = " + userId + ")), 0)";
+    }
 
-        if (cursor.moveToFirst()) {
-            do {
-                int weightId = cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_WEIGHT_ID));
-                String date = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_DATE));
-                float weight = cursor.getFloat(cursor.getColumnIndexOrThrow(COLUMN_WEIGHT));
-                weightEntries.add(new ProgressItem(weightId, date, weight));
-            } while (cursor.moveToNext());
+    /**
+     * Checks whether a sort option orders its key in descending order.
+     * @param sortOption A constant from SortUtils defining the sort order.
+     * @return true for descending orders, false for ascending ones.
+     */
+    private boolean isDescending(int sortOption) {
+        return sortOption != SortUtils.DATE_OLDEST && sortOption != SortUtils.WEIGHT_LOWEST
+                && sortOption != SortUtils.DISTANCE_FROM_GOAL;
+    }
+
+    /**
+     * Reads every row of a (weight_id, date, weight) cursor straight into a WeightSeries and closes the cursor.
+     * No object is created per row, so even a very long history loads without garbage.
+     * @param cursor The cursor to read.
+     * @return A WeightSeries holding the rows in cursor order.
+     */
+    private WeightSeries readWeightEntries(Cursor cursor) {
+        WeightSeries weightEntries = new WeightSeries(cursor.getCount());
+        // Resolve the columns once rather than looking each one up by name on every row
+        int weightIdColumn = cursor.getColumnIndexOrThrow(COLUMN_WEIGHT_ID);
+        int dateColumn = cursor.getColumnIndexOrThrow(COLUMN_DATE);
+        int weightColumn = cursor.getColumnIndexOrThrow(COLUMN_WEIGHT);
+        while (cursor.moveToNext()) {
+            weightEntries.add(cursor.getInt(weightIdColumn), cursor.getInt(dateColumn), cursor.getFloat(weightColumn));
         }
         cursor.close();
-        db.close();
         return weightEntries;
     }
 
     /**
-     * Deletes a selection of weight entries based on their unique IDs.
-     * @param ids A List of integer weight IDs to be deleted.
+     * Retrieves the IDs of a user's weight entries that match a filter, e.g. to select them all at once.
+     * Only the IDs are read, straight from the covering index, whatever the number of entries.
+     * @param userId The ID of the user whose entries to select.
+     * @param filter The date range and weight band to restrict to, or null for all entries.
+     * @return The matching weight IDs, in no particular order.
      */
-    public void deleteSelectedWeightsById(List<Integer> ids) {
-        if (ids == null || ids.isEmpty()) {
-            return;
+    public int[] getWeightIds(int userId, WeightFilter filter) {
+        long start = System.nanoTime();
+        SQLiteDatabase db = this.getReadableDatabase();
+        List<String> selectionArgs = new ArrayList<>();
+        String sql = "SELECT " + COLUMN_WEIGHT_ID + " FROM " + TABLE_WEIGHTS +
+                " WHERE " + buildFilterSelection(userId, filter, selectionArgs);
+        String[] args = selectionArgs.toArray(new String[0]);
+
+        Cursor cursor = db.rawQuery(sql, args);
+        int[] ids = new int[cursor.getCount()];
+        int count = 0;
+        while (cursor.moveToNext()) {
+            ids[count++] = cursor.getInt(0);
+        }
+        cursor.close();
+        metrics.record(db, "getWeightIds", start, count, sql, args);
+        return ids;
+    }
+
+    /**
+     * Retrieves the IDs of a user's weight entries that match a filter, in a specified sort order, for a
+     * grid that reads the entries themselves a window at a time, see WeightWindowAdapter.
+     * The IDs are read from the index that gives the order, at 4 bytes an entry in memory; the
+     * DISTANCE_FROM_GOAL order is built once from a date-ordered read, as in getAllWeightEntries.
+     * @param userId The ID of the user whose entries to fetch.
+     * @param sortOption A constant from SortUtils defining the sort order.
+     * @param filter The date range and weight band to restrict to, or null for all entries.
+     * @return The matching weight IDs in the sort order.
+     */
+    public int[] getOrderedWeightIds(int userId, int sortOption, WeightFilter filter) {
+        if (sortOption == SortUtils.DISTANCE_FROM_GOAL) {
+            WeightSeries byDate = getAllWeightEntries(userId, SortUtils.DATE_OLDEST, filter, 0);
+            WeightOrderIndex index = new WeightOrderIndex(byDate);
+            Float weightGoal = getWeightGoal(userId);
+            int[] ids = new int[byDate.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = byDate.getWeightId(index.seriesIndex(sortOption, weightGoal, i));
+            }
+            return ids;
+        }
+        long start = System.nanoTime();
+        SQLiteDatabase db = this.getReadableDatabase();
+        List<String> selectionArgs = new ArrayList<>();
+        String sql = "SELECT " + COLUMN_WEIGHT_ID + " FROM " + TABLE_WEIGHTS +
+                " WHERE " + buildFilterSelection(userId, filter, selectionArgs) +
+                " ORDER BY " + getOrderByClause(userId, sortOption);
+        String[] args = selectionArgs.toArray(new String[0]);
+
+        Cursor cursor = db.rawQuery(sql, args);
+        int[] ids = new int[cursor.getCount()];
+        int count = 0;
+        while (cursor.moveToNext()) {
+            ids[count++] = cursor.getInt(0);
         }
+        cursor.close();
+        metrics.record(db, "getOrderedWeightIds", start, count, sql, args);
+        return ids;
+    }
+
+    /**
+     * Retrieves the weight entries with the given IDs, e.g. one window of a WeightWindowAdapter.
+     * Each entry is looked up by its primary key, so a window costs the same wherever it is in the history.
+     * @param ids The weight IDs, of which those from fromIndex to toIndex are fetched.
+     * @param fromIndex The index of the first ID to fetch.
+     * @param toIndex The index after the last ID to fetch; at most DELETE_CHUNK_SIZE IDs are bound at once.
+     * @return The entries that still exist, in no particular order.
+     */
+    public WeightSeries getWeightEntriesById(int[] ids, int fromIndex, int toIndex) {
+        if (toIndex - fromIndex > DELETE_CHUNK_SIZE) {
+            throw new IllegalArgumentException("At most " + DELETE_CHUNK_SIZE + " IDs can be fetched at once");
+        }
+        long start = System.nanoTime();
+        SQLiteDatabase db = this.getReadableDatabase();
+        StringBuilder sql = new StringBuilder("SELECT " + COLUMN_WEIGHT_ID + ", " + COLUMN_DATE + ", " + COLUMN_WEIGHT +
+                " FROM " + TABLE_WEIGHTS + " WHERE " + COLUMN_WEIGHT_ID + " IN (");
+        String[] args = new String[toIndex - fromIndex];
+        for (int i = 0; i < args.length; i++) {
+            sql.append(i == 0 ? "?" : ",?");
+            args[i] = String.valueOf(ids[fromIndex + i]);
+        }
+        sql.append(")");
+        WeightSeries weightEntries = readWeightEntries(db.rawQuery(sql.toString(), args));
+        metrics.record(db, "getWeightEntriesById", start, weightEntries.size(), sql.toString(), args);
+        return weightEntries;
+    }
+
+    /**
+     * Deletes any number of weight entries by their unique IDs, in a single transaction.
+     * The IDs are bound in chunks of DELETE_CHUNK_SIZE, well under SQLite's bound-parameter limit, and each
+     * chunk size is compiled only once, so even a selection of tens of thousands of entries is one operation.
+     * @param ids The weight IDs to delete; IDs that don't exist are ignored.
+     * @return The number of entries deleted.
+     */
+    public int deleteWeightsById(int[] ids) {
+        if (ids == null || ids.length == 0) {
+            return 0;
+        }
+        long start = System.nanoTime();
         SQLiteDatabase db = this.getWritableDatabase();
+        int fullChunks = ids.length / DELETE_CHUNK_SIZE;
+        int remainder = ids.length % DELETE_CHUNK_SIZE;
+        SQLiteStatement fullDelete = fullChunks > 0 ? compileDeleteById(db, DELETE_CHUNK_SIZE) : null;
+        SQLiteStatement lastDelete = remainder > 0 ? compileDeleteById(db, remainder) : null;
 
-        // Build the "IN (?,?,?)" part of the clause to handle a variable number of arguments
-        StringBuilder placeholders = new StringBuilder();
-        for (int i = 0; i < ids.size(); i++) {
-            placeholders.append("?");
-            if (i < ids.size() - 1) {
-                placeholders.append(",");
+        int deleted = 0;
+        db.beginTransaction();
+        try {
+            for (int offset = 0; offset < ids.length; offset += DELETE_CHUNK_SIZE) {
+                int size = Math.min(DELETE_CHUNK_SIZE, ids.length - offset);
+                SQLiteStatement delete = size == DELETE_CHUNK_SIZE ? fullDelete : lastDelete;
+                for (int i = 0; i < size; i++) {
+                    delete.bindLong(i + 1, ids[offset + i]);
+                }
+                deleted += delete.executeUpdateDelete();
+            }
+            repairStaleStats(db);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            if (fullDelete != null) {
+                fullDelete.close();
+            }
+            if (lastDelete != null) {
+                lastDelete.close();
             }
         }
+        // Every chunk has the same plan, so a one-ID delete stands in for them in the slow-query log
+        metrics.record(db, "deleteWeightsById", start, deleted, deleteByIdSql(1), null);
+        return deleted;
+    }
 
-        // Convert the Integer list to a String array for the query arguments
-        String[] args = new String[ids.size()];
-        for (int i = 0; i < ids.size(); i++) {
-            args[i] = String.valueOf(ids.get(i));
+    /**
+     * Compiles a statement that deletes the weight entries whose IDs are bound to its parameters.
+     * @param db The database to compile the statement for.
+     * @param idCount The number of ID parameters, i.e. the length of the "IN (?,?,?)" list.
+     * @return The compiled statement, which the caller must close.
+     */
+    private SQLiteStatement compileDeleteById(SQLiteDatabase db, int idCount) {
+        return db.compileStatement(deleteByIdSql(idCount));
+    }
+
+    /**
+     * Builds the SQL that deletes the weight entries whose IDs are bound to its parameters.
+     * @param idCount The number of ID parameters, i.e. the length of the "IN (?,?,?)" list.
+     * @return The SQL.
+     */
+    private static String deleteByIdSql(int idCount) {
+        StringBuilder sql = new StringBuilder("DELETE FROM " + TABLE_WEIGHTS + " WHERE " + COLUMN_WEIGHT_ID + " IN (");
+        for (int i = 0; i < idCount; i++) {
+            sql.append(i == 0 ? "?" : ",?");
         }
+        return sql.append(")").toString();
+    }
+
+
+    // --- Period Summary Methods ---
+
+    /**
+     * Retrieves per-period summaries of a user's weights from the rollup table.
+     * Each summary is one precomputed row, so the cost grows with the number of periods returned
+     * rather than with the number of weight entries they cover.
+     * @param userId The ID of the user whose summaries to fetch.
+     * @param period A constant from PeriodUtils choosing daily, weekly or monthly summaries.
+     * @param fromEpochDay Only include periods starting on or after this epoch day, or null for no bound.
+     * @param toEpochDay Only include periods starting on or before this epoch day, or null for no bound.
+     * @return A List of PeriodSummary objects, oldest period first.
+     */
+    public List<PeriodSummary> getPeriodSummaries(int userId, int period, Integer fromEpochDay, Integer toEpochDay) {
+        long start = System.nanoTime();
+        SQLiteDatabase db = this.getReadableDatabase();
+        List<String> selectionArgs = new ArrayList<>();
+        StringBuilder selection = new StringBuilder(COLUMN_USER_ID + "=? AND " + COLUMN_PERIOD + "=?");
+        selectionArgs.add(String.valueOf(userId));
+        selectionArgs.add(String.valueOf(period));
+        if (fromEpochDay != null) {
+            selection.append(" AND ").append(COLUMN_PERIOD_START).append(">=?");
+            selectionArgs.add(String.valueOf(fromEpochDay));
+        }
+        if (toEpochDay != null) {
+            selection.append(" AND ").append(COLUMN_PERIOD_START).append("<=?");
+            selectionArgs.add(String.valueOf(toEpochDay));
+        }
+
+        String sql = SQLiteQueryBuilder.buildQueryString(false, TABLE_ROLLUPS,
+                new String[]{COLUMN_PERIOD_START, COLUMN_ENTRY_COUNT, COLUMN_WEIGHT_SUM, COLUMN_MIN_WEIGHT,
+                        COLUMN_MAX_WEIGHT, COLUMN_FIRST_DATE, COLUMN_FIRST_WEIGHT, COLUMN_LAST_DATE, COLUMN_LAST_WEIGHT},
+                selection.toString(), null, null, COLUMN_PERIOD_START + " ASC", null);
+        String[] args = selectionArgs.toArray(new String[0]);
+        Cursor cursor = db.rawQuery(sql, args);
 
-        String whereClause = COLUMN_WEIGHT_ID + " IN (" + placeholders + ")";
-        db.delete(TABLE_WEIGHTS, whereClause, args);
-        db.close();
+        List<PeriodSummary> summaries = new ArrayList<>();
+        while (cursor.moveToNext()) {
+            summaries.add(new PeriodSummary(period,
+                    cursor.getInt(0), cursor.getInt(1), cursor.getDouble(2),
+                    cursor.getFloat(3), cursor.getFloat(4),
+                    cursor.getInt(5), cursor.getFloat(6),
+                    cursor.getInt(7), cursor.getFloat(8)));
+        }
+        cursor.close();
+        metrics.record(db, "getPeriodSummaries", start, summaries.size(), sql, args);
+        return summaries;
     }
 
+    // --- Statistics Methods ---
+
+    /**
+     * Retrieves a user's running weight statistics. The moving average and regression sums are one row
+     * kept up to date by triggers, and the rolling means read at most 30 daily rollup rows, so the cost
+     * doesn't grow with the length of the history.
+     * @param userId The ID of the user whose statistics to fetch.
+     * @return The statistics, or null if the user has no entries.
+     */
+    public WeightStats getWeightStats(int userId) {
+        long start = System.nanoTime();
+        SQLiteDatabase db = this.getReadableDatabase();
+        // The windows are the 7 and 30 days ending on the newest entry, whose date is the EMA's date
+        String inLastWeek = "r." + COLUMN_PERIOD_START + " > s." + COLUMN_EMA_DATE + " - 7";
+        String sql = "SELECT s." + COLUMN_ENTRY_COUNT + ", s." + COLUMN_SUM_X + ", s." + COLUMN_SUM_Y + ", s." +
+                COLUMN_SUM_XX + ", s." + COLUMN_SUM_XY + ", s." + COLUMN_EMA + ", s." + COLUMN_EMA_DATE + ", " +
+                "SUM(CASE WHEN " + inLastWeek + " THEN r." + COLUMN_WEIGHT_SUM + " END), " +
+                "SUM(CASE WHEN " + inLastWeek + " THEN r." + COLUMN_ENTRY_COUNT + " END), " +
+                "SUM(r." + COLUMN_WEIGHT_SUM + "), SUM(r." + COLUMN_ENTRY_COUNT + ")" +
+                " FROM " + TABLE_STATS + " s JOIN " + TABLE_ROLLUPS + " r ON r." + COLUMN_USER_ID + " = s." +
+                COLUMN_USER_ID + " AND r." + COLUMN_PERIOD + " = " + PeriodUtils.DAY +
+                " AND r." + COLUMN_PERIOD_START + " > s." + COLUMN_EMA_DATE + " - 30" +
+                " AND r." + COLUMN_PERIOD_START + " <= s." + COLUMN_EMA_DATE +
+                " WHERE s." + COLUMN_USER_ID + "=?";
+        String[] args = {String.valueOf(userId)};
+        Cursor cursor = db.rawQuery(sql, args);
+
+        WeightStats stats = null;
+        // Without entries the EMA date is NULL and no rollup joins, so the aggregates are all NULL
+        if (cursor.moveToFirst() && !cursor.isNull(6)) {
+            long n = cursor.getLong(0);
+            double sumX = cursor.getDouble(1);
+            double sumY = cursor.getDouble(2);
+            double denominator = n * cursor.getDouble(3) - sumX * sumX;
+            double slope = n < 2 || denominator <= 0 ? Double.NaN
+                    : (n * cursor.getDouble(4) - sumX * sumY) / denominator;
+            stats = new WeightStats((int) n, cursor.getInt(6), cursor.getFloat(5),
+                    (float) (cursor.getDouble(7) / cursor.getLong(8)),
+                    (float) (cursor.getDouble(9) / cursor.getLong(10)), slope);
+        }
+        cursor.close();
+        metrics.record(db, "getWeightStats", start, stats == null ? 0 : 1, sql, args);
+        return stats;
+    }
 
     // --- User Goal and Profile Methods ---
 
@@ -272,15 +1655,20 @@ public class DatabaseHelper extends SQLiteOpenHelper {
      * @return true if the update was successful, false otherwise.
      */
     public boolean updateWeightGoal(int userId, float newGoal) {
-        SQLiteDatabase db = this.getWritableDatabase();
-        ContentValues values = new ContentValues();
-        values.put(COLUMN_WEIGHT_GOAL, newGoal);
-
-        int rowsAffected = db.update(TABLE_USERS, values,
-                COLUMN_USER_ID + "=?",
-                new String[]{String.valueOf(userId)});
-        db.close();
-        return rowsAffected > 0;
+        long start = System.nanoTime();
+        SQLiteStatement statement = cachedStatement(SQL_UPDATE_WEIGHT_GOAL);
+        int updated;
+        synchronized (statement) {
+            try {
+                statement.bindDouble(1, newGoal);
+                statement.bindLong(2, userId);
+                updated = statement.executeUpdateDelete();
+            } finally {
+                statement.clearBindings();
+            }
+        }
+        metrics.record(getWritableDatabase(), "updateWeightGoal", start, updated, SQL_UPDATE_WEIGHT_GOAL, null);
+        return updated > 0;
     }
 
     /**
@@ -290,15 +1678,25 @@ public class DatabaseHelper extends SQLiteOpenHelper {
      * @return true if the update was successful, false otherwise.
      */
     public boolean updatePhoneNumber(int userId, String phoneNumber) {
-        SQLiteDatabase db = this.getWritableDatabase();
-        ContentValues values = new ContentValues();
-        values.put(COLUMN_PHONE_NUMBER, phoneNumber);
-
-        int rowsAffected = db.update(TABLE_USERS, values,
-                COLUMN_USER_ID + "=?",
-                new String[]{String.valueOf(userId)});
-        db.close();
-        return rowsAffected > 0;
+        long start = System.nanoTime();
+        SQLiteStatement statement = cachedStatement(SQL_UPDATE_PHONE_NUMBER);
+        int updated;
+        synchronized (statement) {
+            try {
+                if (phoneNumber == null) {
+                    statement.bindNull(1);
+                } else {
+                    statement.bindString(1, phoneNumber);
+                }
+                statement.bindLong(2, userId);
+                updated = statement.executeUpdateDelete();
+            } finally {
+                statement.clearBindings();
+            }
+        }
+        // The phone number isn't kept, so it never reaches the slow-query log
+        metrics.record(getWritableDatabase(), "updatePhoneNumber", start, updated, SQL_UPDATE_PHONE_NUMBER, null);
+        return updated > 0;
     }
 
     /**
@@ -307,19 +1705,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
      * @return The user's phone number as a String, or null if not set.
      */
     public String getUserPhoneNumber(int userId) {
-        SQLiteDatabase db = this.getReadableDatabase();
-        Cursor cursor = db.query(TABLE_USERS,
-                new String[]{COLUMN_PHONE_NUMBER},
-                COLUMN_USER_ID + "=?",
-                new String[]{String.valueOf(userId)}, null, null, null);
-
-        String phoneNumber = null;
-        if (cursor.moveToFirst()) {
-            phoneNumber = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_PHONE_NUMBER));
-        }
-        cursor.close();
-        db.close();
-        return phoneNumber;
+        return simpleQueryForString("getUserPhoneNumber", SQL_SELECT_PHONE_NUMBER, userId);
     }
 
     /**
@@ -328,22 +1714,193 @@ public class DatabaseHelper extends SQLiteOpenHelper {
      * @return The user's weight goal as a Float, or null if not set.
      */
     public Float getWeightGoal(int userId) {
+        // Null both when the user doesn't exist and when the goal column is NULL
+        String weightGoal = simpleQueryForString("getWeightGoal", SQL_SELECT_WEIGHT_GOAL, userId);
+        return weightGoal == null ? null : Float.parseFloat(weightGoal);
+    }
+
+    // --- Backup and Restore ---
+
+    /**
+     * Retrieves the username of a user, e.g. to check that a session's user survived a restore. A backup
+     * keeps the user IDs of the device it came from, so the same ID may now belong to someone else.
+     * @param userId The ID of the user whose username to fetch.
+     * @return The username, or null if there is no user with this ID.
+     */
+    public String getUsername(int userId) {
+        return simpleQueryForString("getUsername", SQL_SELECT_USERNAME, userId);
+    }
+
+    /**
+     * Lists the restored users who have no password yet, because the backup had none for them and nobody
+     * with their username was on this device. They can't log in until one is set.
+     * @return The usernames, in user ID order.
+     */
+    public List<String> getUsernamesWithoutPassword() {
+        long start = System.nanoTime();
         SQLiteDatabase db = this.getReadableDatabase();
-        Cursor cursor = db.query(TABLE_USERS,
-                new String[]{COLUMN_WEIGHT_GOAL},
-                COLUMN_USER_ID + "=?",
-                new String[]{String.valueOf(userId)}, null, null, null);
+        List<String> usernames = new ArrayList<>();
+        try (Cursor cursor = db.rawQuery(SQL_SELECT_USERNAMES_WITHOUT_PASSWORD, null)) {
+            while (cursor.moveToNext()) {
+                usernames.add(cursor.getString(0));
+            }
+        }
+        metrics.record(db, "getUsernamesWithoutPassword", start, usernames.size(),
+                SQL_SELECT_USERNAMES_WITHOUT_PASSWORD, null);
+        return usernames;
+    }
 
-        Float weightGoal = null;
-        if (cursor.moveToFirst()) {
-            // Check if the goal is null in the database before trying to get it as a float
-            if (!cursor.isNull(cursor.getColumnIndexOrThrow(COLUMN_WEIGHT_GOAL))) {
-                weightGoal = cursor.getFloat(cursor.getColumnIndexOrThrow(COLUMN_WEIGHT_GOAL));
+    /**
+     * Sets the password of a restored user who has none. A user who already has a password is left alone,
+     * so this can't be used to take over an account.
+     * @param username The username of the restored user.
+     * @param password The new password.
+     * @return true if the password was set, false if the user doesn't exist or already has one.
+     */
+    public boolean setMissingPassword(String username, String password) {
+        long start = System.nanoTime();
+        SQLiteDatabase db = this.getWritableDatabase();
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_PASSWORD, password);
+        String whereClause = COLUMN_USERNAME + "=? AND " + COLUMN_PASSWORD + " IS NULL";
+        int updated = db.update(TABLE_USERS, values, whereClause, new String[]{username});
+        // The arguments aren't kept, so a password never reaches the slow-query log
+        metrics.record(db, "setMissingPassword", start, updated,
+                "UPDATE " + TABLE_USERS + " SET " + COLUMN_PASSWORD + "=? WHERE " + whereClause, null);
+        return updated > 0;
+    }
+
+    /**
+     * Writes every user and weight entry to a stream as a compact BackupFormat snapshot, a small fraction of
+     * the size of the database file since no index or free pages are copied. The entries are streamed from
+     * a cursor in date order, so memory use doesn't depend on their number. Writers are held off until the
+     * backup is written, so the users and entries come from the same moment. Weights are kept to the nearest
+     * hundredth. Passwords are not written. The stream is flushed but not closed.
+     * @param out The stream to write to.
+     * @return The number of weight entries written.
+     * @throws IOException If writing to the stream fails.
+     */
+    public int writeBackup(OutputStream out) throws IOException {
+        long start = System.nanoTime();
+        SQLiteDatabase db = this.getWritableDatabase();
+        int weightCount = 0;
+
+        // An immediate transaction takes the write lock, so the two queries below see one snapshot
+        db.beginTransactionNonExclusive();
+        try {
+            BackupWriter writer = new BackupWriter(out);
+            try (Cursor users = db.rawQuery(SQL_SELECT_BACKUP_USERS, null)) {
+                while (users.moveToNext()) {
+                    writer.writeUser(users.getInt(0), users.getString(1),
+                            users.isNull(2) ? null : users.getFloat(2), users.getString(3));
+                }
+            }
+            try (Cursor weights = db.rawQuery(SQL_SELECT_BACKUP_WEIGHTS, null)) {
+                while (weights.moveToNext()) {
+                    writer.writeWeight(weights.getInt(0), weights.getInt(1), weights.getDouble(2));
+                    weightCount++;
+                }
             }
+            writer.finish();
+        } finally {
+            // Nothing was written, so the transaction is simply ended without being marked successful
+            db.endTransaction();
         }
-        cursor.close();
-        db.close();
-        return weightGoal;
+        metrics.record(db, "writeBackup", start, weightCount, SQL_SELECT_BACKUP_WEIGHTS, null);
+        return weightCount;
+    }
+
+    /**
+     * Replaces every user and weight entry with those of a BackupFormat snapshot, keeping the users' IDs.
+     * Everything happens in one transaction, which is only committed once the whole stream has been read and
+     * every block's checksum verified, so a damaged backup leaves the database as it was. The rollup and
+     * statistics triggers are removed while the entries are inserted, and both tables are rebuilt once at
+     * the end instead. Backups hold no passwords, so a restored user keeps the password of the user with the
+     * same username on this device; one who had no account here has no password until
+     * {@link #setMissingPassword} gives them one. The stream is not closed.
+     * @param in The stream to read.
+     * @return The number of weight entries restored.
+     * @throws IOException If reading fails, or the stream is not a valid backup; nothing is changed then.
+     */
+    public int restoreBackup(InputStream in) throws IOException {
+        long start = System.nanoTime();
+        BackupReader reader = new BackupReader(in);
+        SQLiteDatabase db = this.getWritableDatabase();
+        SQLiteStatement insertUser = db.compileStatement(SQL_RESTORE_USER);
+        SQLiteStatement insertWeight = db.compileStatement(SQL_INSERT_WEIGHT);
+        int[] epochDays = new int[BackupFormat.MAX_BLOCK_ENTRIES];
+        double[] weights = new double[BackupFormat.MAX_BLOCK_ENTRIES];
+        int weightCount = 0;
+
+        db.beginTransaction();
+        try {
+            Map<String, String> passwords = new HashMap<>();
+            try (Cursor users = db.rawQuery(SQL_SELECT_PASSWORDS, null)) {
+                while (users.moveToNext()) {
+                    passwords.put(users.getString(0), users.getString(1));
+                }
+            }
+            dropRollupTriggers(db);
+            dropStatsTriggers(db);
+            db.delete(TABLE_WEIGHTS, null, null);
+            db.delete(TABLE_USERS, null, null);
+
+            for (int type = reader.nextBlock(); type != BackupFormat.BLOCK_END; type = reader.nextBlock()) {
+                if (type == BackupFormat.BLOCK_USERS) {
+                    while (reader.nextUser()) {
+                        insertUser.bindLong(1, reader.getUserId());
+                        bindStringOrNull(insertUser, 2, reader.getUsername());
+                        bindStringOrNull(insertUser, 3, passwords.get(reader.getUsername()));
+                        if (reader.getWeightGoal() != null) {
+                            // Widened from a float, as updateWeightGoal binds it
+                            insertUser.bindDouble(4, reader.getWeightGoal().floatValue());
+                        } else {
+                            insertUser.bindNull(4);
+                        }
+                        bindStringOrNull(insertUser, 5, reader.getPhoneNumber());
+                        insertUser.executeInsert();
+                    }
+                } else {
+                    int userId = reader.getBlockUserId();
+                    int count = reader.readWeights(epochDays, weights);
+                    for (int i = 0; i < count; i++) {
+                        insertWeight.bindLong(1, epochDays[i]);
+                        // Rounded to a float first, so the stored value is exactly what addWeight and
+                        // upsertWeights would store and paging seeks on it match
+                        insertWeight.bindDouble(2, (float) weights[i]);
+                        insertWeight.bindLong(3, userId);
+                        insertWeight.executeInsert();
+                    }
+                    weightCount += count;
+                }
+            }
+
+            rebuildRollups(db);
+            rebuildStats(db);
+            createRollupTriggers(db);
+            createStatsTriggers(db);
+            db.setTransactionSuccessful();
+        } catch (SQLiteConstraintException e) {
+            // e.g. two entries on one date, or an entry for a user the backup doesn't contain
+            throw new IOException("Backup contains conflicting records", e);
+        } finally {
+            db.endTransaction();
+            insertUser.close();
+            insertWeight.close();
+        }
+        // The arguments aren't kept, so no password reaches the slow-query log
+        metrics.record(db, "restoreBackup", start, weightCount, SQL_INSERT_WEIGHT, null);
+        return weightCount;
     }
 
+    /**
+     * Binds a string to a statement parameter, or NULL if there is none.
+     */
+    private static void bindStringOrNull(SQLiteStatement statement, int index, String value) {
+        if (value != null) {
+            statement.bindString(index, value);
+        } else {
+            statement.bindNull(index);
+        }
+    }
 }
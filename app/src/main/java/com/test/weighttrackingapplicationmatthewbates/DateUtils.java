@@ -0,0 +1,40 @@
+package com.test.weighttrackingapplicationmatthewbates;
+
+import java.time.LocalDate;
+
+/**
+ * A utility class for converting between calendar dates and the epoch days stored in the database.
+ * An epoch day is the number of days since 1970-01-01, which is compact and compares as a plain integer.
+ */
+public final class DateUtils {
+
+    private DateUtils() {}
+
+    /**
+     * Converts a calendar date to an epoch day.
+     * @param year The year, e.g. 2024.
+     * @param month The month of the year, from 1 (January) to 12 (December).
+     * @param dayOfMonth The day of the month, from 1 to 31.
+     * @return The number of days since 1970-01-01.
+     */
+    public static int toEpochDay(int year, int month, int dayOfMonth) {
+        return (int) LocalDate.of(year, month, dayOfMonth).toEpochDay();
+    }
+
+    /**
+     * Formats an epoch day for display as "YYYY-MM-DD".
+     * @param epochDay The number of days since 1970-01-01.
+     * @return The formatted date.
+     */
+    public static String formatEpochDay(int epochDay) {
+        return LocalDate.ofEpochDay(epochDay).toString();
+    }
+
+    /**
+     * Gets today's date in the device's time zone as an epoch day.
+     * @return The number of days since 1970-01-01.
+     */
+    public static int today() {
+        return (int) LocalDate.now().toEpochDay();
+    }
+}
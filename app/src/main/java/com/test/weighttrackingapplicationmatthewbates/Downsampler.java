@@ -0,0 +1,113 @@
+package com.test.weighttrackingapplicationmatthewbates;
+
+/**
+ * Reduces a date-ordered weight series to a bounded number of points for drawing, with the
+ * Largest-Triangle-Three-Buckets algorithm. The first and last points are always kept; the points between
+ * are split into equal buckets and from each bucket the point forming the largest triangle with the point
+ * kept from the previous bucket and the average of the next bucket is kept. Peaks and troughs therefore
+ * survive, unlike with plain decimation or averaging, and the cost is one pass over the input.
+ */
+public final class Downsampler {
+
+    private Downsampler() {}
+
+    /**
+     * Picks up to {@code threshold} representative entries of a range of a series, with the epoch day as x
+     * and the weight as y. No memory is allocated, so it can run on every frame of a pan or zoom.
+     * @param series The series, in ascending date order.
+     * @param start The index of the first entry of the range.
+     * @param end The index after the last entry of the range.
+     * @param threshold The maximum number of entries to pick; at least 3 for any reduction to happen.
+     * @param selected Receives the indexes of the picked entries into the series, in ascending order; must
+     *                 hold at least min(end - start, threshold) values.
+     * @return The number of indexes written to {@code selected}.
+     */
+    public static int largestTriangleThreeBuckets(WeightSeries series, int start, int end, int threshold,
+                                                  int[] selected) {
+        int length = end - start;
+        if (length <= threshold) {
+            for (int i = 0; i < length; i++) {
+                selected[i] = start + i;
+            }
+            return Math.max(length, 0);
+        }
+        if (threshold < 3) {
+            // Too few points allowed to form triangles, so only the ends are kept
+            int count = 0;
+            if (threshold > 0) {
+                selected[count++] = start;
+            }
+            if (threshold > 1) {
+                selected[count++] = end - 1;
+            }
+            return count;
+        }
+
+        // The first and last entries are their own buckets, and the rest share threshold - 2 buckets
+        double bucketSize = (double) (length - 2) / (threshold - 2);
+        int count = 0;
+        int previous = start;
+        selected[count++] = previous;
+
+        for (int bucket = 0; bucket < threshold - 2; bucket++) {
+            int bucketStart = start + 1 + (int) (bucket * bucketSize);
+            int bucketEnd = start + 1 + (int) ((bucket + 1) * bucketSize);
+
+            // The third corner is the average of the next bucket, or the last entry after the final bucket
+            int nextStart = bucketEnd;
+            int nextEnd = Math.min(start + 1 + (int) ((bucket + 2) * bucketSize), end - 1);
+            double averageX = 0;
+            double averageY = 0;
+            if (nextStart >= nextEnd) {
+                averageX = series.getEpochDay(end - 1);
+                averageY = series.getWeight(end - 1);
+            } else {
+                for (int i = nextStart; i < nextEnd; i++) {
+                    averageX += series.getEpochDay(i);
+                    averageY += series.getWeight(i);
+                }
+                averageX /= nextEnd - nextStart;
+                averageY /= nextEnd - nextStart;
+            }
+
+            double previousX = series.getEpochDay(previous);
+            double previousY = series.getWeight(previous);
+            double maxArea = -1;
+            int picked = bucketStart;
+            for (int i = bucketStart; i < bucketEnd; i++) {
+                // Twice the triangle's area; the factor doesn't change which one is largest
+                double area = Math.abs((previousX - averageX) * (series.getWeight(i) - previousY)
+                        - (previousX - series.getEpochDay(i)) * (averageY - previousY));
+                if (area > maxArea) {
+                    maxArea = area;
+                    picked = i;
+                }
+            }
+            selected[count++] = picked;
+            previous = picked;
+        }
+
+        selected[count++] = end - 1;
+        return count;
+    }
+
+    /**
+     * Finds the first entry of a date-ordered series on or after a date, by binary search.
+     * @param series The series, in ascending date order.
+     * @param epochDay The date to search for.
+     * @return The index of the first entry dated epochDay or later, or the series' size if there is none.
+     */
+    public static int lowerBound(WeightSeries series, int epochDay) {
+        int low = 0;
+        int high = series.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (series.getEpochDay(middle) < epochDay) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
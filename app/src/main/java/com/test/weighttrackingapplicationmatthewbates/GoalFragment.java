@@ -1,31 +1,84 @@
 package com.test.weighttrackingapplicationmatthewbates;
 
-import android.content.Context;
-import android.content.SharedPreferences;
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
 import android.os.Bundle;
+import android.provider.DocumentsContract;
+import android.provider.OpenableColumns;
+import android.text.InputType;
+import android.text.format.Formatter;
+import androidx.activity.result.ActivityResultLauncher;
+import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.appcompat.app.AlertDialog;
 import androidx.fragment.app.Fragment;
+import androidx.navigation.Navigation;
+import android.util.Log;
 import android.util.Patterns;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.Button;
 import android.widget.EditText;
+import android.widget.ProgressBar;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
 /**
- * A fragment that allows the user to view and update their weight goal and phone number for SMS alerts.
+ * A fragment that allows the user to view and update their weight goal and phone number for SMS alerts,
+ * to export their weight history to a file or import it from one, and to back up or restore all users and entries.
  * It interacts with the DatabaseHelper to persist this information.
  */
 public class GoalFragment extends Fragment {
 
-    private DatabaseHelper databaseHelper;
+    private static final String TAG = "GoalFragment";
+
+    // Result of an export operation that failed to write its file
+    private static final int EXPORT_FAILED = -2;
+
+    private DatabaseExecutor dbExecutor;
+    private UserRepository userRepository;
     private TextView currentGoalValue;
     private EditText editGoal;
     private EditText editPhoneNumber;
 
+    // Ask the user where to save an export, one launcher per format
+    private ActivityResultLauncher<String> exportCsvLauncher;
+    private ActivityResultLauncher<String> exportJsonLauncher;
+    // Asks the user for a CSV file to import
+    private ActivityResultLauncher<String[]> importLauncher;
+    // Ask the user where to save a backup and which backup to restore
+    private ActivityResultLauncher<String> backupLauncher;
+    private ActivityResultLauncher<String[]> restoreLauncher;
+    // The export or import running, and the progress dialog of any transfer, or null
+    private WeightExporter runningExport;
+    private WeightImporter runningImport;
+    private AlertDialog transferDialog;
+
+    /**
+     * Registers the launchers for choosing export, import and backup files; they must exist before the fragment starts.
+     * @param savedInstanceState If non-null, this fragment is being re-constructed from a previous saved state.
+     */
+    @Override
+    public void onCreate(@Nullable Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        exportCsvLauncher = registerForActivityResult(new ActivityResultContracts.CreateDocument("text/csv"),
+                uri -> exportHistory(uri, WeightExporter.FORMAT_CSV));
+        exportJsonLauncher = registerForActivityResult(new ActivityResultContracts.CreateDocument("application/json"),
+                uri -> exportHistory(uri, WeightExporter.FORMAT_JSON));
+        importLauncher = registerForActivityResult(new ActivityResultContracts.OpenDocument(), this::importHistory);
+        backupLauncher = registerForActivityResult(new ActivityResultContracts.CreateDocument("application/octet-stream"),
+                this::writeBackup);
+        restoreLauncher = registerForActivityResult(new ActivityResultContracts.OpenDocument(), this::restoreBackup);
+    }
+
     /**
      * Inflates the layout, initializes UI components and the database helper,
      * and sets up click listeners for the buttons.
@@ -46,37 +99,65 @@ public class GoalFragment extends Fragment {
         editPhoneNumber = view.findViewById(R.id.edit_phone_number);
         Button changeGoalButton = view.findViewById(R.id.change_goal_button);
         Button savePhoneButton = view.findViewById(R.id.save_phone_button);
+        Button exportHistoryButton = view.findViewById(R.id.export_history_button);
+        Button importHistoryButton = view.findViewById(R.id.import_history_button);
+        Button backupButton = view.findViewById(R.id.backup_button);
+        Button restoreButton = view.findViewById(R.id.restore_button);
 
-        databaseHelper = new DatabaseHelper(getContext());
+        dbExecutor = DatabaseExecutor.getInstance(requireContext());
+        userRepository = UserRepository.getInstance(requireContext());
 
         loadUserData();
 
         changeGoalButton.setOnClickListener(v -> updateGoal());
         savePhoneButton.setOnClickListener(v -> updatePhoneNumber());
+        exportHistoryButton.setOnClickListener(v -> chooseExportFormat());
+        // Some providers label CSV files as plain text or with the older MIME type
+        importHistoryButton.setOnClickListener(v -> importLauncher.launch(
+                new String[] {"text/csv", "text/comma-separated-values", "text/plain"}));
+        backupButton.setOnClickListener(v -> backupLauncher.launch(
+                "weight-tracker-" + DateUtils.formatEpochDay(DateUtils.today()) + ".wtbk"));
+        restoreButton.setOnClickListener(v -> confirmRestore());
 
         return view;
     }
 
+    /**
+     * Stops a running export or import and closes its progress dialog. A stopped export deletes its partial file.
+     */
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        if (runningExport != null) {
+            runningExport.cancel();
+            runningExport = null;
+        }
+        if (runningImport != null) {
+            runningImport.cancel();
+            runningImport = null;
+        }
+        dismissTransferDialog();
+    }
+
     /**
      * Loads the current user's data (weight goal and phone number) from the database
      * and populates the corresponding UI fields.
      */
     private void loadUserData() {
-        SharedPreferences sharedPreferences = getContext().getSharedPreferences(AppConstants.PREFS_NAME, Context.MODE_PRIVATE);
-        int userId = sharedPreferences.getInt(AppConstants.KEY_USER_ID, -1);
-
-        if (userId != -1) {
+        if (userRepository.getUserId() != -1) {
             // Fetch and display the current goal
-            Float currentGoal = databaseHelper.getWeightGoal(userId);
-            if (currentGoal != null) {
-                currentGoalValue.setText(String.valueOf(currentGoal));
-            }
+            dbExecutor.read(getViewLifecycleOwner(), db -> userRepository.getWeightGoal(), currentGoal -> {
+                if (currentGoal != null) {
+                    currentGoalValue.setText(String.valueOf(currentGoal));
+                }
+            });
 
-            // Fetch and display the current phone number
-            String phoneNumber = databaseHelper.getUserPhoneNumber(userId);
-            if (phoneNumber != null && !phoneNumber.isEmpty()) {
-                editPhoneNumber.setText(phoneNumber);
-            }
+            // Fetch and display the current phone number, unless the user has already started typing one
+            dbExecutor.read(getViewLifecycleOwner(), db -> userRepository.getPhoneNumber(), phoneNumber -> {
+                if (phoneNumber != null && !phoneNumber.isEmpty() && editPhoneNumber.getText().length() == 0) {
+                    editPhoneNumber.setText(phoneNumber);
+                }
+            });
         } else {
             Toast.makeText(getContext(), getString(R.string.user_not_found), Toast.LENGTH_SHORT).show();
         }
@@ -105,18 +186,16 @@ public class GoalFragment extends Fragment {
             return;
         }
 
-        SharedPreferences sharedPreferences = getContext().getSharedPreferences(AppConstants.PREFS_NAME, Context.MODE_PRIVATE);
-        int userId = sharedPreferences.getInt(AppConstants.KEY_USER_ID, -1);
-
-        if (userId != -1) {
-            boolean isSuccess = databaseHelper.updateWeightGoal(userId, newGoal);
-            if (isSuccess) {
-                currentGoalValue.setText(newGoalStr);
-                editGoal.setText(""); // Clear the input field
-                Toast.makeText(getContext(), getString(R.string.goal_updated_success), Toast.LENGTH_SHORT).show();
-            } else {
-                Toast.makeText(getContext(), getString(R.string.goal_updated_error), Toast.LENGTH_SHORT).show();
-            }
+        if (userRepository.getUserId() != -1) {
+            dbExecutor.write(getViewLifecycleOwner(), db -> userRepository.updateWeightGoal(newGoal), isSuccess -> {
+                if (isSuccess) {
+                    currentGoalValue.setText(newGoalStr);
+                    editGoal.setText(""); // Clear the input field
+                    Toast.makeText(getContext(), getString(R.string.goal_updated_success), Toast.LENGTH_SHORT).show();
+                } else {
+                    Toast.makeText(getContext(), getString(R.string.goal_updated_error), Toast.LENGTH_SHORT).show();
+                }
+            });
         } else {
             Toast.makeText(getContext(), getString(R.string.user_not_found), Toast.LENGTH_SHORT).show();
         }
@@ -138,18 +217,358 @@ public class GoalFragment extends Fragment {
             return;
         }
 
-        SharedPreferences sharedPreferences = getContext().getSharedPreferences(AppConstants.PREFS_NAME, Context.MODE_PRIVATE);
-        int userId = sharedPreferences.getInt(AppConstants.KEY_USER_ID, -1);
+        if (userRepository.getUserId() != -1) {
+            dbExecutor.write(getViewLifecycleOwner(), db -> userRepository.updatePhoneNumber(phoneNumber), isSuccess -> {
+                if (isSuccess) {
+                    Toast.makeText(getContext(), getString(R.string.phone_updated_success), Toast.LENGTH_SHORT).show();
+                } else {
+                    Toast.makeText(getContext(), getString(R.string.phone_updated_error), Toast.LENGTH_SHORT).show();
+                }
+            });
+        } else {
+            Toast.makeText(getContext(), getString(R.string.user_not_found), Toast.LENGTH_SHORT).show();
+        }
+    }
 
-        if (userId != -1) {
-            boolean isSuccess = databaseHelper.updatePhoneNumber(userId, phoneNumber);
-            if (isSuccess) {
-                Toast.makeText(getContext(), getString(R.string.phone_updated_success), Toast.LENGTH_SHORT).show();
+    /**
+     * Asks the user which format to export their weight history in, then where to save it.
+     */
+    private void chooseExportFormat() {
+        if (userRepository.getUserId() == -1) {
+            Toast.makeText(getContext(), getString(R.string.user_not_found), Toast.LENGTH_SHORT).show();
+            return;
+        }
+        String fileName = "weight-history-" + DateUtils.formatEpochDay(DateUtils.today());
+        new AlertDialog.Builder(requireContext())
+                .setTitle(R.string.export_format_title)
+                .setItems(R.array.export_formats, (dialog, which) -> {
+                    if (which == WeightExporter.FORMAT_JSON) {
+                        exportJsonLauncher.launch(fileName + ".json");
+                    } else {
+                        exportCsvLauncher.launch(fileName + ".csv");
+                    }
+                })
+                .show();
+    }
+
+    /**
+     * Writes the user's weight history to the chosen document in the background, showing its progress in a
+     * dialog that can cancel it. The history is streamed by a WeightExporter, so this works the same for any
+     * number of entries. A cancelled or failed export deletes the partial document.
+     * @param uri The document the user chose, or null if they backed out.
+     * @param format The WeightExporter format to write.
+     */
+    private void exportHistory(@Nullable Uri uri, int format) {
+        int userId = userRepository.getUserId();
+        if (uri == null || userId == -1 || transferDialog != null) {
+            return;
+        }
+        WeightExporter exporter = new WeightExporter(format);
+        runningExport = exporter;
+        View dialogView = showTransferDialog(R.string.export_in_progress, exporter::cancel);
+        ProgressBar progressBar = dialogView.findViewById(R.id.transfer_progress_bar);
+        TextView progressText = dialogView.findViewById(R.id.transfer_progress_text);
+
+        ContentResolver resolver = requireContext().getContentResolver();
+        dbExecutor.read(getViewLifecycleOwner(), db -> {
+            int rows;
+            try (OutputStream out = resolver.openOutputStream(uri, "wt")) {
+                if (out == null) {
+                    throw new IOException("Could not open " + uri);
+                }
+                rows = exporter.export(db, userId, out, (written, total) -> progressBar.post(() -> {
+                    progressBar.setIndeterminate(false);
+                    progressBar.setMax(total);
+                    progressBar.setProgress(written);
+                    progressText.setText(progressText.getContext().getString(R.string.export_progress, written, total));
+                }));
+            } catch (IOException e) {
+                Log.e(TAG, "Export failed", e);
+                rows = EXPORT_FAILED;
+            }
+            if (rows < 0) {
+                deleteDocument(resolver, uri);
+            }
+            return rows;
+        }, rows -> {
+            runningExport = null;
+            dismissTransferDialog();
+            if (rows >= 0) {
+                Toast.makeText(getContext(), getString(R.string.export_success, rows), Toast.LENGTH_SHORT).show();
+            } else if (rows == EXPORT_FAILED) {
+                Toast.makeText(getContext(), getString(R.string.export_error), Toast.LENGTH_SHORT).show();
             } else {
-                Toast.makeText(getContext(), getString(R.string.phone_updated_error), Toast.LENGTH_SHORT).show();
+                Toast.makeText(getContext(), getString(R.string.export_cancelled), Toast.LENGTH_SHORT).show();
             }
+        });
+    }
+
+    /**
+     * Deletes a partially written export, logging rather than failing if the provider doesn't allow it.
+     */
+    private static void deleteDocument(ContentResolver resolver, Uri uri) {
+        try {
+            DocumentsContract.deleteDocument(resolver, uri);
+        } catch (Exception e) {
+            Log.w(TAG, "Could not delete partial export " + uri, e);
+        }
+    }
+
+    /**
+     * Imports the weight entries of the chosen CSV file in the background, showing its progress in a dialog
+     * that can cancel it, then reports how many entries were written and which lines were skipped.
+     * The file is streamed through a WeightImporter in batched transactions, so this works the same for any
+     * number of lines, and importing the same file twice overwrites rather than duplicates its entries.
+     * @param uri The file the user chose, or null if they backed out.
+     */
+    private void importHistory(@Nullable Uri uri) {
+        if (uri == null || userRepository.getUserId() == -1 || transferDialog != null) {
+            return;
+        }
+        WeightImporter importer = new WeightImporter();
+        runningImport = importer;
+        View dialogView = showTransferDialog(R.string.import_in_progress, importer::cancel);
+        ProgressBar progressBar = dialogView.findViewById(R.id.transfer_progress_bar);
+        TextView progressText = dialogView.findViewById(R.id.transfer_progress_text);
+
+        ContentResolver resolver = requireContext().getContentResolver();
+        dbExecutor.write(getViewLifecycleOwner(), db -> {
+            long size = querySize(resolver, uri);
+            try (InputStream in = resolver.openInputStream(uri)) {
+                if (in == null) {
+                    throw new IOException("Could not open " + uri);
+                }
+                return userRepository.importWeights(importer, in, (lineCount, bytesRead) -> progressBar.post(() -> {
+                    if (size > 0) {
+                        progressBar.setIndeterminate(false);
+                        progressBar.setMax(100);
+                        progressBar.setProgress((int) Math.min(bytesRead * 100 / size, 100));
+                    }
+                    progressText.setText(progressText.getContext().getString(R.string.import_progress, lineCount));
+                }));
+            } catch (IOException e) {
+                Log.e(TAG, "Import failed", e);
+                return null;
+            }
+        }, result -> {
+            runningImport = null;
+            dismissTransferDialog();
+            if (result == null) {
+                Toast.makeText(getContext(), getString(R.string.import_error), Toast.LENGTH_SHORT).show();
+                return;
+            }
+            showImportResult(result);
+        });
+    }
+
+    /**
+     * Shows how many entries an import wrote and, if any lines were skipped, the first of their numbers.
+     * @param result The outcome of the import.
+     */
+    private void showImportResult(WeightImportResult result) {
+        StringBuilder message = new StringBuilder(getString(result.isCancelled() ? R.string.import_cancelled
+                : R.string.import_success, result.getInsertedCount(), result.getUpdatedCount()));
+        if (result.getBadLineCount() > 0) {
+            StringBuilder lines = new StringBuilder();
+            for (int lineNumber : result.getBadLineNumbers()) {
+                if (lines.length() > 0) {
+                    lines.append(", ");
+                }
+                lines.append(lineNumber);
+            }
+            if (result.getBadLineNumbers().length < result.getBadLineCount()) {
+                lines.append(", …");
+            }
+            message.append("\n\n").append(getString(R.string.import_bad_lines, result.getBadLineCount(), lines));
+        }
+        new AlertDialog.Builder(requireContext())
+                .setTitle(R.string.import_history)
+                .setMessage(message)
+                .setPositiveButton(android.R.string.ok, null)
+                .show();
+    }
+
+    /**
+     * Writes a backup of every user and weight entry to the chosen document in the background, then reports
+     * its size. The backup is streamed in the compact BackupFormat, so it is a small fraction of the size of
+     * the database file. A failed backup deletes the partial document.
+     * @param uri The document the user chose, or null if they backed out.
+     */
+    private void writeBackup(@Nullable Uri uri) {
+        if (uri == null || transferDialog != null) {
+            return;
+        }
+        showTransferDialog(R.string.backup_in_progress, null);
+
+        ContentResolver resolver = requireContext().getContentResolver();
+        dbExecutor.write(getViewLifecycleOwner(), db -> {
+            int entries;
+            try (OutputStream out = resolver.openOutputStream(uri, "wt")) {
+                if (out == null) {
+                    throw new IOException("Could not open " + uri);
+                }
+                entries = db.writeBackup(out);
+            } catch (IOException | RuntimeException e) {
+                // Caught here rather than by the executor so the progress dialog, which has no Cancel button, closes
+                Log.e(TAG, "Backup failed", e);
+                deleteDocument(resolver, uri);
+                return null;
+            }
+            return new long[] {entries, querySize(resolver, uri)};
+        }, result -> {
+            dismissTransferDialog();
+            if (result == null) {
+                Toast.makeText(getContext(), getString(R.string.backup_error), Toast.LENGTH_SHORT).show();
+                return;
+            }
+            Toast.makeText(getContext(), getString(R.string.backup_success, (int) result[0],
+                    Formatter.formatShortFileSize(getContext(), result[1])), Toast.LENGTH_LONG).show();
+        });
+    }
+
+    /**
+     * Warns that restoring replaces everything on the device, then asks the user for the backup to restore.
+     */
+    private void confirmRestore() {
+        new AlertDialog.Builder(requireContext())
+                .setTitle(R.string.restore_confirm_title)
+                .setMessage(R.string.restore_confirm_message)
+                // Backups have no registered MIME type, so any file can be chosen and is checked when read
+                .setPositiveButton(R.string.restore_data, (dialog, which) -> restoreLauncher.launch(new String[] {"*/*"}))
+                .setNegativeButton(R.string.cancel, null)
+                .show();
+    }
+
+    /**
+     * Replaces every user and weight entry with those of the chosen backup in the background. The backup
+     * is verified as it is read and only committed once all of it has been, so a damaged file changes
+     * nothing. Restored users without a password are then asked for one, and if the logged-in user isn't in
+     * the backup, the session ends and the login screen is shown.
+     * @param uri The backup the user chose, or null if they backed out.
+     */
+    private void restoreBackup(@Nullable Uri uri) {
+        if (uri == null || transferDialog != null) {
+            return;
+        }
+        showTransferDialog(R.string.restore_in_progress, null);
+
+        ContentResolver resolver = requireContext().getContentResolver();
+        dbExecutor.write(getViewLifecycleOwner(), db -> {
+            long size = querySize(resolver, uri);
+            try (InputStream in = resolver.openInputStream(uri)) {
+                if (in == null) {
+                    throw new IOException("Could not open " + uri);
+                }
+                return new long[] {userRepository.restoreBackup(in), size};
+            } catch (IOException | RuntimeException e) {
+                Log.e(TAG, "Restore failed", e);
+                return null;
+            }
+        }, result -> {
+            dismissTransferDialog();
+            if (result == null) {
+                Toast.makeText(getContext(), getString(R.string.restore_error), Toast.LENGTH_LONG).show();
+                return;
+            }
+            Toast.makeText(getContext(), getString(R.string.restore_success, (int) result[0],
+                    Formatter.formatShortFileSize(getContext(), Math.max(result[1], 0))), Toast.LENGTH_SHORT).show();
+            dbExecutor.read(getViewLifecycleOwner(), db -> db.getUsernamesWithoutPassword(),
+                    usernames -> askForMissingPasswords(usernames, 0));
+        });
+    }
+
+    /**
+     * Asks, one user at a time, for a password for each restored user who has none, since backups don't
+     * hold passwords. Only whoever restored the backup is asked, so nobody can claim a restored account
+     * later just by registering its username. A skipped user can't log in until a backup is restored again.
+     * @param usernames The restored users without a password.
+     * @param index The position in usernames of the user to ask about.
+     */
+    private void askForMissingPasswords(List<String> usernames, int index) {
+        if (index == usernames.size()) {
+            finishRestore();
+            return;
+        }
+        String username = usernames.get(index);
+        EditText input = new EditText(requireContext());
+        input.setInputType(InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_VARIATION_PASSWORD);
+        AlertDialog dialog = new AlertDialog.Builder(requireContext())
+                .setTitle(getString(R.string.restore_password_title, username))
+                .setMessage(R.string.restore_password_message)
+                .setView(input)
+                .setCancelable(false)
+                .setPositiveButton(R.string.restore_set_password, null)
+                .setNegativeButton(R.string.restore_skip_password, (d, which) -> askForMissingPasswords(usernames, index + 1))
+                .show();
+        // Set here rather than through the builder, so an invalid password doesn't close the dialog
+        dialog.getButton(AlertDialog.BUTTON_POSITIVE).setOnClickListener(v -> {
+            String password = input.getText().toString().trim();
+            int passwordError = LoginFragment.validatePassword(password);
+            if (passwordError != 0) {
+                input.setError(getString(passwordError));
+                return;
+            }
+            dialog.dismiss();
+            dbExecutor.write(getViewLifecycleOwner(), db -> db.setMissingPassword(username, password),
+                    isSet -> askForMissingPasswords(usernames, index + 1));
+        });
+    }
+
+    /**
+     * Shows the restored profile, or the login screen if the logged-in user isn't in the backup.
+     */
+    private void finishRestore() {
+        if (userRepository.getUserId() == -1) {
+            Toast.makeText(getContext(), getString(R.string.restore_logged_out), Toast.LENGTH_LONG).show();
+            Navigation.findNavController(requireActivity(), R.id.nav_host_fragment).navigate(R.id.navigation_login);
         } else {
-            Toast.makeText(getContext(), getString(R.string.user_not_found), Toast.LENGTH_SHORT).show();
+            currentGoalValue.setText("");
+            editPhoneNumber.setText("");
+            loadUserData();
+        }
+    }
+
+    /**
+     * Looks up the size of a document, to show an import's progress as a fraction of it or report a backup's size.
+     * @return The size in bytes, or -1 if the provider doesn't report it.
+     */
+    private static long querySize(ContentResolver resolver, Uri uri) {
+        try (Cursor cursor = resolver.query(uri, new String[] {OpenableColumns.SIZE}, null, null, null)) {
+            if (cursor != null && cursor.moveToFirst() && !cursor.isNull(0)) {
+                return cursor.getLong(0);
+            }
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Could not read the size of " + uri, e);
+        }
+        return -1;
+    }
+
+    /**
+     * Shows a dialog with the progress of a transfer, which can't be dismissed except by cancelling.
+     * @param titleId The string resource of the dialog's title.
+     * @param onCancel Stops the transfer when the dialog's Cancel button is pressed, or null if it can't be stopped.
+     * @return The dialog's content view, holding the transfer_progress bar and text.
+     */
+    private View showTransferDialog(int titleId, Runnable onCancel) {
+        View dialogView = LayoutInflater.from(getContext()).inflate(R.layout.transfer_progress, null);
+        AlertDialog.Builder builder = new AlertDialog.Builder(requireContext())
+                .setTitle(titleId)
+                .setView(dialogView)
+                .setCancelable(false);
+        if (onCancel != null) {
+            builder.setNegativeButton(R.string.cancel, (dialog, which) -> onCancel.run());
+        }
+        transferDialog = builder.show();
+        return dialogView;
+    }
+
+    /**
+     * Closes the progress dialog of a transfer, if one is showing.
+     */
+    private void dismissTransferDialog() {
+        if (transferDialog != null) {
+            transferDialog.dismiss();
+            transferDialog = null;
         }
     }
 }
@@ -1,8 +1,7 @@
 package com.test.weighttrackingapplicationmatthewbates;
 
-import android.content.Context;
-import android.content.SharedPreferences;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -15,14 +14,32 @@ import androidx.fragment.app.Fragment;
 
 /**
  * The main dashboard fragment displayed after a user logs in.
- * It provides a quick summary of the user's most recent weight and their current weight goal.
+ * It provides a quick summary of the user's most recent weight, their current weight goal, and their
+ * weight trend with a projection of when the goal will be reached.
  */
 public class HomeFragment extends Fragment {
 
     private TextView recentWeightTextView;
     private TextView goalTextView;
-    private DatabaseHelper dbHelper;
-    private int userId;
+    private TextView trendTextView;
+    private DatabaseExecutor dbExecutor;
+    private UserRepository userRepository;
+    // When the view was created, and how many of its values are still loading, to log the time to first data
+    private long viewCreatedUptime;
+    private int pendingLoads;
+
+    /**
+     * The statistics and goal the trend is shown from, loaded together in the background.
+     */
+    private static final class Trend {
+        final WeightStats stats;
+        final Float weightGoal;
+
+        Trend(WeightStats stats, Float weightGoal) {
+            this.stats = stats;
+            this.weightGoal = weightGoal;
+        }
+    }
 
     /**
      * Inflates the layout for this fragment, initializes UI components, and loads user data.
@@ -34,17 +51,16 @@ public class HomeFragment extends Fragment {
     @Nullable
     @Override
     public View onCreateView(@NonNull LayoutInflater inflater, @Nullable ViewGroup container, @Nullable Bundle savedInstanceState) {
+        viewCreatedUptime = SystemClock.uptimeMillis();
         View view = inflater.inflate(R.layout.fragment_home, container, false);
         recentWeightTextView = view.findViewById(R.id.recent_weight_text_view);
         goalTextView = view.findViewById(R.id.goal_text_view);
-        dbHelper = new DatabaseHelper(requireContext());
-
-        // Retrieve user ID from SharedPreferences
-        SharedPreferences sharedPreferences = requireActivity().getSharedPreferences(AppConstants.PREFS_NAME, Context.MODE_PRIVATE);
-        userId = sharedPreferences.getInt(AppConstants.KEY_USER_ID, -1);
+        trendTextView = view.findViewById(R.id.trend_text_view);
+        dbExecutor = DatabaseExecutor.getInstance(requireContext());
+        userRepository = UserRepository.getInstance(requireContext());
 
-        // Check if userId is valid
-        if (userId != -1) {
+        // Check that a user is logged in
+        if (userRepository.getUserId() != -1) {
             loadUserData();
         } else {
             // Handle case where user is not logged in
@@ -55,23 +71,69 @@ public class HomeFragment extends Fragment {
     }
 
     /**
-     * Fetches the user's most recent weight and weight goal from the database
-     * and updates the TextViews to display the information.
+     * Fetches the user's most recent weight, weight goal and statistics in the background and updates the
+     * TextViews to display the information once each arrives. All come from the UserRepository's cache after
+     * the first visit, and the statistics are kept by the database, so none of them reads the history.
      */
     private void loadUserData() {
-        Float recentWeight = dbHelper.getMostRecentWeight(userId);
-        Float weightGoal = dbHelper.getWeightGoal(userId);
+        pendingLoads = 3;
+        dbExecutor.read(getViewLifecycleOwner(), db -> userRepository.getMostRecentWeight(), recentWeight -> {
+            if (recentWeight != null) {
+                recentWeightTextView.setText(getString(R.string.home_recent_weight_label, recentWeight));
+            } else {
+                recentWeightTextView.setText(getString(R.string.home_no_weight_data));
+            }
+            onDataShown();
+        });
 
-        if (recentWeight != null) {
-            recentWeightTextView.setText(getString(R.string.home_recent_weight_label, recentWeight));
-        } else {
-            recentWeightTextView.setText(getString(R.string.home_no_weight_data));
+        dbExecutor.read(getViewLifecycleOwner(), db -> userRepository.getWeightGoal(), weightGoal -> {
+            if (weightGoal != null) {
+                goalTextView.setText(getString(R.string.home_goal_label, weightGoal));
+            } else {
+                goalTextView.setText(getString(R.string.home_no_goal_set));
+            }
+            onDataShown();
+        });
+
+        dbExecutor.read(getViewLifecycleOwner(),
+                db -> new Trend(userRepository.getWeightStats(), userRepository.getWeightGoal()), trend -> {
+            showTrend(trend);
+            onDataShown();
+        });
+    }
+
+    /**
+     * Shows the trend, rolling means and weekly rate, and when the goal is projected to be reached.
+     * @param trend The loaded statistics and goal.
+     */
+    private void showTrend(Trend trend) {
+        WeightStats stats = trend.stats;
+        if (stats == null) {
+            trendTextView.setText(getString(R.string.home_no_trend));
+            return;
+        }
+        double perWeek = Double.isNaN(stats.getSlopePerDay()) ? 0 : stats.getSlopePerDay() * 7;
+        String text = getString(R.string.home_trend_summary, stats.getTrendWeight(),
+                stats.getSevenDayMean(), stats.getThirtyDayMean(), perWeek);
+        if (trend.weightGoal != null) {
+            Integer goalEpochDay = stats.projectGoalEpochDay(trend.weightGoal);
+            if (goalEpochDay == null) {
+                text += "\n" + getString(R.string.home_goal_not_on_track);
+            } else if (goalEpochDay == stats.getLatestEpochDay()) {
+                text += "\n" + getString(R.string.home_goal_reached);
+            } else {
+                text += "\n" + getString(R.string.home_goal_projection, DateUtils.formatEpochDay(goalEpochDay));
+            }
         }
+        trendTextView.setText(text);
+    }
 
-        if (weightGoal != null) {
-            goalTextView.setText(getString(R.string.home_goal_label, weightGoal));
-        } else {
-            goalTextView.setText(getString(R.string.home_no_goal_set));
+    /**
+     * Called as each value is shown; once all of them are, reports the time to first data.
+     */
+    private void onDataShown() {
+        if (--pendingLoads == 0) {
+            WeightTrackingApplication.reportHomeDataShown(viewCreatedUptime);
         }
     }
 }
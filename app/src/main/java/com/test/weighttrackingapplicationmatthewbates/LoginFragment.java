@@ -1,7 +1,5 @@
 package com.test.weighttrackingapplicationmatthewbates;
 
-import android.content.Context;
-import android.content.SharedPreferences;
 import android.os.Bundle;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -26,7 +24,7 @@ public class LoginFragment extends Fragment {
     private EditText passwordEditText;
     private Button loginButton;
     private Button registerButton;
-    private DatabaseHelper dbHelper;
+    private DatabaseExecutor dbExecutor;
 
     /**
      * Inflates the layout for this fragment, initializes UI components, and sets up click listeners.
@@ -46,7 +44,7 @@ public class LoginFragment extends Fragment {
         passwordEditText = view.findViewById(R.id.password);
         loginButton = view.findViewById(R.id.login_button);
         registerButton = view.findViewById(R.id.register_button);
-        dbHelper = new DatabaseHelper(getContext());
+        dbExecutor = DatabaseExecutor.getInstance(requireContext());
 
         // Set click listeners
         loginButton.setOnClickListener(v -> loginUser());
@@ -73,23 +71,23 @@ public class LoginFragment extends Fragment {
             return;
         }
 
-        // Check credentials and get user ID
-        Integer userId = dbHelper.getUserId(username, password);
-        if (userId != null) {
-            Toast.makeText(getContext(), getString(R.string.login_successful), Toast.LENGTH_SHORT).show();
-
-            // Save user ID in SharedPreferences for global access
-            SharedPreferences sharedPreferences = requireActivity().getSharedPreferences(AppConstants.PREFS_NAME, Context.MODE_PRIVATE);
-            SharedPreferences.Editor editor = sharedPreferences.edit();
-            editor.putInt(AppConstants.KEY_USER_ID, userId);
-            editor.apply();
-
-            // Navigate using NavController
-            NavController navController = Navigation.findNavController(requireActivity(), R.id.nav_host_fragment);
-            navController.navigate(R.id.navigation_home);
-        } else {
-            Toast.makeText(getContext(), getString(R.string.login_invalid_credentials), Toast.LENGTH_SHORT).show();
-        }
+        // Check credentials and get user ID, keeping the buttons disabled until the answer arrives
+        setButtonsEnabled(false);
+        dbExecutor.read(getViewLifecycleOwner(), db -> db.getUserId(username, password), userId -> {
+            setButtonsEnabled(true);
+            if (userId != null) {
+                Toast.makeText(getContext(), getString(R.string.login_successful), Toast.LENGTH_SHORT).show();
+
+                // Start the session; the user ID is saved for global access
+                UserRepository.getInstance(requireContext()).setUserId(userId);
+
+                // Navigate using NavController
+                NavController navController = Navigation.findNavController(requireActivity(), R.id.nav_host_fragment);
+                navController.navigate(R.id.navigation_home);
+            } else {
+                Toast.makeText(getContext(), getString(R.string.login_invalid_credentials), Toast.LENGTH_SHORT).show();
+            }
+        });
     }
 
     /**
@@ -112,35 +110,58 @@ public class LoginFragment extends Fragment {
         }
 
         // Password validation
-        if (password.isEmpty()) {
-            passwordEditText.setError(getString(R.string.error_field_required));
+        int passwordError = validatePassword(password);
+        if (passwordError != 0) {
+            passwordEditText.setError(getString(passwordError));
             return;
         }
+
+        // Attempt to add the user to the database
+        setButtonsEnabled(false);
+        dbExecutor.write(getViewLifecycleOwner(), db -> db.addUser(username, password), isAdded -> {
+            setButtonsEnabled(true);
+            if (isAdded) {
+                Toast.makeText(getContext(), getString(R.string.registration_successful), Toast.LENGTH_LONG).show();
+                usernameEditText.setText("");
+                passwordEditText.setText("");
+            } else {
+                usernameEditText.setError(getString(R.string.registration_failed_username_exists));
+            }
+        });
+    }
+
+    /**
+     * Checks a new password against the security requirements, e.g. when registering or when setting the
+     * password of a user restored from a backup.
+     * @param password The password, already trimmed.
+     * @return The string resource of the first requirement it fails, or 0 if it meets them all.
+     */
+    static int validatePassword(String password) {
+        if (password.isEmpty()) {
+            return R.string.error_field_required;
+        }
         if (password.length() < 8) {
-            passwordEditText.setError(getString(R.string.error_password_length));
-            return;
+            return R.string.error_password_length;
         }
         if (!password.matches(".*[a-zA-Z].*")) {
-            passwordEditText.setError(getString(R.string.error_password_letter));
-            return;
+            return R.string.error_password_letter;
         }
         if (!password.matches(".*[0-9].*")) {
-            passwordEditText.setError(getString(R.string.error_password_number));
-            return;
+            return R.string.error_password_number;
         }
         if (!password.matches(".*[@#$%^&+=!].*")) {
-            passwordEditText.setError(getString(R.string.error_password_special));
-            return;
+            return R.string.error_password_special;
         }
+        return 0;
+    }
 
-        // Attempt to add the user to the database
-        boolean isAdded = dbHelper.addUser(username, password);
-        if (isAdded) {
-            Toast.makeText(getContext(), getString(R.string.registration_successful), Toast.LENGTH_LONG).show();
-            usernameEditText.setText("");
-            passwordEditText.setText("");
-        } else {
-            usernameEditText.setError(getString(R.string.registration_failed_username_exists));
-        }
+    /**
+     * Enables or disables the login and register buttons, so a request can't be submitted twice
+     * while the database is still answering the first.
+     * @param enabled true to enable the buttons, false to disable them.
+     */
+    private void setButtonsEnabled(boolean enabled) {
+        loginButton.setEnabled(enabled);
+        registerButton.setEnabled(enabled);
     }
 }
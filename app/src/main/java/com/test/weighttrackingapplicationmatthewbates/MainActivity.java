@@ -4,8 +4,14 @@ import android.Manifest;
 import android.content.pm.PackageManager;
 import android.os.Bundle;
 import android.telephony.SmsManager;
+import android.util.Log;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.text.InputType;
+import android.widget.EditText;
 import android.widget.Toast;
 import androidx.annotation.NonNull;
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
@@ -14,6 +20,7 @@ import androidx.navigation.Navigation;
 import androidx.navigation.ui.AppBarConfiguration;
 import androidx.navigation.ui.NavigationUI;
 import android.view.View;
+import android.view.ViewTreeObserver;
 import com.google.android.material.bottomnavigation.BottomNavigationView;
 
 /**
@@ -58,8 +65,100 @@ public class MainActivity extends AppCompatActivity {
             }
         });
 
-        // Check for SMS permission on startup.
-        checkSmsPermission();
+        // Check for SMS permission once the first frame is on screen, so the prompt doesn't delay it.
+        runAfterFirstFrame(this::checkSmsPermission);
+    }
+
+    /**
+     * Runs non-critical startup work after the first frame has been drawn instead of before it.
+     * @param action The work to run on the main thread.
+     */
+    private void runAfterFirstFrame(Runnable action) {
+        View decorView = getWindow().getDecorView();
+        decorView.getViewTreeObserver().addOnDrawListener(new ViewTreeObserver.OnDrawListener() {
+            private boolean scheduled;
+
+            @Override
+            public void onDraw() {
+                if (scheduled) {
+                    return;
+                }
+                scheduled = true;
+                // Posted, since the frame is still being drawn and a listener can't be removed during onDraw
+                decorView.post(() -> {
+                    decorView.getViewTreeObserver().removeOnDrawListener(this);
+                    action.run();
+                });
+            }
+        });
+    }
+
+    /**
+     * Adds the debug menu to the action bar in debug builds only.
+     * @param menu The options menu in which items are placed.
+     * @return true for the menu to be displayed.
+     */
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        if (BuildConfig.DEBUG) {
+            getMenuInflater().inflate(R.menu.debug_menu, menu);
+        }
+        return super.onCreateOptionsMenu(menu);
+    }
+
+    /**
+     * Handles the debug menu's items.
+     * @param item The menu item that was selected.
+     * @return true if the selection was handled here.
+     */
+    @Override
+    public boolean onOptionsItemSelected(@NonNull MenuItem item) {
+        if (item.getItemId() == R.id.action_dump_query_metrics) {
+            dumpQueryMetrics();
+            return true;
+        }
+        if (item.getItemId() == R.id.action_slow_query_threshold) {
+            editSlowQueryThreshold();
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    /**
+     * Writes the database's query metrics to the log and shows them in a dialog.
+     */
+    private void dumpQueryMetrics() {
+        String report = DatabaseHelper.getInstance(this).getMetrics().dump();
+        Log.i("QueryMetrics", report);
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.dump_query_metrics)
+                .setMessage(report)
+                .setPositiveButton(android.R.string.ok, null)
+                .show();
+    }
+
+    /**
+     * Asks for a new slow-query threshold, so slow queries can be looked for at a finer or coarser
+     * granularity. It lasts until the app is restarted.
+     */
+    private void editSlowQueryThreshold() {
+        QueryMetrics metrics = DatabaseHelper.getInstance(this).getMetrics();
+        EditText input = new EditText(this);
+        input.setInputType(InputType.TYPE_CLASS_NUMBER);
+        input.setText(String.valueOf(metrics.getSlowQueryThresholdMillis()));
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.slow_query_threshold)
+                .setMessage(R.string.slow_query_threshold_message)
+                .setView(input)
+                .setPositiveButton(android.R.string.ok, (dialog, which) -> {
+                    try {
+                        metrics.setSlowQueryThresholdMillis(Long.parseLong(input.getText().toString().trim()));
+                    } catch (NumberFormatException e) {
+                        Toast.makeText(this, getString(R.string.error_valid_number), Toast.LENGTH_SHORT).show();
+                    }
+                })
+                .setNegativeButton(R.string.cancel, null)
+                .show();
     }
 
     /**
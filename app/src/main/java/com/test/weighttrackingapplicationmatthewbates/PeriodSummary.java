@@ -0,0 +1,134 @@
+package com.test.weighttrackingapplicationmatthewbates;
+
+/**
+ * A simple data class (POJO) that summarizes a user's weight entries over one day, week or month.
+ * This object holds the entry count, sum, extremes and the first and last entries of the period.
+ */
+public class PeriodSummary {
+    private final int period;
+    private final int periodStart;
+    private final int entryCount;
+    private final double weightSum;
+    private final float minWeight;
+    private final float maxWeight;
+    private final int firstEpochDay;
+    private final float firstWeight;
+    private final int lastEpochDay;
+    private final float lastWeight;
+
+    /**
+     * Constructor for creating a new PeriodSummary.
+     * @param period A constant from PeriodUtils giving the length of the period.
+     * @param periodStart The first day of the period, as an epoch day.
+     * @param entryCount The number of entries in the period.
+     * @param weightSum The sum of the entries' weights.
+     * @param minWeight The lowest weight in the period.
+     * @param maxWeight The highest weight in the period.
+     * @param firstEpochDay The date of the earliest entry in the period.
+     * @param firstWeight The weight of the earliest entry in the period.
+     * @param lastEpochDay The date of the latest entry in the period.
+     * @param lastWeight The weight of the latest entry in the period.
+     */
+    public PeriodSummary(int period, int periodStart, int entryCount, double weightSum,
+                         float minWeight, float maxWeight,
+                         int firstEpochDay, float firstWeight, int lastEpochDay, float lastWeight) {
+        this.period = period;
+        this.periodStart = periodStart;
+        this.entryCount = entryCount;
+        this.weightSum = weightSum;
+        this.minWeight = minWeight;
+        this.maxWeight = maxWeight;
+        this.firstEpochDay = firstEpochDay;
+        this.firstWeight = firstWeight;
+        this.lastEpochDay = lastEpochDay;
+        this.lastWeight = lastWeight;
+    }
+
+    /**
+     * Gets the length of the period.
+     * @return A constant from PeriodUtils.
+     */
+    public int getPeriod() {
+        return period;
+    }
+
+    /**
+     * Gets the first day of the period.
+     * @return The epoch day the period starts on.
+     */
+    public int getPeriodStart() {
+        return periodStart;
+    }
+
+    /**
+     * Gets the number of weight entries in the period.
+     * @return The entry count.
+     */
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * Gets the sum of the weights in the period.
+     * @return The weight sum.
+     */
+    public double getWeightSum() {
+        return weightSum;
+    }
+
+    /**
+     * Gets the mean weight over the period.
+     * @return The average weight.
+     */
+    public float getAverageWeight() {
+        return (float) (weightSum / entryCount);
+    }
+
+    /**
+     * Gets the lowest weight in the period.
+     * @return The minimum weight.
+     */
+    public float getMinWeight() {
+        return minWeight;
+    }
+
+    /**
+     * Gets the highest weight in the period.
+     * @return The maximum weight.
+     */
+    public float getMaxWeight() {
+        return maxWeight;
+    }
+
+    /**
+     * Gets the date of the earliest entry in the period.
+     * @return The epoch day of the first entry.
+     */
+    public int getFirstEpochDay() {
+        return firstEpochDay;
+    }
+
+    /**
+     * Gets the weight of the earliest entry in the period.
+     * @return The first weight.
+     */
+    public float getFirstWeight() {
+        return firstWeight;
+    }
+
+    /**
+     * Gets the date of the latest entry in the period.
+     * @return The epoch day of the last entry.
+     */
+    public int getLastEpochDay() {
+        return lastEpochDay;
+    }
+
+    /**
+     * Gets the weight of the latest entry in the period.
+     * @return The last weight.
+     */
+    public float getLastWeight() {
+        return lastWeight;
+    }
+}
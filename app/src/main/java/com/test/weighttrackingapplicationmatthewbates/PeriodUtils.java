@@ -0,0 +1,15 @@
+package com.test.weighttrackingapplicationmatthewbates;
+
+/**
+ * A utility class to hold constants for the periods that weight entries are summarized over.
+ */
+public final class PeriodUtils {
+
+    private PeriodUtils() {}
+
+    public static final int DAY = 0;
+    // ISO weeks, starting on Monday
+    public static final int WEEK = 1;
+    public static final int MONTH = 2;
+
+}
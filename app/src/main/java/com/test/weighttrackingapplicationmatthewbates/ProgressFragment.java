@@ -1,8 +1,6 @@
 package com.test.weighttrackingapplicationmatthewbates;
 
 import android.app.DatePickerDialog;
-import android.content.Context;
-import android.content.SharedPreferences;
 import android.os.Bundle;
 
 import androidx.appcompat.app.AlertDialog;
@@ -19,24 +17,44 @@ import android.widget.EditText;
 import android.widget.Spinner;
 import android.widget.Toast;
 
-import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
-import java.util.Locale;
 
 /**
- * A fragment that displays a grid of the user's weight history.
+ * A fragment that displays a chart and a grid of the user's weight history.
  * It allows users to add new weight entries, delete existing ones, and sort the displayed entries.
  */
 public class ProgressFragment extends Fragment {
 
     private RecyclerView recyclerView;
+    private WeightChartView chartView;
     private WeightAdapter weightAdapter;
-    private List<ProgressItem> weightItemList;
-    private DatabaseHelper databaseHelper;
+    private DatabaseExecutor dbExecutor;
+    private UserRepository userRepository;
     private Spinner sortSpinner;
+    private Button filterButton;
+
+    // Days covered by each preset of the filter dialog's range spinner; 0 means all dates
+    private static final int[] FILTER_RANGE_DAYS = {0, 30, 90, 365};
+    // Position of the "Custom range" item in the filter dialog's range spinner
+    private static final int FILTER_RANGE_CUSTOM = 4;
+    // Histories longer than this are read a window at a time instead of being held in memory
+    private static final int WINDOW_MODE_THRESHOLD = 100000;
+
+    private WeightFilter currentFilter;
+    private int filterRangePosition;
+
+    // The whole filtered history once loaded, with the goal its distance order was built for
+    private WeightOrderIndex orderIndex;
+    private Float historyGoal;
+    // Bumped whenever the entries or filter change, so an index loaded before the change is discarded
+    private int dataVersion;
+    // The dataVersion an index is being loaded for, so the same data isn't loaded twice
+    private int loadingVersion = -1;
+    // The grid's adapter once the history is too long to hold in memory, or null while weightAdapter is used
+    private WeightWindowAdapter windowAdapter;
+    // Incremented for every load of the ordered IDs, so a slower, older load can't replace newer IDs
+    private int idsGeneration;
 
     /**
      * Inflates the layout, initializes all UI components including the RecyclerView and Spinner,
@@ -47,12 +65,17 @@ public class ProgressFragment extends Fragment {
                              Bundle savedInstanceState) {
         View view = inflater.inflate(R.layout.fragment_progress, container, false);
 
-        databaseHelper = new DatabaseHelper(getContext());
+        dbExecutor = DatabaseExecutor.getInstance(requireContext());
+        userRepository = UserRepository.getInstance(requireContext());
+        chartView = view.findViewById(R.id.weight_chart);
         recyclerView = view.findViewById(R.id.weight_grid);
         recyclerView.setLayoutManager(new GridLayoutManager(getContext(), 2));
-        weightItemList = new ArrayList<>();
-        weightAdapter = new WeightAdapter(weightItemList);
+        weightAdapter = new WeightAdapter();
         recyclerView.setAdapter(weightAdapter);
+        // A new view starts from the database again, e.g. after the goal was changed on another screen
+        orderIndex = null;
+        windowAdapter = null;
+        dataVersion++;
 
         // Setup Sort Spinner
         sortSpinner = view.findViewById(R.id.sort_spinner);
@@ -74,71 +97,192 @@ public class ProgressFragment extends Fragment {
 
         loadWeightData(SortUtils.DATE_NEWEST); // Initial load
 
+        filterButton = view.findViewById(R.id.filter_button);
+        filterButton.setOnClickListener(v -> showFilterDialog());
+
         Button addWeightButton = view.findViewById(R.id.add_weight_button);
         addWeightButton.setOnClickListener(v -> addWeight());
 
         Button deleteWeightButton = view.findViewById(R.id.delete_weight_button);
         deleteWeightButton.setOnClickListener(v -> deleteSelectedWeights());
 
+        Button selectAllButton = view.findViewById(R.id.select_all_button);
+        selectAllButton.setOnClickListener(v -> selectAllWeights(false));
+
+        Button invertSelectionButton = view.findViewById(R.id.invert_selection_button);
+        invertSelectionButton.setOnClickListener(v -> selectAllWeights(true));
+
         return view;
     }
 
     /**
-     * Loads weight entries from the database based on the selected sort option.
-     * For standard sorting, it relies on the database's ORDER BY clause.
-     * For custom sorting, it fetches unsorted data and sorts it in Java.
+     * Shows the weight entries in the selected sort option.
+     * Once the whole filtered history has been loaded into a WeightOrderIndex, switching the sort order
+     * only re-points the adapter at another permutation of it, without touching the database.
+     * Until then, the first pages are read with the database's ORDER BY clause so the grid fills quickly,
+     * while the index is loaded in the background to take over from them. A history too long to hold in
+     * memory is shown a window at a time instead, from IDs in display order that are reloaded for every change.
+     * Without a goal, distance from goal falls back to newest first and the user is told why.
      * @param sortOption The selected sort option constant from SortUtils.
      */
     private void loadWeightData(int sortOption) {
-        weightItemList.clear();
-        weightAdapter.clearSelection();
+        clearSelection();
 
-        SharedPreferences sharedPreferences = getContext().getSharedPreferences(AppConstants.PREFS_NAME, Context.MODE_PRIVATE);
-        int userId = sharedPreferences.getInt(AppConstants.KEY_USER_ID, -1);
+        if (windowAdapter != null) {
+            reloadWeightIds(sortOption);
+            return;
+        }
+        if (orderIndex != null) {
+            if (sortOption == SortUtils.DISTANCE_FROM_GOAL && historyGoal == null) {
+                Toast.makeText(getContext(), getString(R.string.error_no_goal_for_sort), Toast.LENGTH_SHORT).show();
+            }
+            weightAdapter.setOrderIndex(orderIndex, sortOption, historyGoal);
+            return;
+        }
 
+        int userId = userRepository.getUserId();
         if (userId != -1) {
             if (sortOption == SortUtils.DISTANCE_FROM_GOAL) {
-                // Handle custom sort in Java
-                sortEntriesByDistanceFromGoal(userId);
-            } else {
-                // Handle standard sorts using the database
-                weightItemList.addAll(databaseHelper.getAllWeightEntries(userId, sortOption));
+                dbExecutor.read(getViewLifecycleOwner(), db -> userRepository.getWeightGoal(), weightGoal -> {
+                    if (weightGoal == null) {
+                        Toast.makeText(getContext(), getString(R.string.error_no_goal_for_sort), Toast.LENGTH_SHORT).show();
+                    }
+                });
             }
-            weightAdapter.notifyDataSetChanged();
+
+            WeightFilter filter = currentFilter;
+            weightAdapter.setPageLoader((lastItem, pageSize, callback) -> dbExecutor.read(getViewLifecycleOwner(),
+                    db -> db.getWeightEntriesPage(userId, sortOption, filter, lastItem, pageSize),
+                    callback::onPageLoaded));
+            loadHistory(userId);
         } else {
+            weightAdapter.setPageLoader(null);
             Toast.makeText(getContext(), getString(R.string.user_not_found), Toast.LENGTH_SHORT).show();
         }
     }
 
     /**
-     * A custom sorting implementation as described in the enhancement plan.
-     * It fetches the user's goal, calculates the absolute distance for each entry, and sorts the list.
-     * @param userId The ID of the current user.
+     * Loads the whole filtered history into a WeightOrderIndex in the background, building the permutation
+     * for the current sort order there too, then hands it to the adapter in place of the paged entries.
+     * If the history is longer than WINDOW_MODE_THRESHOLD, only its IDs in the current sort order are read
+     * instead and the grid switches to a WeightWindowAdapter. The chart draws the index's date-ordered series
+     * directly, or in window mode the weekly means, so the history is never copied into memory just for the chart.
+     * A history that was loaded while entries were added or deleted, or the filter changed, is discarded.
+     * @param userId The ID of the logged-in user.
      */
-    private void sortEntriesByDistanceFromGoal(int userId) {
-        Float goalWeight = databaseHelper.getWeightGoal(userId);
-        if (goalWeight == null) {
-            // If no goal is set, sorting by distance is not possible. Default to standard sort.
-            weightItemList.addAll(databaseHelper.getAllWeightEntries(userId, SortUtils.DATE_NEWEST));
-            Toast.makeText(getContext(), getString(R.string.error_no_goal_for_sort), Toast.LENGTH_SHORT).show();
+    private void loadHistory(int userId) {
+        int version = dataVersion;
+        if (loadingVersion == version) {
             return;
         }
+        loadingVersion = version;
+        WeightFilter filter = currentFilter;
+        int sortOption = sortSpinner.getSelectedItemPosition();
+        dbExecutor.read(getViewLifecycleOwner(), db -> {
+            Float weightGoal = userRepository.getWeightGoal();
+            if (db.countWeightEntries(userId, filter) > WINDOW_MODE_THRESHOLD) {
+                return new LoadedHistory(null, db.getOrderedWeightIds(userId, sortOption, filter), weightGoal);
+            }
+            WeightOrderIndex index = new WeightOrderIndex(db.getAllWeightEntries(userId, SortUtils.DATE_OLDEST, filter));
+            index.prepare(sortOption, weightGoal);
+            return new LoadedHistory(index, null, weightGoal);
+        }, loaded -> {
+            if (version != dataVersion) {
+                // Entries were added or deleted meanwhile; a changed filter has started its own load
+                if (orderIndex == null && filter == currentFilter) {
+                    loadHistory(userId);
+                }
+                return;
+            }
+            historyGoal = loaded.weightGoal;
+            if (loaded.weightIds != null) {
+                windowAdapter = new WeightWindowAdapter((weightIds, fromIndex, toIndex, callback) ->
+                        dbExecutor.read(getViewLifecycleOwner(),
+                                db -> db.getWeightEntriesById(weightIds, fromIndex, toIndex),
+                                callback::onWindowLoaded));
+                windowAdapter.setWeightIds(loaded.weightIds);
+                recyclerView.swapAdapter(windowAdapter, false);
+                if (sortSpinner.getSelectedItemPosition() != sortOption) {
+                    reloadWeightIds(sortSpinner.getSelectedItemPosition());
+                }
+                loadWeeklyChart(false);
+                return;
+            }
+            orderIndex = loaded.index;
+            weightAdapter.setOrderIndex(orderIndex, sortSpinner.getSelectedItemPosition(), historyGoal);
+            chartView.setSeries(orderIndex.getSeries(), false);
+        });
+    }
 
-        // Fetch unsorted data to sort in Java
-        List<ProgressItem> unsortedList = databaseHelper.getAllWeightEntries(userId, SortUtils.DATE_NEWEST); // or any default
+    /**
+     * Charts the weekly means of the filtered date range, for a history too long to chart entry by entry.
+     * The means come from the rollup table, one row per week. A weight band in the filter isn't applied,
+     * since the rollups cover every entry of their week.
+     * @param keepRange true to keep the chart's visible date range, e.g. after an entry was added.
+     */
+    private void loadWeeklyChart(boolean keepRange) {
+        int userId = userRepository.getUserId();
+        if (userId == -1) {
+            return;
+        }
+        int version = dataVersion;
+        Integer from = currentFilter == null ? null : currentFilter.getFromEpochDay();
+        Integer to = currentFilter == null ? null : currentFilter.getToEpochDay();
+        dbExecutor.read(getViewLifecycleOwner(), db -> {
+            List<PeriodSummary> weeks = db.getPeriodSummaries(userId, PeriodUtils.WEEK, from, to);
+            WeightSeries means = new WeightSeries(weeks.size());
+            for (PeriodSummary week : weeks) {
+                // Not an entry, so there is no weight ID; the chart only reads the dates and weights
+                means.add(0, week.getPeriodStart(), week.getAverageWeight());
+            }
+            return means;
+        }, means -> {
+            // Means loaded before a later change or filter would be out of date
+            if (version == dataVersion) {
+                chartView.setSeries(means, keepRange);
+            }
+        });
+    }
 
-        unsortedList.sort(new Comparator<ProgressItem>() {
-            @Override
-            public int compare(ProgressItem p1, ProgressItem p2) {
-                float dist1 = Math.abs(p1.getWeight() - goalWeight);
-                float dist2 = Math.abs(p2.getWeight() - goalWeight);
-                return Float.compare(dist1, dist2); // Ascending order
+    /**
+     * Loads the IDs of the filtered history in a sort order in the background and hands them to the window adapter.
+     * @param sortOption The sort option constant from SortUtils to order the entries by.
+     */
+    private void reloadWeightIds(int sortOption) {
+        int userId = userRepository.getUserId();
+        if (userId == -1) {
+            return;
+        }
+        if (sortOption == SortUtils.DISTANCE_FROM_GOAL && historyGoal == null) {
+            Toast.makeText(getContext(), getString(R.string.error_no_goal_for_sort), Toast.LENGTH_SHORT).show();
+        }
+        int generation = ++idsGeneration;
+        WeightFilter filter = currentFilter;
+        dbExecutor.read(getViewLifecycleOwner(), db -> db.getOrderedWeightIds(userId, sortOption, filter), weightIds -> {
+            if (generation == idsGeneration) {
+                windowAdapter.setWeightIds(weightIds);
             }
         });
+    }
 
-        weightItemList.addAll(unsortedList);
+    /**
+     * Gets the selection of whichever adapter the grid is currently using.
+     * @return The active adapter's WeightSelection.
+     */
+    private WeightSelection getSelection() {
+        return windowAdapter != null ? windowAdapter.getSelection() : weightAdapter.getSelection();
     }
 
+    /**
+     * Clears the selection of whichever adapter the grid is currently using.
+     */
+    private void clearSelection() {
+        if (windowAdapter != null) {
+            windowAdapter.clearSelection();
+        } else {
+            weightAdapter.clearSelection();
+        }
+    }
 
     /**
      * Displays a dialog for the user to add a new weight entry.
@@ -152,24 +296,15 @@ public class ProgressFragment extends Fragment {
         final EditText editTextWeight = dialogView.findViewById(R.id.editTextWeight);
         Button buttonAddWeight = dialogView.findViewById(R.id.buttonAddWeight);
 
-        editTextDate.setFocusable(false);
-        editTextDate.setOnClickListener(v -> {
-            final Calendar c = Calendar.getInstance();
-            DatePickerDialog datePickerDialog = new DatePickerDialog(getContext(),
-                    (view, selectedYear, selectedMonth, selectedDay) -> {
-                        String formattedDate = String.format(Locale.US, "%d-%02d-%02d", selectedYear, selectedMonth + 1, selectedDay);
-                        editTextDate.setText(formattedDate);
-                    }, c.get(Calendar.YEAR), c.get(Calendar.MONTH), c.get(Calendar.DAY_OF_MONTH));
-            datePickerDialog.show();
-        });
+        attachDatePicker(editTextDate);
 
         AlertDialog dialog = builder.create();
 
         buttonAddWeight.setOnClickListener(v -> {
-            String date = editTextDate.getText().toString();
+            Integer epochDay = (Integer) editTextDate.getTag();
             String weightStr = editTextWeight.getText().toString().trim();
 
-            if (date.isEmpty()) {
+            if (epochDay == null) {
                 Toast.makeText(getContext(), getString(R.string.error_date_required), Toast.LENGTH_SHORT).show();
                 return;
             }
@@ -190,25 +325,36 @@ public class ProgressFragment extends Fragment {
                 return;
             }
 
-            SharedPreferences sharedPreferences = getContext().getSharedPreferences(AppConstants.PREFS_NAME, Context.MODE_PRIVATE);
-            int userId = sharedPreferences.getInt(AppConstants.KEY_USER_ID, -1);
-
-            if (userId != -1) {
-                databaseHelper.addWeight(date, weight, userId);
-
-                Float weightGoal = databaseHelper.getWeightGoal(userId);
-                if (weightGoal != null && weight < weightGoal) {
-                    String phoneNumber = databaseHelper.getUserPhoneNumber(userId);
-                    String message = getString(R.string.goal_reached_sms_message);
-
+            if (userRepository.getUserId() != -1) {
+                // Save the entry and look up the goal, and who to notify if it was beaten; both usually come from the cache
+                dbExecutor.write(getViewLifecycleOwner(), db -> {
+                    int weightId = userRepository.addWeight(epochDay, weight);
+                    Float weightGoal = userRepository.getWeightGoal();
+                    String phoneNumber = weightGoal != null && weight < weightGoal ? userRepository.getPhoneNumber() : null;
+                    return new SavedWeight(weightId, weightGoal, phoneNumber);
+                }, saved -> {
+                    if (saved.weightId == -1) {
+                        return;
+                    }
                     MainActivity mainActivity = (MainActivity) getActivity();
-                    if (mainActivity != null && phoneNumber != null && !phoneNumber.isEmpty()) {
-                        mainActivity.sendSMSNotification(phoneNumber, message);
+                    if (mainActivity != null && saved.phoneNumber != null && !saved.phoneNumber.isEmpty()) {
+                        mainActivity.sendSMSNotification(saved.phoneNumber, getString(R.string.goal_reached_sms_message));
                     }
-                }
 
-                // Reload data with the current sort option
-                loadWeightData(sortSpinner.getSelectedItemPosition());
+                    // Show the entry in place instead of reloading the grid, unless it is shown a window at a time
+                    dataVersion++;
+                    if (windowAdapter != null) {
+                        reloadWeightIds(sortSpinner.getSelectedItemPosition());
+                        loadWeeklyChart(true);
+                        return;
+                    }
+                    weightAdapter.insertEntry(saved.weightId, epochDay, weight, sortSpinner.getSelectedItemPosition(),
+                            saved.weightGoal, currentFilter);
+                    // Replacing an entry removes it from the index first, which gives the index a new series
+                    if (orderIndex != null) {
+                        chartView.setSeries(orderIndex.getSeries(), true);
+                    }
+                });
                 dialog.dismiss();
             } else {
                 Toast.makeText(getContext(), getString(R.string.user_not_found), Toast.LENGTH_SHORT).show();
@@ -219,14 +365,258 @@ public class ProgressFragment extends Fragment {
     }
 
     /**
-     * Deletes all weight entries that have been selected by the user in the adapter.
+     * Makes a date field open a DatePickerDialog when tapped instead of accepting typed text.
+     * The picked date is kept on the field's tag as an Integer epoch day and shown in its formatted form.
+     * @param dateField The EditText to attach the picker to.
+     */
+    private void attachDatePicker(EditText dateField) {
+        dateField.setFocusable(false);
+        dateField.setOnClickListener(v -> {
+            final Calendar c = Calendar.getInstance();
+            DatePickerDialog datePickerDialog = new DatePickerDialog(getContext(),
+                    (view, selectedYear, selectedMonth, selectedDay) -> {
+                        // Keep the picked date as an epoch day and only show its formatted form
+                        int epochDay = DateUtils.toEpochDay(selectedYear, selectedMonth + 1, selectedDay);
+                        dateField.setTag(epochDay);
+                        dateField.setText(DateUtils.formatEpochDay(epochDay));
+                    }, c.get(Calendar.YEAR), c.get(Calendar.MONTH), c.get(Calendar.DAY_OF_MONTH));
+            datePickerDialog.show();
+        });
+    }
+
+    /**
+     * Displays a dialog for the user to restrict the grid to a date range and/or weight band.
+     * The chosen filter is applied by the database, so only the matching slice of history is loaded.
+     */
+    private void showFilterDialog() {
+        AlertDialog.Builder builder = new AlertDialog.Builder(getContext());
+        View dialogView = LayoutInflater.from(getContext()).inflate(R.layout.filter_weights, null);
+        builder.setView(dialogView);
+
+        final Spinner rangeSpinner = dialogView.findViewById(R.id.filter_range_spinner);
+        final EditText fromDate = dialogView.findViewById(R.id.filter_from_date);
+        final EditText toDate = dialogView.findViewById(R.id.filter_to_date);
+        final EditText minWeight = dialogView.findViewById(R.id.filter_min_weight);
+        final EditText maxWeight = dialogView.findViewById(R.id.filter_max_weight);
+        Button applyButton = dialogView.findViewById(R.id.filter_apply_button);
+        Button clearButton = dialogView.findViewById(R.id.filter_clear_button);
+
+        ArrayAdapter<CharSequence> rangeAdapter = ArrayAdapter.createFromResource(getContext(),
+                R.array.filter_range_options, android.R.layout.simple_spinner_item);
+        rangeAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        rangeSpinner.setAdapter(rangeAdapter);
+        rangeSpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                // Custom dates can only be picked when the custom range is selected
+                boolean custom = position == FILTER_RANGE_CUSTOM;
+                fromDate.setEnabled(custom);
+                toDate.setEnabled(custom);
+            }
+
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {
+                // Do nothing
+            }
+        });
+        attachDatePicker(fromDate);
+        attachDatePicker(toDate);
+
+        // Pre-fill the dialog with the filter currently in effect
+        rangeSpinner.setSelection(filterRangePosition);
+        if (currentFilter != null) {
+            if (filterRangePosition == FILTER_RANGE_CUSTOM) {
+                prefillDate(fromDate, currentFilter.getFromEpochDay());
+                prefillDate(toDate, currentFilter.getToEpochDay());
+            }
+            if (currentFilter.getMinWeight() != null) {
+                minWeight.setText(String.valueOf(currentFilter.getMinWeight()));
+            }
+            if (currentFilter.getMaxWeight() != null) {
+                maxWeight.setText(String.valueOf(currentFilter.getMaxWeight()));
+            }
+        }
+
+        AlertDialog dialog = builder.create();
+
+        clearButton.setOnClickListener(v -> {
+            applyFilter(null, 0);
+            dialog.dismiss();
+        });
+
+        applyButton.setOnClickListener(v -> {
+            int rangePosition = rangeSpinner.getSelectedItemPosition();
+            Integer fromDay = null;
+            Integer toDay = null;
+            if (rangePosition == FILTER_RANGE_CUSTOM) {
+                fromDay = (Integer) fromDate.getTag();
+                toDay = (Integer) toDate.getTag();
+                if (fromDay != null && toDay != null && fromDay > toDay) {
+                    Toast.makeText(getContext(), getString(R.string.error_date_range_order), Toast.LENGTH_SHORT).show();
+                    return;
+                }
+            } else if (FILTER_RANGE_DAYS[rangePosition] > 0) {
+                WeightFilter range = WeightFilter.lastDays(FILTER_RANGE_DAYS[rangePosition]);
+                fromDay = range.getFromEpochDay();
+                toDay = range.getToEpochDay();
+            }
+
+            Float min;
+            Float max;
+            try {
+                min = parseOptionalWeight(minWeight);
+                max = parseOptionalWeight(maxWeight);
+            } catch (NumberFormatException e) {
+                return; // The offending field already shows the error
+            }
+            if (min != null && max != null && min > max) {
+                maxWeight.setError(getString(R.string.error_weight_band_order));
+                return;
+            }
+
+            WeightFilter filter = new WeightFilter(fromDay, toDay, min, max);
+            applyFilter(filter.isEmpty() ? null : filter, rangePosition);
+            dialog.dismiss();
+        });
+
+        dialog.show();
+    }
+
+    /**
+     * Shows a stored epoch day in a date field that uses a DatePickerDialog.
+     * @param dateField The field to fill.
+     * @param epochDay The date to show, or null to leave the field empty.
+     */
+    private void prefillDate(EditText dateField, Integer epochDay) {
+        if (epochDay != null) {
+            dateField.setTag(epochDay);
+            dateField.setText(DateUtils.formatEpochDay(epochDay));
+        }
+    }
+
+    /**
+     * Parses an optional weight bound from a text field, flagging the field if the text is invalid.
+     * @param field The field to read.
+     * @return The positive weight entered, or null if the field is empty.
+     * @throws NumberFormatException If the field holds something other than a positive number.
+     */
+    private Float parseOptionalWeight(EditText field) {
+        String text = field.getText().toString().trim();
+        if (text.isEmpty()) {
+            return null;
+        }
+        try {
+            float value = Float.parseFloat(text);
+            if (value <= 0) {
+                field.setError(getString(R.string.error_goal_positive));
+                throw new NumberFormatException(text);
+            }
+            return value;
+        } catch (NumberFormatException e) {
+            if (field.getError() == null) {
+                field.setError(getString(R.string.error_valid_number));
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Makes a filter the current one and reloads the grid with it.
+     * @param filter The filter to apply, or null to show all entries.
+     * @param rangePosition The range spinner position the filter was built from.
+     */
+    private void applyFilter(WeightFilter filter, int rangePosition) {
+        currentFilter = filter;
+        filterRangePosition = rangePosition;
+        orderIndex = null;
+        dataVersion++;
+        chartView.setSeries(null, false);
+        filterButton.setText(filter == null ? R.string.filter : R.string.filter_active);
+        loadWeightData(sortSpinner.getSelectedItemPosition());
+    }
+
+    /**
+     * Selects every entry that matches the current filter, including those not paged in yet, or inverts
+     * the selection within them. The matching IDs are read from the database in the background.
+     * @param invert true to invert the selection, false to select everything.
+     */
+    private void selectAllWeights(boolean invert) {
+        int userId = userRepository.getUserId();
+        if (userId == -1) {
+            return;
+        }
+        WeightFilter filter = currentFilter;
+        dbExecutor.read(getViewLifecycleOwner(), db -> db.getWeightIds(userId, filter), ids -> {
+            if (invert) {
+                getSelection().invert(ids);
+            } else {
+                getSelection().selectAll(ids);
+            }
+            if (windowAdapter != null) {
+                windowAdapter.notifySelectionChanged();
+            } else {
+                weightAdapter.notifySelectionChanged();
+            }
+        });
+    }
+
+    /**
+     * Deletes all weight entries that have been selected by the user in the adapter,
+     * however many there are, in a single background transaction, then removes them from the grid in place.
      */
     private void deleteSelectedWeights() {
-        List<Integer> selectedIds = weightAdapter.getSelectedItemIds();
-        if (!selectedIds.isEmpty()) {
-            databaseHelper.deleteSelectedWeightsById(selectedIds);
-            // Reload data with the current sort option
-            loadWeightData(sortSpinner.getSelectedItemPosition());
+        int[] selectedIds = getSelection().toArray();
+        if (selectedIds.length > 0) {
+            dbExecutor.write(getViewLifecycleOwner(), db -> userRepository.deleteWeights(selectedIds), deleted -> {
+                dataVersion++;
+                clearSelection();
+                if (windowAdapter != null) {
+                    reloadWeightIds(sortSpinner.getSelectedItemPosition());
+                    loadWeeklyChart(true);
+                } else {
+                    weightAdapter.removeEntries(selectedIds);
+                    if (orderIndex != null) {
+                        chartView.setSeries(orderIndex.getSeries(), true);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * A whole history loaded in the background, either held in memory or, when too long, as the IDs of its
+     * entries in display order, with the weight goal its distance order was built for.
+     */
+    private static final class LoadedHistory {
+        // The history in memory, or null if only its IDs were read
+        final WeightOrderIndex index;
+        // The history's weight IDs in the current sort order, or null if it is held in the index
+        final int[] weightIds;
+        // The user's weight goal at the time of the load, or null if none is set
+        final Float weightGoal;
+
+        LoadedHistory(WeightOrderIndex index, int[] weightIds, Float weightGoal) {
+            this.index = index;
+            this.weightIds = weightIds;
+            this.weightGoal = weightGoal;
+        }
+    }
+
+    /**
+     * The outcome of saving a weight entry, handed from the background write back to the main thread.
+     */
+    private static final class SavedWeight {
+        // The ID of the stored entry, or -1 if it was rejected
+        final int weightId;
+        // The user's weight goal at the time of the save, or null if none is set
+        final Float weightGoal;
+        // The number to send a goal-reached SMS to, or null if no SMS is due
+        final String phoneNumber;
+
+        SavedWeight(int weightId, Float weightGoal, String phoneNumber) {
+            this.weightId = weightId;
+            this.weightGoal = weightGoal;
+            this.phoneNumber = phoneNumber;
         }
     }
 }
@@ -3,21 +3,22 @@ package com.test.weighttrackingapplicationmatthewbates;
 /**
  * A simple data class (POJO) that represents a single weight entry.
  * This object holds the unique ID, date, and weight value for one record.
+ * The date is kept as a primitive epoch day and only formatted (see DateUtils) when displayed.
  */
 public class ProgressItem {
     private final int weightId;
-    private final String date;
+    private final int epochDay;
     private final float weight;
 
     /**
      * Constructor for creating a new ProgressItem.
      * @param weightId The unique ID of the weight entry from the database.
-     * @param date The date of the weight entry.
+     * @param epochDay The date of the weight entry, as days since 1970-01-01.
      * @param weight The weight value.
      */
-    public ProgressItem(int weightId, String date, float weight) {
+    public ProgressItem(int weightId, int epochDay, float weight) {
         this.weightId = weightId;
-        this.date = date;
+        this.epochDay = epochDay;
         this.weight = weight;
     }
 
@@ -31,10 +32,10 @@ public class ProgressItem {
 
     /**
      * Gets the date of the weight entry.
-     * @return The date as a String.
+     * @return The date as days since 1970-01-01.
      */
-    public String getDate() {
-        return date;
+    public int getEpochDay() {
+        return epochDay;
     }
 
     /**
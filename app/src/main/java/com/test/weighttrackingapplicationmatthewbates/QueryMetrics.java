@@ -0,0 +1,196 @@
+package com.test.weighttrackingapplicationmatthewbates;
+
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Collects call counts, row counts and latency histograms for each DatabaseHelper operation.
+ * Recording a call costs a clock read and a few additions under a lock, so it is always on. A call that
+ * takes longer than the slow-query threshold is also written to the log together with its SQL and the
+ * output of EXPLAIN QUERY PLAN, and the most recent ones are kept for {@link #dump()}.
+ * The plan is only computed for slow calls, after the call has completed, so it never adds to their time.
+ */
+public final class QueryMetrics {
+
+    private static final String TAG = "QueryMetrics";
+
+    // Calls slower than this are logged with their query plan, unless the threshold is changed
+    public static final long DEFAULT_SLOW_QUERY_MILLIS = 50;
+
+    // Upper bounds of the latency histogram buckets, in milliseconds; a last bucket holds slower calls
+    private static final long[] BUCKET_BOUNDS_MILLIS = {1, 2, 4, 8, 16, 32, 64, 128, 256, 512, 1024};
+
+    // Number of slow calls kept for the dump; older ones are only in the log
+    private static final int MAX_SLOW_QUERIES = 20;
+
+    private static final long NANOS_PER_MILLI = 1000000;
+
+    private final Map<String, OperationStats> stats = new TreeMap<>();
+    private final ArrayDeque<String> slowQueries = new ArrayDeque<>();
+    private volatile long slowQueryThresholdNanos = DEFAULT_SLOW_QUERY_MILLIS * NANOS_PER_MILLI;
+
+    /**
+     * The totals for one operation.
+     */
+    private static final class OperationStats {
+        long calls;
+        long rows;
+        long totalNanos;
+        long maxNanos;
+        final long[] buckets = new long[BUCKET_BOUNDS_MILLIS.length + 1];
+    }
+
+    /**
+     * Gets how long a call may take before it is logged as a slow query.
+     * @return The threshold in milliseconds.
+     */
+    public long getSlowQueryThresholdMillis() {
+        return slowQueryThresholdNanos / NANOS_PER_MILLI;
+    }
+
+    /**
+     * Sets how long a call may take before it is logged as a slow query, e.g. from the debug menu.
+     * @param millis The threshold in milliseconds.
+     */
+    public void setSlowQueryThresholdMillis(long millis) {
+        slowQueryThresholdNanos = millis * NANOS_PER_MILLI;
+    }
+
+    /**
+     * Records a completed call, and logs it with its query plan if it was slow.
+     * @param db The database the call ran against, used to explain a slow query.
+     * @param operation The name of the DatabaseHelper method.
+     * @param startNanos The System.nanoTime() at which the call started.
+     * @param rows The number of rows the call read or changed.
+     * @param sql The SQL of the call's main statement.
+     * @param args The arguments bound to the statement, or null if they aren't kept; unbound parameters
+     *             are explained as NULL.
+     */
+    public void record(SQLiteDatabase db, String operation, long startNanos, int rows, String sql, String[] args) {
+        long elapsedNanos = System.nanoTime() - startNanos;
+        long elapsedMillis = elapsedNanos / NANOS_PER_MILLI;
+        int bucket = 0;
+        while (bucket < BUCKET_BOUNDS_MILLIS.length && elapsedMillis >= BUCKET_BOUNDS_MILLIS[bucket]) {
+            bucket++;
+        }
+
+        synchronized (stats) {
+            OperationStats operationStats = stats.get(operation);
+            if (operationStats == null) {
+                operationStats = new OperationStats();
+                stats.put(operation, operationStats);
+            }
+            operationStats.calls++;
+            operationStats.rows += rows;
+            operationStats.totalNanos += elapsedNanos;
+            operationStats.maxNanos = Math.max(operationStats.maxNanos, elapsedNanos);
+            operationStats.buckets[bucket]++;
+        }
+
+        if (elapsedNanos >= slowQueryThresholdNanos) {
+            String entry = String.format(Locale.US, "%s took %d ms for %d rows\n  %s\n%s",
+                    operation, elapsedMillis, rows, sql, explain(db, sql, args));
+            Log.w(TAG, "Slow query: " + entry);
+            synchronized (slowQueries) {
+                if (slowQueries.size() == MAX_SLOW_QUERIES) {
+                    slowQueries.removeFirst();
+                }
+                slowQueries.addLast(entry);
+            }
+        }
+    }
+
+    /**
+     * Runs EXPLAIN QUERY PLAN for a statement.
+     * @return The plan's steps, one indented line each, or a note if it couldn't be explained.
+     */
+    private static String explain(SQLiteDatabase db, String sql, String[] args) {
+        StringBuilder plan = new StringBuilder();
+        try (Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, args)) {
+            int detailColumn = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.append("  PLAN ").append(cursor.getString(detailColumn)).append('\n');
+            }
+        } catch (SQLException | IllegalArgumentException e) {
+            plan.append("  PLAN unavailable: ").append(e.getMessage()).append('\n');
+        }
+        return plan.toString();
+    }
+
+    /**
+     * Formats the totals of every operation and the most recent slow queries, e.g. to log or display.
+     * @return A human-readable report.
+     */
+    public String dump() {
+        StringBuilder report = new StringBuilder();
+        synchronized (stats) {
+            for (Map.Entry<String, OperationStats> entry : stats.entrySet()) {
+                OperationStats operationStats = entry.getValue();
+                report.append(String.format(Locale.US, "%s: %d calls, %d rows, avg %.2f ms, max %.2f ms, p50 %s, p95 %s\n",
+                        entry.getKey(), operationStats.calls, operationStats.rows,
+                        operationStats.totalNanos / (double) operationStats.calls / NANOS_PER_MILLI,
+                        operationStats.maxNanos / (double) NANOS_PER_MILLI,
+                        percentile(operationStats, 0.50), percentile(operationStats, 0.95)));
+                report.append("  ");
+                for (int i = 0; i < operationStats.buckets.length; i++) {
+                    if (operationStats.buckets[i] > 0) {
+                        report.append(bucketLabel(i)).append(':').append(operationStats.buckets[i]).append(' ');
+                    }
+                }
+                report.append('\n');
+            }
+        }
+        synchronized (slowQueries) {
+            report.append("Slow queries (threshold ")
+                    .append(slowQueryThresholdNanos / NANOS_PER_MILLI).append(" ms): ").append(slowQueries.size()).append('\n');
+            for (String slowQuery : slowQueries) {
+                report.append(slowQuery);
+            }
+        }
+        return report.toString();
+    }
+
+    /**
+     * Forgets all recorded calls and slow queries.
+     */
+    public void reset() {
+        synchronized (stats) {
+            stats.clear();
+        }
+        synchronized (slowQueries) {
+            slowQueries.clear();
+        }
+    }
+
+    /**
+     * Finds the histogram bucket a percentile of an operation's calls falls in.
+     * @return The bucket's label, e.g. "<16ms".
+     */
+    private static String percentile(OperationStats operationStats, double fraction) {
+        long target = (long) Math.ceil(operationStats.calls * fraction);
+        long seen = 0;
+        for (int i = 0; i < operationStats.buckets.length; i++) {
+            seen += operationStats.buckets[i];
+            if (seen >= target) {
+                return bucketLabel(i);
+            }
+        }
+        return bucketLabel(operationStats.buckets.length - 1);
+    }
+
+    /**
+     * Labels a histogram bucket by its upper bound, or the last one by its lower bound.
+     */
+    private static String bucketLabel(int bucket) {
+        return bucket < BUCKET_BOUNDS_MILLIS.length
+                ? "<" + BUCKET_BOUNDS_MILLIS[bucket] + "ms"
+                : ">=" + BUCKET_BOUNDS_MILLIS[BUCKET_BOUNDS_MILLIS.length - 1] + "ms";
+    }
+}
@@ -1,7 +1,7 @@
 package com.test.weighttrackingapplicationmatthewbates;
 
 /**
- * A utility class to hold constants related to sorting options.
+ * A utility class to hold constants related to sorting options, and to compare entries in those orders.
  */
 public final class SortUtils {
 
@@ -15,4 +15,41 @@ public final class SortUtils {
     public static final int WEIGHT_LOWEST = 3;
     public static final int DISTANCE_FROM_GOAL = 4;
 
+    /**
+     * Compares two weight entries in the order the database returns them for a sort option, so an entry
+     * can be placed among already loaded ones without a re-query. Dates are unique per user and break all
+     * ties. Distances are computed in double precision from the stored floats, exactly as SQLite does.
+     * @param sortOption One of the sort option constants.
+     * @param weightGoal The user's weight goal for DISTANCE_FROM_GOAL, or null if none is set.
+     * @param epochDayA The date of the first entry.
+     * @param weightA The weight of the first entry.
+     * @param epochDayB The date of the second entry.
+     * @param weightB The weight of the second entry.
+     * @return A negative number, zero or a positive number as the first entry comes before, at or after the second.
+     */
+    public static int compare(int sortOption, Float weightGoal,
+                              int epochDayA, float weightA, int epochDayB, float weightB) {
+        switch (sortOption) {
+            case WEIGHT_HIGHEST: {
+                int byWeight = Float.compare(weightB, weightA);
+                return byWeight != 0 ? byWeight : Integer.compare(epochDayB, epochDayA);
+            }
+            case WEIGHT_LOWEST: {
+                int byWeight = Float.compare(weightA, weightB);
+                return byWeight != 0 ? byWeight : Integer.compare(epochDayA, epochDayB);
+            }
+            case DISTANCE_FROM_GOAL: {
+                // Without a goal every distance is 0, leaving newest first
+                double distanceA = weightGoal == null ? 0 : Math.abs((double) weightA - weightGoal);
+                double distanceB = weightGoal == null ? 0 : Math.abs((double) weightB - weightGoal);
+                int byDistance = Double.compare(distanceA, distanceB);
+                return byDistance != 0 ? byDistance : Integer.compare(epochDayB, epochDayA);
+            }
+            case DATE_OLDEST:
+                return Integer.compare(epochDayA, epochDayB);
+            case DATE_NEWEST:
+            default:
+                return Integer.compare(epochDayB, epochDayA);
+        }
+    }
 }
@@ -0,0 +1,358 @@
+package com.test.weighttrackingapplicationmatthewbates;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Holds the logged-in user's session and profile in memory so screens don't re-read them on every visit.
+ * The user ID is read from SharedPreferences once, and the weight goal, phone number, most recent
+ * weight and weight statistics are each queried at most once per login and again only after a change.
+ * Updates are written through to the DatabaseHelper before the cached value changes, so the cache never
+ * holds anything the database doesn't.
+ * The repository's lock guards only the cached fields and is never held during a query, so a long delete or
+ * import doesn't hold up other readers, and {@link #getUserId()} doesn't take it at all. A value queried
+ * while the session or cache changed is returned but not cached. Profile methods may block on the database
+ * and should be called through the {@link DatabaseExecutor}, whose single writer thread keeps updates in order.
+ */
+public final class UserRepository {
+
+    // The process-wide shared instance, created lazily by getInstance()
+    private static UserRepository instance;
+
+    private final SharedPreferences sharedPreferences;
+    private final DatabaseHelper databaseHelper;
+
+    // Read without the lock, so the main thread never waits behind a query to learn who is logged in
+    private volatile int userId;
+    // Bumped on every change to the session or the cache, so a value queried while one happened isn't cached
+    private int cacheVersion;
+
+    private boolean weightGoalLoaded;
+    private Float weightGoal;
+
+    private boolean phoneNumberLoaded;
+    private String phoneNumber;
+
+    // The weight and date of the newest entry; latestWeight is null when the user has no entries
+    private boolean latestLoaded;
+    private Float latestWeight;
+    private int latestEpochDay;
+
+    // The running statistics; weightStats is null when the user has no entries
+    private boolean weightStatsLoaded;
+    private WeightStats weightStats;
+
+    /**
+     * Returns the process-wide UserRepository, creating it on first use.
+     * @param context Any context; only its application context is retained.
+     * @return The shared UserRepository instance.
+     */
+    public static synchronized UserRepository getInstance(Context context) {
+        if (instance == null) {
+            Context appContext = context.getApplicationContext();
+            instance = new UserRepository(
+                    appContext.getSharedPreferences(AppConstants.PREFS_NAME, Context.MODE_PRIVATE),
+                    DatabaseHelper.getInstance(appContext));
+        }
+        return instance;
+    }
+
+    /**
+     * Constructor for the UserRepository. Use {@link #getInstance(Context)} instead.
+     * @param sharedPreferences The preferences the session's user ID is stored in.
+     * @param databaseHelper The DatabaseHelper the profile is read from and written to.
+     */
+    private UserRepository(SharedPreferences sharedPreferences, DatabaseHelper databaseHelper) {
+        this.sharedPreferences = sharedPreferences;
+        this.databaseHelper = databaseHelper;
+        this.userId = sharedPreferences.getInt(AppConstants.KEY_USER_ID, -1);
+    }
+
+    /**
+     * Returns the ID of the logged-in user. Safe to call from the main thread, as it never waits for the
+     * database.
+     * @return The user ID, or -1 if no user is logged in.
+     */
+    public int getUserId() {
+        return userId;
+    }
+
+    /**
+     * Starts a session for the given user, saving the ID for later launches.
+     * The cached profile is discarded if it belonged to a different user.
+     * @param userId The ID of the user who logged in.
+     */
+    public synchronized void setUserId(int userId) {
+        if (userId != this.userId) {
+            this.userId = userId;
+            clearProfile();
+        }
+        sharedPreferences.edit().putInt(AppConstants.KEY_USER_ID, userId).apply();
+    }
+
+    /**
+     * Returns the logged-in user's weight goal, querying the database only the first time.
+     * @return The weight goal, or null if no goal is set or no user is logged in.
+     */
+    public Float getWeightGoal() {
+        int loadUserId;
+        int version;
+        synchronized (this) {
+            if (weightGoalLoaded || userId == -1) {
+                return weightGoal;
+            }
+            loadUserId = userId;
+            version = cacheVersion;
+        }
+        Float goal = databaseHelper.getWeightGoal(loadUserId);
+        synchronized (this) {
+            if (version == cacheVersion) {
+                weightGoal = goal;
+                weightGoalLoaded = true;
+            }
+        }
+        return goal;
+    }
+
+    /**
+     * Updates the logged-in user's weight goal in the database and, on success, in the cache.
+     * @param newGoal The new weight goal.
+     * @return true if the update was successful, false otherwise.
+     */
+    public boolean updateWeightGoal(float newGoal) {
+        int updateUserId = userId;
+        if (updateUserId == -1 || !databaseHelper.updateWeightGoal(updateUserId, newGoal)) {
+            return false;
+        }
+        synchronized (this) {
+            cacheVersion++;
+            if (updateUserId == userId) {
+                weightGoal = newGoal;
+                weightGoalLoaded = true;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the logged-in user's phone number, querying the database only the first time.
+     * @return The phone number, or null if none is set or no user is logged in.
+     */
+    public String getPhoneNumber() {
+        int loadUserId;
+        int version;
+        synchronized (this) {
+            if (phoneNumberLoaded || userId == -1) {
+                return phoneNumber;
+            }
+            loadUserId = userId;
+            version = cacheVersion;
+        }
+        String number = databaseHelper.getUserPhoneNumber(loadUserId);
+        synchronized (this) {
+            if (version == cacheVersion) {
+                phoneNumber = number;
+                phoneNumberLoaded = true;
+            }
+        }
+        return number;
+    }
+
+    /**
+     * Updates the logged-in user's phone number in the database and, on success, in the cache.
+     * @param newPhoneNumber The new phone number.
+     * @return true if the update was successful, false otherwise.
+     */
+    public boolean updatePhoneNumber(String newPhoneNumber) {
+        int updateUserId = userId;
+        if (updateUserId == -1 || !databaseHelper.updatePhoneNumber(updateUserId, newPhoneNumber)) {
+            return false;
+        }
+        synchronized (this) {
+            cacheVersion++;
+            if (updateUserId == userId) {
+                phoneNumber = newPhoneNumber;
+                phoneNumberLoaded = true;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the weight of the logged-in user's newest entry, querying the database only the first time.
+     * @return The most recent weight, or null if there are no entries or no user is logged in.
+     */
+    public Float getMostRecentWeight() {
+        int loadUserId;
+        int version;
+        synchronized (this) {
+            if (latestLoaded || userId == -1) {
+                return latestWeight;
+            }
+            loadUserId = userId;
+            version = cacheVersion;
+        }
+        WeightSeries newest = databaseHelper.getAllWeightEntries(loadUserId, SortUtils.DATE_NEWEST, null, 1);
+        Float weight = newest.isEmpty() ? null : newest.getWeight(0);
+        synchronized (this) {
+            if (version == cacheVersion) {
+                latestWeight = weight;
+                latestEpochDay = newest.isEmpty() ? 0 : newest.getEpochDay(0);
+                latestLoaded = true;
+            }
+        }
+        return weight;
+    }
+
+    /**
+     * Adds a weight entry for the logged-in user, keeping the cached most recent weight up to date.
+     * @param epochDay The date of the entry, as days since 1970-01-01.
+     * @param weight The weight recorded.
+     * @return The ID of the stored entry, or -1 if it was rejected.
+     */
+    public int addWeight(int epochDay, float weight) {
+        int addUserId = userId;
+        int weightId = addUserId == -1 ? -1 : databaseHelper.addWeight(epochDay, weight, addUserId);
+        if (weightId == -1) {
+            return -1;
+        }
+        synchronized (this) {
+            cacheVersion++;
+            // An entry on the newest date replaces that date's weight, so ties take the new weight too
+            if (addUserId == userId && latestLoaded && (latestWeight == null || epochDay >= latestEpochDay)) {
+                latestWeight = weight;
+                latestEpochDay = epochDay;
+            }
+            weightStatsLoaded = false;
+            weightStats = null;
+        }
+        return weightId;
+    }
+
+    /**
+     * Returns the logged-in user's running weight statistics, querying the database only the first time
+     * after each change to their entries.
+     * @return The statistics, or null if there are no entries or no user is logged in.
+     */
+    public WeightStats getWeightStats() {
+        int loadUserId;
+        int version;
+        synchronized (this) {
+            if (weightStatsLoaded || userId == -1) {
+                return weightStats;
+            }
+            loadUserId = userId;
+            version = cacheVersion;
+        }
+        WeightStats stats = databaseHelper.getWeightStats(loadUserId);
+        synchronized (this) {
+            if (version == cacheVersion) {
+                weightStats = stats;
+                weightStatsLoaded = true;
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Deletes weight entries by their IDs. The cached most recent weight and statistics are re-queried
+     * on next use, since the newest entry may have been among them.
+     * @param ids The IDs of the entries to delete.
+     * @return The number of entries deleted.
+     */
+    public int deleteWeights(int[] ids) {
+        int deleted = databaseHelper.deleteWeightsById(ids);
+        if (deleted > 0) {
+            forgetEntries();
+        }
+        return deleted;
+    }
+
+    /**
+     * Imports weight entries for the logged-in user from a CSV stream as one bulk upsert, so the rollups
+     * are brought up to date once for the whole file rather than once per batch. The database is written
+     * without holding this repository's lock, so screens reading the cache aren't blocked by a long import;
+     * afterwards the cached most recent weight and statistics are re-queried on next use.
+     * @param importer The importer to parse the stream with, which can be cancelled from another thread.
+     * @param in The stream to read; it is not closed.
+     * @param listener Receives progress reports, or null.
+     * @return The number of entries written and the lines that were skipped; every entry is rejected if
+     *         no user is logged in.
+     * @throws IOException If reading the stream fails; the batches written before that are kept.
+     */
+    public WeightImportResult importWeights(WeightImporter importer, InputStream in,
+                                            WeightImporter.ProgressListener listener) throws IOException {
+        int importUserId = getUserId();
+        if (importUserId == -1) {
+            return importer.importCsv(in, (epochDays, weights, count) -> new WeightBatchResult(0, 0, count), listener);
+        }
+        databaseHelper.beginBulkUpsert(importUserId);
+        try {
+            return importer.importCsv(in, (epochDays, weights, count) ->
+                    databaseHelper.upsertWeights(importUserId, epochDays, weights, count), listener);
+        } finally {
+            databaseHelper.endBulkUpsert();
+            forgetEntries();
+        }
+    }
+
+    /**
+     * Replaces every user and weight entry with those of a backup. The cached profile is forgotten
+     * afterwards so it is re-queried on next use. A backup keeps the user IDs of the device it was made on,
+     * so the session ends unless the logged-in user's ID still belongs to the same username.
+     * @param in The stream to read the backup from; it is not closed.
+     * @return The number of weight entries restored.
+     * @throws IOException If reading fails or the backup is damaged; nothing is changed then.
+     */
+    public int restoreBackup(InputStream in) throws IOException {
+        int sessionUserId = userId;
+        String sessionUsername = sessionUserId == -1 ? null : databaseHelper.getUsername(sessionUserId);
+        int restored = databaseHelper.restoreBackup(in);
+        boolean userRestored = sessionUserId == -1 ||
+                (sessionUsername != null && sessionUsername.equals(databaseHelper.getUsername(sessionUserId)));
+        forgetProfile(sessionUserId, userRestored);
+        return restored;
+    }
+
+    /**
+     * Forgets the cached profile after a restore, ending the session of a user who is no longer in the
+     * database under the same username. A user who logged in since the check is left alone.
+     * @param checkedUserId The user ID that was checked.
+     * @param userRestored Whether that user is in the restored database.
+     */
+    private synchronized void forgetProfile(int checkedUserId, boolean userRestored) {
+        clearProfile();
+        if (!userRestored && userId == checkedUserId) {
+            setUserId(-1);
+        }
+    }
+
+    /**
+     * Forgets the cached most recent weight and statistics after entries were written, so both are
+     * re-queried on next use.
+     */
+    private synchronized void forgetEntries() {
+        cacheVersion++;
+        latestLoaded = false;
+        latestWeight = null;
+        weightStatsLoaded = false;
+        weightStats = null;
+    }
+
+    /**
+     * Forgets all cached profile values, so each is re-queried on next use.
+     */
+    private void clearProfile() {
+        cacheVersion++;
+        weightGoalLoaded = false;
+        weightGoal = null;
+        phoneNumberLoaded = false;
+        phoneNumber = null;
+        latestLoaded = false;
+        latestWeight = null;
+        weightStatsLoaded = false;
+        weightStats = null;
+    }
+}
@@ -1,32 +1,442 @@
 package com.test.weighttrackingapplicationmatthewbates;
 
+import android.os.Handler;
+import android.os.Looper;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.CheckBox;
 import android.widget.TextView;
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.GridLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 /**
- * An adapter to bridge the List of ProgressItem data with the RecyclerView in the ProgressFragment.
- * It manages the creation and binding of views for each weight entry and handles user selections.
+ * An adapter to bridge the WeightSeries of weight entries with the RecyclerView in the ProgressFragment.
+ * It manages the creation and binding of views for each weight entry and handles user selections:
+ * tapping a checkbox toggles one entry, and long-pressing an entry selects everything from the last
+ * toggled entry up to it.
+ * When a {@link PageLoader} is set, entries are loaded one page at a time as the grid is scrolled.
+ * Pages may arrive asynchronously; a page requested before the loader was replaced is discarded.
+ * When the loader is replaced (a new sort, filter, or an added or deleted entry), the new entries are
+ * diffed against the old ones by weight ID on a background thread, so only the entries that actually
+ * changed are inserted, removed, moved or rebound, and the grid keeps its scroll position.
+ * Once the whole history is available as a {@link WeightOrderIndex}, the adapter shows it through the
+ * index instead, and switching the sort order only re-points the adapter at another permutation.
  */
 public class WeightAdapter extends RecyclerView.Adapter<WeightAdapter.WeightViewHolder> {
-    private final List<ProgressItem> weightList;
-    private final HashSet<Integer> selectedItemIds;
+
+    // Number of entries requested per page; comfortably more than one screen of the grid
+    private static final int PAGE_SIZE = 60;
+    // Load the next page once the last visible item is within this many items of the end
+    private static final int PREFETCH_DISTANCE = 20;
+    // When the loader is replaced, reload as many entries as were loaded, up to this many, so the
+    // scroll position survives while the diff stays cheap
+    private static final int MAX_RELOAD_SIZE = 1000;
+
+    // Diffs are computed one at a time off the main thread; a newer one makes any older result stale
+    private static final Executor DIFF_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Replaced, never cleared, when the loader changes, so a background diff can safely read the old entries;
+    // no page is appended while a diff is running, since paging waits for the reload to be applied, and an
+    // entry added or removed meanwhile goes into a copy (see detachFromDiff())
+    private WeightSeries weightSeries;
+    // Background diffs whose results haven't been delivered yet; any of them may still be reading weightSeries
+    private int runningDiffs;
+    // Whether the current loader's reload is waiting for its diff, which an entry change would invalidate
+    private boolean reloadDiffing;
+    private final WeightSelection selection;
+    private final RecyclerView.OnScrollListener pagingScrollListener;
+    private PageLoader pageLoader;
+    private boolean endReached;
+    private boolean pageRequested;
+    // Incremented whenever the loader is replaced, so pages from an earlier loader can be recognised
+    private int loaderGeneration;
+    // Position of the entry last toggled by its checkbox, where a long-press range selection starts
+    private int selectionAnchor = RecyclerView.NO_POSITION;
+    // The whole history and the order it is shown in, or null while entries are paged into weightSeries
+    private WeightOrderIndex orderIndex;
+    private int sortOption;
+    private Float weightGoal;
+
+    /**
+     * Supplies pages of weight entries to the adapter on demand.
+     */
+    public interface PageLoader {
+        /**
+         * Starts loading the page of entries that follows the given entry in the current sort order.
+         * @param lastItem The last entry already loaded, or null for the first page.
+         * @param pageSize The maximum number of entries to return.
+         * @param callback Receives the page on the main thread; a page shorter than pageSize marks the end of the data.
+         */
+        void loadPage(ProgressItem lastItem, int pageSize, PageCallback callback);
+    }
+
+    /**
+     * Receives a page of weight entries from a {@link PageLoader}.
+     */
+    public interface PageCallback {
+        /**
+         * Called on the main thread with the loaded page.
+         * @param page The entries that were loaded.
+         */
+        void onPageLoaded(WeightSeries page);
+    }
+
+    /**
+     * Constructor for the WeightAdapter. The adapter starts empty; entries come from a {@link PageLoader}.
+     */
+    public WeightAdapter() {
+        this.weightSeries = new WeightSeries();
+        this.selection = new WeightSelection();
+        this.pagingScrollListener = new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                GridLayoutManager layoutManager = (GridLayoutManager) recyclerView.getLayoutManager();
+                if (layoutManager != null && !pageRequested
+                        && layoutManager.findLastVisibleItemPosition() >= getItemCount() - PREFETCH_DISTANCE) {
+                    // Adapter changes are not allowed mid-scroll, so load on the next frame
+                    pageRequested = true;
+                    recyclerView.post(() -> loadNextPage());
+                }
+            }
+        };
+    }
+
+    /**
+     * Registers the scroll listener that triggers page loads once attached to the grid.
+     * @param recyclerView The RecyclerView this adapter is attached to.
+     */
+    @Override
+    public void onAttachedToRecyclerView(@NonNull RecyclerView recyclerView) {
+        super.onAttachedToRecyclerView(recyclerView);
+        recyclerView.addOnScrollListener(pagingScrollListener);
+    }
+
+    /**
+     * Removes the paging scroll listener when the adapter is detached from the grid.
+     * @param recyclerView The RecyclerView this adapter was attached to.
+     */
+    @Override
+    public void onDetachedFromRecyclerView(@NonNull RecyclerView recyclerView) {
+        super.onDetachedFromRecyclerView(recyclerView);
+        recyclerView.removeOnScrollListener(pagingScrollListener);
+    }
+
+    /**
+     * Switches the adapter to paged loading from the given loader. The current entries stay on screen
+     * until the new ones arrive and the difference between them has been dispatched.
+     * Passing null stops paging and removes every entry.
+     * @param pageLoader The source of pages, or null to disable paging.
+     */
+    public void setPageLoader(PageLoader pageLoader) {
+        this.pageLoader = pageLoader;
+        this.endReached = false;
+        int generation = ++loaderGeneration;
+        reloadDiffing = false;
+        if (pageLoader == null) {
+            pageRequested = false;
+            replaceEntries(new WeightSeries(), null);
+            return;
+        }
+
+        // Hold off scroll-triggered loads until the new entries have replaced the old ones
+        pageRequested = true;
+        int reloadSize = Math.max(PAGE_SIZE, Math.min(getItemCount(), MAX_RELOAD_SIZE));
+        pageLoader.loadPage(null, reloadSize, page -> {
+            if (generation != loaderGeneration) {
+                return;
+            }
+            WeightSeries oldSeries = weightSeries;
+            if (orderIndex != null || oldSeries.isEmpty() || page.isEmpty()) {
+                applyReload(page, reloadSize, null);
+                return;
+            }
+            runningDiffs++;
+            reloadDiffing = true;
+            DIFF_EXECUTOR.execute(() -> {
+                DiffUtil.DiffResult diff = DiffUtil.calculateDiff(new SeriesDiffCallback(oldSeries, page));
+                mainHandler.post(() -> {
+                    runningDiffs--;
+                    // A newer loader's entries would make this diff describe the wrong change
+                    if (generation == loaderGeneration) {
+                        reloadDiffing = false;
+                        applyReload(page, reloadSize, diff);
+                    }
+                });
+            });
+        });
+    }
+
+    /**
+     * Makes freshly reloaded entries the current ones and resumes paging after them.
+     * @param page The reloaded entries.
+     * @param requestedSize The number of entries that were requested.
+     * @param diff The difference from the current entries, or null to dispatch a plain removal and insertion.
+     */
+    private void applyReload(WeightSeries page, int requestedSize, DiffUtil.DiffResult diff) {
+        pageRequested = false;
+        endReached = page.size() < requestedSize;
+        replaceEntries(page, diff);
+    }
+
+    /**
+     * Replaces the displayed entries and notifies the grid of exactly what changed.
+     * @param newSeries The entries to display from now on.
+     * @param diff The difference from the current entries, or null to dispatch a plain removal and insertion.
+     */
+    private void replaceEntries(WeightSeries newSeries, DiffUtil.DiffResult diff) {
+        int oldSize = getItemCount();
+        weightSeries = newSeries;
+        orderIndex = null;
+        selectionAnchor = RecyclerView.NO_POSITION; // Positions no longer refer to the same entries
+        if (diff != null) {
+            diff.dispatchUpdatesTo(this);
+        } else {
+            notifyItemRangeRemoved(0, oldSize);
+            notifyItemRangeInserted(0, newSeries.size());
+        }
+    }
+
+    /**
+     * Shows the whole history through an order index, in the given sort order, and stops paging.
+     * If the entries paged in so far are exactly the start of the new order, e.g. when the index was
+     * loaded for the current sort and filter, the rest is announced as a single insertion at the end;
+     * otherwise, such as after a sort switch, every position has changed and the grid is rebound.
+     * @param index The history to show.
+     * @param sortOption The SortUtils option to show it in.
+     * @param weightGoal The user's weight goal for DISTANCE_FROM_GOAL, or null if none is set.
+     */
+    public void setOrderIndex(WeightOrderIndex index, int sortOption, Float weightGoal) {
+        boolean wasPaging = orderIndex == null;
+        WeightSeries paged = weightSeries;
+        int oldCount = getItemCount();
+
+        // Pages and diffs still in flight belong to the old loader and are dropped
+        loaderGeneration++;
+        reloadDiffing = false;
+        pageLoader = null;
+        pageRequested = false;
+        endReached = true;
+        orderIndex = index;
+        this.sortOption = sortOption;
+        this.weightGoal = weightGoal;
+        selectionAnchor = RecyclerView.NO_POSITION;
+
+        weightSeries = new WeightSeries();
+        if (wasPaging && startsWith(paged)) {
+            notifyItemRangeInserted(oldCount, index.size() - oldCount);
+        } else {
+            notifyDataSetChanged();
+        }
+    }
 
     /**
-     * Constructor for the WeightAdapter.
-     * @param weightList The list of ProgressItem objects to be displayed.
+     * Checks whether the displayed entries begin with exactly the entries of a series.
      */
-    public WeightAdapter(List<ProgressItem> weightList) {
-        this.weightList = weightList;
-        this.selectedItemIds = new HashSet<>();
+    private boolean startsWith(WeightSeries prefix) {
+        if (prefix.size() > getItemCount()) {
+            return false;
+        }
+        WeightSeries source = source();
+        for (int i = 0; i < prefix.size(); i++) {
+            int index = seriesIndex(i);
+            if (prefix.getWeightId(i) != source.getWeightId(index)
+                    || prefix.getEpochDay(i) != source.getEpochDay(index)
+                    || Float.compare(prefix.getWeight(i), source.getWeight(index)) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the series the displayed entries are read from.
+     */
+    private WeightSeries source() {
+        return orderIndex == null ? weightSeries : orderIndex.getSeries();
+    }
+
+    /**
+     * Maps a displayed position to the entry's position in {@link #source()}.
+     */
+    private int seriesIndex(int position) {
+        return orderIndex == null ? position : orderIndex.seriesIndex(sortOption, weightGoal, position);
+    }
+
+    /**
+     * Gets the weight ID of the entry displayed at a position.
+     */
+    private int weightIdAt(int position) {
+        return source().getWeightId(seriesIndex(position));
+    }
+
+    /**
+     * Shows a newly added or updated entry without reloading: any entry with the same ID is removed, and
+     * the entry is inserted at the position a binary search finds for it in the displayed order.
+     * An entry that the filter excludes, or that sorts after the last loaded entry while more pages
+     * remain, isn't inserted; it appears when its page is loaded.
+     * @param weightId The unique ID of the entry.
+     * @param epochDay The date of the entry.
+     * @param weight The weight of the entry.
+     * @param sortOption The SortUtils option the entries are displayed in.
+     * @param weightGoal The user's weight goal, used by DISTANCE_FROM_GOAL, or null if none is set.
+     * @param filter The filter the entries were loaded with, or null for none.
+     */
+    public void insertEntry(int weightId, int epochDay, float weight, int sortOption, Float weightGoal,
+                            WeightFilter filter) {
+        if (orderIndex != null) {
+            int existing = orderIndex.positionOfWeightId(weightId, sortOption, weightGoal);
+            if (existing != -1) {
+                orderIndex.removeAll(new int[]{weightId});
+                notifyItemRemoved(existing);
+            }
+            if (filter == null || filter.matches(epochDay, weight)) {
+                notifyItemInserted(orderIndex.insert(weightId, epochDay, weight, sortOption, weightGoal));
+            }
+            selectionAnchor = RecyclerView.NO_POSITION;
+            return;
+        }
+
+        boolean reloadDiscarded = detachFromDiff();
+        int existing = weightSeries.indexOfWeightId(weightId);
+        if (existing != -1) {
+            weightSeries.remove(existing);
+            notifyItemRemoved(existing);
+        }
+        if (filter != null && !filter.matches(epochDay, weight)) {
+            restartReload(reloadDiscarded);
+            return;
+        }
+
+        // Find the first displayed entry that sorts after the new one
+        int low = 0;
+        int high = weightSeries.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (SortUtils.compare(sortOption, weightGoal, weightSeries.getEpochDay(mid), weightSeries.getWeight(mid),
+                    epochDay, weight) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        if (low == weightSeries.size() && !endReached) {
+            restartReload(reloadDiscarded);
+            return;
+        }
+        weightSeries.insert(low, weightId, epochDay, weight);
+        notifyItemInserted(low);
+        selectionAnchor = RecyclerView.NO_POSITION;
+        restartReload(reloadDiscarded);
+    }
+
+    /**
+     * Removes deleted entries without reloading, one run of consecutive positions at a time.
+     * If that leaves too few entries to scroll, the next page is requested so the grid refills.
+     * @param sortedWeightIds The IDs of the deleted entries, in ascending order.
+     */
+    public void removeEntries(int[] sortedWeightIds) {
+        // Find the runs from the end backwards, so each run's positions stay valid once the later ones are gone
+        List<int[]> runs = new ArrayList<>();
+        int end = getItemCount();
+        while (end > 0) {
+            if (Arrays.binarySearch(sortedWeightIds, weightIdAt(end - 1)) < 0) {
+                end--;
+                continue;
+            }
+            int start = end - 1;
+            while (start > 0 && Arrays.binarySearch(sortedWeightIds, weightIdAt(start - 1)) >= 0) {
+                start--;
+            }
+            runs.add(new int[]{start, end});
+            end = start;
+        }
+
+        boolean reloadDiscarded = false;
+        if (orderIndex != null) {
+            orderIndex.removeAll(sortedWeightIds);
+        } else {
+            reloadDiscarded = detachFromDiff();
+            for (int[] run : runs) {
+                weightSeries.removeRange(run[0], run[1]);
+            }
+        }
+        for (int[] run : runs) {
+            notifyItemRangeRemoved(run[0], run[1] - run[0]);
+        }
+        selectionAnchor = RecyclerView.NO_POSITION;
+
+        if (reloadDiscarded) {
+            restartReload(true);
+        } else if (pageLoader != null && !endReached && !pageRequested && weightSeries.size() < PREFETCH_DISTANCE) {
+            pageRequested = true;
+            loadNextPage();
+        }
+    }
+
+    /**
+     * Makes weightSeries safe to change in place. While a background diff may be reading it, it is replaced
+     * by a copy, and a reload waiting on a diff is discarded, since that diff describes entries that are no
+     * longer the ones on screen.
+     * @return true if a reload was discarded and must be restarted with {@link #restartReload(boolean)}
+     *         once the change has been announced.
+     */
+    private boolean detachFromDiff() {
+        if (runningDiffs > 0) {
+            WeightSeries copy = new WeightSeries(weightSeries.size());
+            copy.addAll(weightSeries);
+            weightSeries = copy;
+        }
+        if (!reloadDiffing) {
+            return false;
+        }
+        loaderGeneration++;
+        reloadDiffing = false;
+        return true;
+    }
+
+    /**
+     * Starts the current loader's reload again after {@link #detachFromDiff()} discarded it, so it is
+     * diffed against the entries now on screen.
+     * @param restart Whether a reload was discarded.
+     */
+    private void restartReload(boolean restart) {
+        if (restart && pageLoader != null) {
+            setPageLoader(pageLoader);
+        }
+    }
+
+    /**
+     * Requests the next page of entries, if paging is active and more entries remain.
+     * Further requests are held off until the page has been appended.
+     */
+    private void loadNextPage() {
+        if (pageLoader == null || endReached) {
+            pageRequested = false;
+            return;
+        }
+        int generation = loaderGeneration;
+        ProgressItem lastItem = weightSeries.isEmpty() ? null : weightSeries.get(weightSeries.size() - 1);
+        pageLoader.loadPage(lastItem, PAGE_SIZE, page -> {
+            if (generation != loaderGeneration) {
+                return;
+            }
+            pageRequested = false;
+            endReached = page.size() < PAGE_SIZE;
+
+            int start = weightSeries.size();
+            weightSeries.addAll(page);
+            notifyItemRangeInserted(start, page.size());
+        });
     }
 
     /**
@@ -51,20 +461,35 @@ public class WeightAdapter extends RecyclerView.Adapter<WeightAdapter.WeightView
      */
     @Override
     public void onBindViewHolder(@NonNull WeightViewHolder holder, int position) {
-        ProgressItem currentItem = weightList.get(position);
-        holder.dateTextView.setText(currentItem.getDate());
-        holder.weightTextView.setText(String.valueOf(currentItem.getWeight()));
+        WeightSeries source = source();
+        int index = seriesIndex(position);
+        int weightId = source.getWeightId(index);
+        holder.dateTextView.setText(DateUtils.formatEpochDay(source.getEpochDay(index)));
+        holder.weightTextView.setText(String.valueOf(source.getWeight(index)));
 
         // Set checkbox checked state based on the item's unique ID
-        holder.checkBox.setChecked(selectedItemIds.contains(currentItem.getWeightId()));
+        holder.checkBox.setChecked(selection.isSelected(weightId));
 
-        // Handle checkbox click to add or remove the item's ID from the selection set
+        // Handle checkbox click to add or remove the item's ID from the selection
         holder.checkBox.setOnClickListener(v -> {
-            if (holder.checkBox.isChecked()) {
-                selectedItemIds.add(currentItem.getWeightId());
-            } else {
-                selectedItemIds.remove(currentItem.getWeightId());
+            selection.setSelected(weightId, holder.checkBox.isChecked());
+            selectionAnchor = holder.getAdapterPosition();
+        });
+
+        // Long-press selects the range from the anchor to this entry, or just this entry without an anchor
+        holder.itemView.setOnLongClickListener(v -> {
+            int current = holder.getAdapterPosition();
+            if (current == RecyclerView.NO_POSITION) {
+                return false;
+            }
+            int anchor = selectionAnchor != RecyclerView.NO_POSITION && selectionAnchor < getItemCount()
+                    ? selectionAnchor : current;
+            for (int i = Math.min(anchor, current); i <= Math.max(anchor, current); i++) {
+                selection.setSelected(weightIdAt(i), true);
             }
+            selectionAnchor = current;
+            notifyItemRangeChanged(Math.min(anchor, current), Math.abs(current - anchor) + 1);
+            return true;
         });
     }
 
@@ -74,22 +499,66 @@ public class WeightAdapter extends RecyclerView.Adapter<WeightAdapter.WeightView
      */
     @Override
     public int getItemCount() {
-        return weightList.size();
+        return orderIndex == null ? weightSeries.size() : orderIndex.size();
     }
 
     /**
-     * Retrieves a list of the unique database IDs for all items currently selected by the user.
-     * @return A List of Integer IDs.
+     * Gets the selection model, e.g. to select all entries or to read the selected IDs.
+     * Call {@link #notifySelectionChanged()} after changing it directly.
+     * @return The adapter's WeightSelection.
      */
-    public List<Integer> getSelectedItemIds() {
-        return new ArrayList<>(selectedItemIds);
+    public WeightSelection getSelection() {
+        return selection;
+    }
+
+    /**
+     * Refreshes the checkboxes of the bound entries after the selection was changed outside the adapter.
+     */
+    public void notifySelectionChanged() {
+        notifyItemRangeChanged(0, getItemCount());
     }
 
     /**
      * Clears the current selection of items.
      */
     public void clearSelection() {
-        selectedItemIds.clear();
+        selection.clear();
+        selectionAnchor = RecyclerView.NO_POSITION;
+    }
+
+    /**
+     * Compares two series of weight entries for DiffUtil. Entries are the same entry when their weight IDs
+     * match, and unchanged when their date and weight match too.
+     */
+    private static class SeriesDiffCallback extends DiffUtil.Callback {
+        private final WeightSeries oldSeries;
+        private final WeightSeries newSeries;
+
+        SeriesDiffCallback(WeightSeries oldSeries, WeightSeries newSeries) {
+            this.oldSeries = oldSeries;
+            this.newSeries = newSeries;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return oldSeries.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return newSeries.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return oldSeries.getWeightId(oldItemPosition) == newSeries.getWeightId(newItemPosition);
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return oldSeries.getEpochDay(oldItemPosition) == newSeries.getEpochDay(newItemPosition)
+                    && Float.compare(oldSeries.getWeight(oldItemPosition), newSeries.getWeight(newItemPosition)) == 0;
+        }
     }
 
     /**
@@ -0,0 +1,47 @@
+package com.test.weighttrackingapplicationmatthewbates;
+
+/**
+ * A simple data class (POJO) that reports the outcome of a batched weight write.
+ * It holds how many rows of the batch were inserted, updated in place, or rejected.
+ */
+public class WeightBatchResult {
+    private final int insertedCount;
+    private final int updatedCount;
+    private final int rejectedCount;
+
+    /**
+     * Constructor for creating a new WeightBatchResult.
+     * @param insertedCount The number of new rows written.
+     * @param updatedCount The number of existing rows overwritten.
+     * @param rejectedCount The number of entries that were not written.
+     */
+    public WeightBatchResult(int insertedCount, int updatedCount, int rejectedCount) {
+        this.insertedCount = insertedCount;
+        this.updatedCount = updatedCount;
+        this.rejectedCount = rejectedCount;
+    }
+
+    /**
+     * Gets the number of new rows written by the batch.
+     * @return The inserted row count.
+     */
+    public int getInsertedCount() {
+        return insertedCount;
+    }
+
+    /**
+     * Gets the number of existing rows whose weight was overwritten by the batch.
+     * @return The updated row count.
+     */
+    public int getUpdatedCount() {
+        return updatedCount;
+    }
+
+    /**
+     * Gets the number of entries in the batch that were not written, e.g. because they were invalid.
+     * @return The rejected entry count.
+     */
+    public int getRejectedCount() {
+        return rejectedCount;
+    }
+}
@@ -0,0 +1,297 @@
+package com.test.weighttrackingapplicationmatthewbates;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.util.AttributeSet;
+import android.util.TypedValue;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+import android.view.View;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.android.material.color.MaterialColors;
+
+/**
+ * A line chart of a date-ordered weight series that can be panned by dragging, zoomed by pinching and
+ * reset by double-tapping. Whatever the length of the series, only the entries in the visible date range
+ * are looked at, and they are downsampled with {@link Downsampler#largestTriangleThreeBuckets} to at most one
+ * point per horizontal pixel, so drawing a frame costs the same for a month as for decades of entries.
+ * The downsampling runs again only when the visible range, the size or the series changes, into buffers
+ * that are reused, and an axis label is only formatted again when its weight or day changes, so panning
+ * and zooming create no garbage apart from a label string now and then.
+ */
+public class WeightChartView extends View {
+
+    // The narrowest range that can be zoomed into, in days
+    private static final double MIN_VISIBLE_DAYS = 7;
+    // Fraction of the weight range left empty above and below the line
+    private static final float WEIGHT_MARGIN = 0.05f;
+
+    private WeightSeries series;
+    // The visible date range, in fractional epoch days
+    private double viewStart;
+    private double viewEnd;
+
+    // Indexes into the series of the points drawn, and their count
+    private int[] selected = new int[0];
+    private int selectedCount;
+    // The weight range of the drawn points, which the vertical axis is scaled to
+    private float minWeight;
+    private float maxWeight;
+    // Axis labels, formatted when the points are picked rather than on every frame, and the weights and
+    // days they show, so a label is only formatted again once its value changes
+    private String minWeightLabel;
+    private String maxWeightLabel;
+    private String startDateLabel;
+    private String endDateLabel;
+    private float minWeightLabelValue = Float.NaN;
+    private float maxWeightLabelValue = Float.NaN;
+    private int startDateLabelDay = Integer.MIN_VALUE;
+    private int endDateLabelDay = Integer.MIN_VALUE;
+
+    private final Path linePath = new Path();
+    private final Paint linePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint labelPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final ScaleGestureDetector scaleDetector;
+    private final GestureDetector gestureDetector;
+
+    /**
+     * Constructor for creating the chart from code.
+     * @param context The context the view runs in.
+     */
+    public WeightChartView(Context context) {
+        this(context, null);
+    }
+
+    /**
+     * Constructor used when inflating the chart from a layout.
+     * @param context The context the view runs in.
+     * @param attrs The attributes of the XML tag.
+     */
+    public WeightChartView(Context context, @Nullable AttributeSet attrs) {
+        super(context, attrs);
+        linePaint.setStyle(Paint.Style.STROKE);
+        linePaint.setStrokeJoin(Paint.Join.ROUND);
+        linePaint.setStrokeWidth(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 2,
+                getResources().getDisplayMetrics()));
+        linePaint.setColor(MaterialColors.getColor(this, androidx.appcompat.R.attr.colorPrimary));
+        labelPaint.setTextSize(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, 12,
+                getResources().getDisplayMetrics()));
+        labelPaint.setColor(MaterialColors.getColor(this, android.R.attr.textColorSecondary));
+
+        scaleDetector = new ScaleGestureDetector(context, new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+            @Override
+            public boolean onScale(@NonNull ScaleGestureDetector detector) {
+                zoom(detector.getScaleFactor(), detector.getFocusX());
+                return true;
+            }
+        });
+        gestureDetector = new GestureDetector(context, new GestureDetector.SimpleOnGestureListener() {
+            @Override
+            public boolean onDown(@NonNull MotionEvent e) {
+                return true;
+            }
+
+            @Override
+            public boolean onScroll(@Nullable MotionEvent e1, @NonNull MotionEvent e2, float distanceX, float distanceY) {
+                double shift = distanceX / plotWidth() * (viewEnd - viewStart);
+                setVisibleRange(viewStart + shift, viewEnd + shift);
+                return true;
+            }
+
+            @Override
+            public boolean onDoubleTap(@NonNull MotionEvent e) {
+                showWholeSeries();
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Shows a series, replacing the current one. The chart reads the series in place rather than copying it,
+     * so after entries are added or removed, call this again with keepRange set and whichever series now
+     * holds them; e.g. WeightOrderIndex replaces its series on removal, so the old one must not be kept.
+     * @param series The entries to draw, in ascending date order, or null to show nothing.
+     * @param keepRange true to keep the visible date range where possible, false to show the whole series.
+     */
+    public void setSeries(WeightSeries series, boolean keepRange) {
+        this.series = series;
+        if (keepRange && viewEnd > viewStart) {
+            setVisibleRange(viewStart, viewEnd);
+        } else {
+            showWholeSeries();
+        }
+    }
+
+    /**
+     * Shows the whole date range of the series.
+     */
+    private void showWholeSeries() {
+        if (series == null || series.isEmpty()) {
+            setVisibleRange(0, 0);
+            return;
+        }
+        setVisibleRange(series.getEpochDay(0), series.getEpochDay(series.size() - 1));
+    }
+
+    /**
+     * Zooms the visible range around a point on the screen, which stays over the same date.
+     * @param scaleFactor How much to magnify by; above 1 zooms in.
+     * @param focusX The x coordinate to zoom around.
+     */
+    private void zoom(float scaleFactor, float focusX) {
+        double span = viewEnd - viewStart;
+        double fraction = (focusX - getPaddingLeft()) / plotWidth();
+        double focusDay = viewStart + fraction * span;
+        double newSpan = span / scaleFactor;
+        setVisibleRange(focusDay - fraction * newSpan, focusDay - fraction * newSpan + newSpan);
+    }
+
+    /**
+     * Sets the visible date range, kept within the series' dates and no narrower than MIN_VISIBLE_DAYS,
+     * then picks the points to draw and redraws.
+     * @param start The first visible day.
+     * @param end The last visible day.
+     */
+    private void setVisibleRange(double start, double end) {
+        if (series != null && !series.isEmpty()) {
+            double first = series.getEpochDay(0);
+            double last = series.getEpochDay(series.size() - 1);
+            double span = Math.max(Math.min(end - start, last - first), MIN_VISIBLE_DAYS);
+            // A range wider than the series, e.g. for a single entry, is centred on it
+            start = span >= last - first ? (first + last - span) / 2 : Math.max(first, Math.min(start, last - span));
+            end = start + span;
+        }
+        viewStart = start;
+        viewEnd = end;
+        pickPoints();
+        invalidate();
+    }
+
+    /**
+     * Downsamples the visible entries, plus one on each side so the line runs to the edges, to one
+     * point per horizontal pixel, and updates the axis labels for them.
+     */
+    private void pickPoints() {
+        int threshold = (int) plotWidth();
+        selectedCount = 0;
+        if (series == null || series.isEmpty() || threshold <= 0) {
+            return;
+        }
+        if (selected.length < threshold) {
+            selected = new int[threshold];
+        }
+        int start = Math.max(Downsampler.lowerBound(series, (int) Math.floor(viewStart)) - 1, 0);
+        int end = Math.min(Downsampler.lowerBound(series, (int) Math.ceil(viewEnd) + 1) + 1, series.size());
+        selectedCount = Downsampler.largestTriangleThreeBuckets(series, start, end, threshold, selected);
+
+        minWeight = Float.MAX_VALUE;
+        maxWeight = -Float.MAX_VALUE;
+        for (int i = 0; i < selectedCount; i++) {
+            float weight = series.getWeight(selected[i]);
+            minWeight = Math.min(minWeight, weight);
+            maxWeight = Math.max(maxWeight, weight);
+        }
+        if (minWeight != minWeightLabelValue) {
+            minWeightLabelValue = minWeight;
+            minWeightLabel = String.valueOf(minWeight);
+        }
+        if (maxWeight != maxWeightLabelValue) {
+            maxWeightLabelValue = maxWeight;
+            maxWeightLabel = String.valueOf(maxWeight);
+        }
+        float margin = Math.max((maxWeight - minWeight) * WEIGHT_MARGIN, 0.5f);
+        minWeight -= margin;
+        maxWeight += margin;
+
+        int startDay = (int) Math.round(viewStart);
+        if (startDay != startDateLabelDay) {
+            startDateLabelDay = startDay;
+            startDateLabel = DateUtils.formatEpochDay(startDay);
+        }
+        int endDay = (int) Math.round(viewEnd);
+        if (endDay != endDateLabelDay) {
+            endDateLabelDay = endDay;
+            endDateLabel = DateUtils.formatEpochDay(endDay);
+        }
+    }
+
+    /**
+     * Gets the width available to the line, inside the padding.
+     */
+    private float plotWidth() {
+        return getWidth() - getPaddingLeft() - getPaddingRight();
+    }
+
+    /**
+     * Picks the points again for the new width.
+     */
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        pickPoints();
+    }
+
+    /**
+     * Passes touches to the pinch and drag detectors.
+     * @param event The touch event.
+     * @return true, as the chart handles every gesture that starts on it.
+     */
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        scaleDetector.onTouchEvent(event);
+        if (!scaleDetector.isInProgress()) {
+            gestureDetector.onTouchEvent(event);
+        }
+        // Keep a drag on the chart from being taken over by a scrolling parent
+        getParent().requestDisallowInterceptTouchEvent(true);
+        return true;
+    }
+
+    /**
+     * Draws the picked points as a line, with the weight range on the left and the date range below.
+     * @param canvas The canvas to draw on.
+     */
+    @Override
+    protected void onDraw(@NonNull Canvas canvas) {
+        super.onDraw(canvas);
+        if (selectedCount == 0) {
+            return;
+        }
+        float textHeight = labelPaint.getTextSize();
+        float left = getPaddingLeft();
+        float top = getPaddingTop();
+        float width = plotWidth();
+        // The dates are drawn in a strip below the line
+        float height = getHeight() - getPaddingTop() - getPaddingBottom() - textHeight * 1.5f;
+        double daySpan = viewEnd - viewStart;
+        float weightSpan = maxWeight - minWeight;
+
+        linePath.rewind();
+        for (int i = 0; i < selectedCount; i++) {
+            int index = selected[i];
+            float x = left + (float) ((series.getEpochDay(index) - viewStart) / daySpan * width);
+            float y = top + (maxWeight - series.getWeight(index)) / weightSpan * height;
+            if (i == 0) {
+                linePath.moveTo(x, y);
+            } else {
+                linePath.lineTo(x, y);
+            }
+        }
+        canvas.save();
+        canvas.clipRect(left, top, left + width, top + height);
+        canvas.drawPath(linePath, linePaint);
+        canvas.restore();
+
+        canvas.drawText(maxWeightLabel, left, top + textHeight, labelPaint);
+        canvas.drawText(minWeightLabel, left, top + height, labelPaint);
+        float dateBaseline = getHeight() - getPaddingBottom();
+        canvas.drawText(startDateLabel, left, dateBaseline, labelPaint);
+        canvas.drawText(endDateLabel, left + width - labelPaint.measureText(endDateLabel), dateBaseline, labelPaint);
+    }
+}
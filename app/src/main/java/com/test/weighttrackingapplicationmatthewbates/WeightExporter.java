@@ -0,0 +1,196 @@
+package com.test.weighttrackingapplicationmatthewbates;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes a user's weight history to a stream as CSV or JSON, oldest entry first.
+ * Rows are read a page of CHUNK_SIZE at a time, each page starting after the last exported date, and
+ * each row is formatted into a reused buffer and written straight to a buffered writer, so memory use
+ * stays the same however many entries there are; no list of all entries is built. Seeking by date keeps
+ * the export consistent while entries are added or deleted: no entry is written twice or skipped because
+ * rows before it changed, unlike an OFFSET or a cursor refilling its window outside a transaction.
+ * Dates and weights are formatted with integer arithmetic rather than through LocalDate or
+ * Float.toString, so writing a row allocates nothing.
+ * Progress is reported and the cancel flag checked every CHUNK_SIZE rows. An exporter is used for one
+ * export and may be cancelled from any thread.
+ */
+public final class WeightExporter {
+
+    // Output formats
+    public static final int FORMAT_CSV = 0;
+    public static final int FORMAT_JSON = 1;
+
+    // Rows written between progress reports and checks for cancellation
+    private static final int CHUNK_SIZE = 1000;
+    // Characters buffered before they are encoded and written to the stream
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // Most decimal places a weight is written with; with a whole part below MAX_FIXED_WEIGHT, every
+    // float has a decimal form that short which reads back as the same float
+    private static final int MAX_WEIGHT_DECIMALS = 9;
+    private static final double MAX_FIXED_WEIGHT = 1000000;
+
+    // Powers of ten up to 10^MAX_WEIGHT_DECIMALS, to scale a weight and pick out its digits
+    private static final long[] POWERS_OF_TEN = new long[MAX_WEIGHT_DECIMALS + 1];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private final int format;
+    private volatile boolean cancelled;
+
+    /**
+     * Receives the progress of an export, on the thread running it.
+     */
+    public interface ProgressListener {
+        /**
+         * Called after every chunk of rows and once at the end.
+         * @param written The number of rows written so far.
+         * @param total The number of rows being exported.
+         */
+        void onProgress(int written, int total);
+    }
+
+    /**
+     * Constructor for a WeightExporter.
+     * @param format FORMAT_CSV or FORMAT_JSON.
+     */
+    public WeightExporter(int format) {
+        this.format = format;
+    }
+
+    /**
+     * Asks a running export to stop at the end of its current chunk.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Checks whether the export has been asked to stop.
+     * @return true if {@link #cancel()} has been called.
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Writes all of a user's weight entries to a stream. The stream is flushed but not closed.
+     * The total reported to the listener is counted when the export starts; if entries are added during
+     * the export, it is raised to the number written.
+     * Call this off the main thread, e.g. through the DatabaseExecutor.
+     * @param db The DatabaseHelper to read the entries from.
+     * @param userId The ID of the user whose entries to export.
+     * @param out The stream to write to.
+     * @param listener Receives progress reports, or null.
+     * @return The number of rows written, or -1 if the export was cancelled; the stream then holds a partial export.
+     * @throws IOException If writing to the stream fails.
+     */
+    public int export(DatabaseHelper db, int userId, OutputStream out, ProgressListener listener) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+        StringBuilder row = new StringBuilder(64);
+        char[] rowChars = new char[64];
+
+        int total = (int) db.countWeightEntries(userId, null);
+        writer.write(format == FORMAT_JSON ? "[\n" : "date,weight\n");
+
+        int written = 0;
+        ProgressItem lastEntry = null;
+        while (true) {
+            WeightSeries page = db.getWeightEntriesPage(userId, SortUtils.DATE_OLDEST, null, lastEntry, CHUNK_SIZE);
+            for (int i = 0; i < page.size(); i++) {
+                row.setLength(0);
+                if (format == FORMAT_JSON) {
+                    row.append(written == 0 ? "  {\"date\": \"" : ",\n  {\"date\": \"");
+                    appendDate(row, page.getEpochDay(i));
+                    row.append("\", \"weight\": ");
+                    appendWeight(row, page.getWeight(i));
+                    row.append('}');
+                } else {
+                    appendDate(row, page.getEpochDay(i));
+                    row.append(',');
+                    appendWeight(row, page.getWeight(i));
+                    row.append('\n');
+                }
+                // Copied out of the builder rather than through toString(), which would allocate per row
+                row.getChars(0, row.length(), rowChars, 0);
+                writer.write(rowChars, 0, row.length());
+                written++;
+            }
+            total = Math.max(total, written);
+            if (page.size() < CHUNK_SIZE) {
+                break;
+            }
+            if (cancelled) {
+                writer.flush();
+                return -1;
+            }
+            if (listener != null) {
+                listener.onProgress(written, total);
+            }
+            lastEntry = page.get(page.size() - 1);
+        }
+
+        writer.write(format == FORMAT_JSON ? (written == 0 ? "]\n" : "\n]\n") : "");
+        writer.flush();
+        if (listener != null) {
+            listener.onProgress(written, total);
+        }
+        return written;
+    }
+
+    /**
+     * Appends an epoch day as "YYYY-MM-DD", the format DateUtils shows dates in, without creating a
+     * LocalDate or a String. The date is worked out in a calendar whose years start on March 1st, so the
+     * leap day falls at the end of a year and each month's first day follows from a linear formula.
+     */
+    static void appendDate(StringBuilder row, int epochDay) {
+        // Days since 0000-03-01, split into 400-year eras of 146097 days
+        long days = epochDay + 719468L;
+        long era = Math.floorDiv(days, 146097);
+        long dayOfEra = days - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        // Months counted from March, so January and February belong to the next calendar year
+        long shiftedMonth = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * shiftedMonth + 2) / 5 + 1);
+        int month = (int) (shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9);
+        int year = (int) (era * 400 + yearOfEra + (month <= 2 ? 1 : 0));
+
+        // Dates within SQLite's range always have four-digit years
+        row.append(year / 1000).append(year / 100 % 10).append(year / 10 % 10).append(year % 10).append('-');
+        row.append(month / 10).append(month % 10).append('-');
+        row.append(day / 10).append(day % 10);
+    }
+
+    /**
+     * Appends a weight with the fewest decimal places, at least one, that read back as exactly the same
+     * float, e.g. "72.3" or "80.0", much as Float.toString would but without creating a String.
+     * The check divides like WeightImporter does, so an exported file imports to the same weights.
+     */
+    static void appendWeight(StringBuilder row, float weight) {
+        double value = weight;
+        if (value > 0 && value < MAX_FIXED_WEIGHT) {
+            for (int decimals = 1; decimals <= MAX_WEIGHT_DECIMALS; decimals++) {
+                long scaled = Math.round(value * POWERS_OF_TEN[decimals]);
+                if ((float) (scaled / (double) POWERS_OF_TEN[decimals]) == weight) {
+                    row.append(scaled / POWERS_OF_TEN[decimals]).append('.');
+                    for (int i = decimals - 1; i >= 0; i--) {
+                        row.append((char) ('0' + scaled / POWERS_OF_TEN[i] % 10));
+                    }
+                    return;
+                }
+            }
+        }
+        // Weights the app never stores, such as zero or huge values, are written as Float.toString would
+        row.append(weight);
+    }
+}
@@ -0,0 +1,89 @@
+package com.test.weighttrackingapplicationmatthewbates;
+
+/**
+ * A simple data class (POJO) that describes which slice of a user's weight history to load.
+ * Each bound is optional (null) and inclusive; a filter with no bounds matches every entry.
+ */
+public class WeightFilter {
+    private final Integer fromEpochDay;
+    private final Integer toEpochDay;
+    private final Float minWeight;
+    private final Float maxWeight;
+
+    /**
+     * Constructor for creating a new WeightFilter.
+     * @param fromEpochDay The earliest date to include, as an epoch day, or null for no lower bound.
+     * @param toEpochDay The latest date to include, as an epoch day, or null for no upper bound.
+     * @param minWeight The lowest weight to include, or null for no lower bound.
+     * @param maxWeight The highest weight to include, or null for no upper bound.
+     */
+    public WeightFilter(Integer fromEpochDay, Integer toEpochDay, Float minWeight, Float maxWeight) {
+        this.fromEpochDay = fromEpochDay;
+        this.toEpochDay = toEpochDay;
+        this.minWeight = minWeight;
+        this.maxWeight = maxWeight;
+    }
+
+    /**
+     * Creates a filter that matches the given number of most recent days, including today.
+     * @param days The number of days to include.
+     * @return A date-range filter ending today.
+     */
+    public static WeightFilter lastDays(int days) {
+        int today = DateUtils.today();
+        return new WeightFilter(today - days + 1, today, null, null);
+    }
+
+    /**
+     * Gets the earliest date to include.
+     * @return The epoch day, or null if there is no lower bound.
+     */
+    public Integer getFromEpochDay() {
+        return fromEpochDay;
+    }
+
+    /**
+     * Gets the latest date to include.
+     * @return The epoch day, or null if there is no upper bound.
+     */
+    public Integer getToEpochDay() {
+        return toEpochDay;
+    }
+
+    /**
+     * Gets the lowest weight to include.
+     * @return The weight, or null if there is no lower bound.
+     */
+    public Float getMinWeight() {
+        return minWeight;
+    }
+
+    /**
+     * Gets the highest weight to include.
+     * @return The weight, or null if there is no upper bound.
+     */
+    public Float getMaxWeight() {
+        return maxWeight;
+    }
+
+    /**
+     * Checks whether an entry falls inside every bound of the filter, as the database's selection would.
+     * @param epochDay The date of the entry.
+     * @param weight The weight of the entry.
+     * @return true if the entry matches.
+     */
+    public boolean matches(int epochDay, float weight) {
+        return (fromEpochDay == null || epochDay >= fromEpochDay)
+                && (toEpochDay == null || epochDay <= toEpochDay)
+                && (minWeight == null || weight >= minWeight)
+                && (maxWeight == null || weight <= maxWeight);
+    }
+
+    /**
+     * Checks whether the filter restricts anything at all.
+     * @return true if no bound is set.
+     */
+    public boolean isEmpty() {
+        return fromEpochDay == null && toEpochDay == null && minWeight == null && maxWeight == null;
+    }
+}
@@ -0,0 +1,82 @@
+package com.test.weighttrackingapplicationmatthewbates;
+
+/**
+ * A simple data class (POJO) that reports the outcome of a weight history import.
+ * It holds how many entries were written, how many lines could not be read, and the numbers of the
+ * first few of those lines so they can be shown to the user.
+ */
+public class WeightImportResult {
+    private final int insertedCount;
+    private final int updatedCount;
+    private final int rejectedCount;
+    private final int badLineCount;
+    private final int[] badLineNumbers;
+    private final boolean cancelled;
+
+    /**
+     * Constructor for creating a new WeightImportResult.
+     * @param insertedCount The number of new entries written.
+     * @param updatedCount The number of existing entries overwritten.
+     * @param rejectedCount The number of parsed entries the database did not write.
+     * @param badLineCount The number of lines that were not a valid date and weight.
+     * @param badLineNumbers The 1-based numbers of the first bad lines, at most badLineCount of them.
+     * @param cancelled Whether the import was stopped before the end of the file.
+     */
+    public WeightImportResult(int insertedCount, int updatedCount, int rejectedCount, int badLineCount,
+                              int[] badLineNumbers, boolean cancelled) {
+        this.insertedCount = insertedCount;
+        this.updatedCount = updatedCount;
+        this.rejectedCount = rejectedCount;
+        this.badLineCount = badLineCount;
+        this.badLineNumbers = badLineNumbers;
+        this.cancelled = cancelled;
+    }
+
+    /**
+     * Gets the number of new entries written by the import.
+     * @return The inserted entry count.
+     */
+    public int getInsertedCount() {
+        return insertedCount;
+    }
+
+    /**
+     * Gets the number of existing entries whose weight was overwritten by the import.
+     * @return The updated entry count.
+     */
+    public int getUpdatedCount() {
+        return updatedCount;
+    }
+
+    /**
+     * Gets the number of parsed entries the database did not write.
+     * @return The rejected entry count.
+     */
+    public int getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * Gets the number of lines that were skipped because they were not a valid date and weight.
+     * @return The bad line count.
+     */
+    public int getBadLineCount() {
+        return badLineCount;
+    }
+
+    /**
+     * Gets the numbers of the first bad lines; only a limited number are kept however many there are.
+     * @return The 1-based line numbers, in file order.
+     */
+    public int[] getBadLineNumbers() {
+        return badLineNumbers;
+    }
+
+    /**
+     * Checks whether the import was cancelled. The entries written before that are kept.
+     * @return true if the import stopped before the end of the file.
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+}
@@ -0,0 +1,320 @@
+package com.test.weighttrackingapplicationmatthewbates;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Year;
+
+/**
+ * Reads a weight history from a CSV stream of "date,weight" lines, such as a WeightExporter CSV file,
+ * and writes it in batches. The bytes are parsed in place in a fixed buffer, without decoding them to
+ * text or creating a String per line or field, and the parsed entries go into reused arrays that are
+ * handed to a BatchWriter every BATCH_SIZE entries, so memory use stays the same for any file size.
+ * Each line is checked like an entry in the add-weight dialog: the date must be a real "YYYY-MM-DD"
+ * date and the weight a positive number. A bad line is counted and skipped without stopping the import.
+ * An importer is used for one import and may be cancelled from any thread.
+ */
+public final class WeightImporter {
+
+    // Entries written per batch, and so per transaction
+    private static final int BATCH_SIZE = 5000;
+    // Bytes read from the stream at a time; a longer line is treated as a bad line
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // Numbers of bad lines kept for the result; the rest are only counted
+    private static final int MAX_REPORTED_BAD_LINES = 20;
+    // Digits a weight may have; more than fit exactly in a double are not a plausible weight
+    private static final int MAX_WEIGHT_DIGITS = 15;
+
+    private static final int[] DAYS_IN_MONTH = {31, 28, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31};
+    // Powers of ten up to 10^MAX_WEIGHT_DIGITS, all exact as doubles, to scale a weight's mantissa by
+    private static final double[] POWERS_OF_TEN = new double[MAX_WEIGHT_DIGITS + 1];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private volatile boolean cancelled;
+
+    // The entries parsed since the last batch was written
+    private final int[] epochDays = new int[BATCH_SIZE];
+    private final float[] weights = new float[BATCH_SIZE];
+    private int pendingCount;
+
+    // Running totals for the result
+    private int insertedCount;
+    private int updatedCount;
+    private int rejectedCount;
+    private int badLineCount;
+    private final int[] badLineNumbers = new int[MAX_REPORTED_BAD_LINES];
+
+    /**
+     * Writes a batch of parsed entries, e.g. through DatabaseHelper.upsertWeights.
+     */
+    public interface BatchWriter {
+        /**
+         * Writes the leading entries of the arrays; the arrays are reused after this returns.
+         * @param epochDays The dates of the entries, as days since 1970-01-01.
+         * @param weights The weight values, parallel to {@code epochDays}.
+         * @param count The number of entries to write.
+         * @return The number of entries inserted, updated and rejected.
+         */
+        WeightBatchResult write(int[] epochDays, float[] weights, int count);
+    }
+
+    /**
+     * Receives the progress of an import, on the thread running it.
+     */
+    public interface ProgressListener {
+        /**
+         * Called after every batch is written.
+         * @param lineCount The number of lines read so far.
+         * @param bytesRead The number of bytes read so far, to compare with the size of the file.
+         */
+        void onProgress(int lineCount, long bytesRead);
+    }
+
+    /**
+     * Asks a running import to stop at the next line. Batches already written are kept; the entries
+     * parsed since the last one are not written.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Reads a CSV stream to the end and writes every valid entry. A first line that starts with a letter,
+     * such as "date,weight", is taken as a header and skipped; blank lines are ignored. An entry for a date
+     * that already has one overwrites it, as with UserRepository.addWeight. The stream is not closed.
+     * Call this off the main thread, e.g. through the DatabaseExecutor.
+     * @param in The stream to read, in UTF-8 or any ASCII-compatible encoding.
+     * @param writer Writes each batch of entries.
+     * @param listener Receives progress reports, or null.
+     * @return The number of entries written and the lines that were skipped.
+     * @throws IOException If reading the stream fails; the batches written before that are kept.
+     */
+    public WeightImportResult importCsv(InputStream in, BatchWriter writer, ProgressListener listener)
+            throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int start = 0;
+        int limit = 0;
+        long bytesRead = 0;
+        int lineNumber = 0;
+        // Set while discarding the rest of a line too long for the buffer
+        boolean skippingLine = false;
+        boolean endOfStream = false;
+
+        while (!cancelled) {
+            int newline = start;
+            while (newline < limit && buffer[newline] != '\n') {
+                newline++;
+            }
+
+            if (newline == limit) {
+                if (endOfStream) {
+                    if (start < limit || skippingLine) {
+                        lineNumber++;
+                        readLine(buffer, start, limit, lineNumber, skippingLine);
+                    }
+                    break;
+                }
+                if (start == 0 && limit == buffer.length) {
+                    // The line fills the buffer, so drop what was read of it and find its end
+                    skippingLine = true;
+                    limit = 0;
+                } else {
+                    System.arraycopy(buffer, start, buffer, 0, limit - start);
+                    limit -= start;
+                    start = 0;
+                }
+                int read = in.read(buffer, limit, buffer.length - limit);
+                if (read == -1) {
+                    endOfStream = true;
+                } else {
+                    limit += read;
+                    bytesRead += read;
+                }
+                continue;
+            }
+
+            lineNumber++;
+            readLine(buffer, start, newline, lineNumber, skippingLine);
+            skippingLine = false;
+            start = newline + 1;
+
+            if (pendingCount == BATCH_SIZE) {
+                writeBatch(writer);
+                if (listener != null) {
+                    listener.onProgress(lineNumber, bytesRead);
+                }
+            }
+        }
+
+        if (!cancelled) {
+            writeBatch(writer);
+            if (listener != null) {
+                listener.onProgress(lineNumber, bytesRead);
+            }
+        }
+        int[] reported = new int[Math.min(badLineCount, MAX_REPORTED_BAD_LINES)];
+        System.arraycopy(badLineNumbers, 0, reported, 0, reported.length);
+        return new WeightImportResult(insertedCount, updatedCount, rejectedCount, badLineCount, reported, cancelled);
+    }
+
+    /**
+     * Parses one line into the pending entries, or records it as bad.
+     * @param end The index after the line's last byte, excluding the newline.
+     * @param overlong Whether the start of the line was discarded for not fitting the buffer.
+     */
+    private void readLine(byte[] buffer, int start, int end, int lineNumber, boolean overlong) {
+        if (lineNumber == 1 && end - start >= 3
+                && buffer[start] == (byte) 0xEF && buffer[start + 1] == (byte) 0xBB && buffer[start + 2] == (byte) 0xBF) {
+            start += 3; // UTF-8 byte order mark
+        }
+        while (end > start && isSpace(buffer[end - 1])) {
+            end--;
+        }
+        while (start < end && isSpace(buffer[start])) {
+            start++;
+        }
+        if (overlong) {
+            addBadLine(lineNumber);
+        } else if (start < end && !parseEntry(buffer, start, end)) {
+            int first = buffer[start] == '"' && start + 1 < end ? start + 1 : start;
+            if (lineNumber != 1 || !isLetter(buffer[first])) {
+                addBadLine(lineNumber);
+            }
+        }
+    }
+
+    /**
+     * Parses a trimmed "YYYY-MM-DD,weight" line, where either field may be in double quotes, and adds it to
+     * the pending entries if the date is real and the weight positive.
+     * @return false if the line is not a valid entry.
+     */
+    private boolean parseEntry(byte[] buffer, int pos, int end) {
+        boolean quoted = buffer[pos] == '"';
+        if (quoted) {
+            pos++;
+        }
+        int year = 0;
+        int month = 0;
+        int day = 0;
+        // The three date fields, as "YYYY", "-M" or "-MM", and "-D" or "-DD"
+        for (int field = 0; field < 3; field++) {
+            if (field > 0) {
+                if (pos == end || buffer[pos] != '-') {
+                    return false;
+                }
+                pos++;
+            }
+            int value = 0;
+            int digits = 0;
+            while (pos < end && isDigit(buffer[pos]) && digits < 4) {
+                value = value * 10 + buffer[pos++] - '0';
+                digits++;
+            }
+            if (field == 0 ? digits != 4 : digits == 0 || digits > 2) {
+                return false;
+            }
+            if (field == 0) {
+                year = value;
+            } else if (field == 1) {
+                month = value;
+            } else {
+                day = value;
+            }
+        }
+        if (quoted && (pos == end || buffer[pos++] != '"')) {
+            return false;
+        }
+        if (month < 1 || month > 12 || day < 1
+                || day > (month == 2 && Year.isLeap(year) ? 29 : DAYS_IN_MONTH[month - 1])) {
+            return false;
+        }
+
+        while (pos < end && isSpace(buffer[pos])) {
+            pos++;
+        }
+        if (pos == end || buffer[pos++] != ',') {
+            return false;
+        }
+        while (pos < end && isSpace(buffer[pos])) {
+            pos++;
+        }
+
+        quoted = pos < end && buffer[pos] == '"';
+        if (quoted) {
+            pos++;
+        }
+        // The weight as an integer mantissa and a count of decimal places
+        long mantissa = 0;
+        int digits = 0;
+        int decimals = -1;
+        while (pos < end) {
+            byte b = buffer[pos];
+            if (isDigit(b)) {
+                if (++digits > MAX_WEIGHT_DIGITS) {
+                    return false;
+                }
+                mantissa = mantissa * 10 + b - '0';
+                if (decimals >= 0) {
+                    decimals++;
+                }
+            } else if (b == '.' && decimals < 0) {
+                decimals = 0;
+            } else {
+                break;
+            }
+            pos++;
+        }
+        if (quoted && (pos == end || buffer[pos++] != '"')) {
+            return false;
+        }
+        if (digits == 0 || pos != end || mantissa == 0) {
+            return false;
+        }
+
+        epochDays[pendingCount] = DateUtils.toEpochDay(year, month, day);
+        weights[pendingCount] = (float) (mantissa / POWERS_OF_TEN[Math.max(decimals, 0)]);
+        pendingCount++;
+        return true;
+    }
+
+    /**
+     * Writes the pending entries, if any, and adds the outcome to the totals.
+     */
+    private void writeBatch(BatchWriter writer) {
+        if (pendingCount == 0) {
+            return;
+        }
+        WeightBatchResult result = writer.write(epochDays, weights, pendingCount);
+        insertedCount += result.getInsertedCount();
+        updatedCount += result.getUpdatedCount();
+        rejectedCount += result.getRejectedCount();
+        pendingCount = 0;
+    }
+
+    /**
+     * Counts a bad line, keeping its number if fewer than MAX_REPORTED_BAD_LINES have been kept.
+     */
+    private void addBadLine(int lineNumber) {
+        if (badLineCount < MAX_REPORTED_BAD_LINES) {
+            badLineNumbers[badLineCount] = lineNumber;
+        }
+        badLineCount++;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private static boolean isLetter(byte b) {
+        return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z');
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+}
@@ -0,0 +1,299 @@
+package com.test.weighttrackingapplicationmatthewbates;
+
+import java.util.Arrays;
+
+/**
+ * A user's loaded weight history together with permutation indexes for every SortUtils order, so the
+ * displayed order can be switched without going back to the database.
+ * The entries are held once, oldest first, which is already the DATE_OLDEST order; DATE_NEWEST reads
+ * it backwards. WEIGHT_LOWEST is a permutation built on first use, and WEIGHT_HIGHEST reads that one
+ * backwards, since both orders break ties on the (unique) date in the same direction as the weight.
+ * DISTANCE_FROM_GOAL has its own permutation, rebuilt whenever it is asked for with a different goal.
+ * Entries can be inserted and removed in place, keeping every built permutation up to date.
+ */
+public class WeightOrderIndex {
+
+    private WeightSeries series;
+    // Series positions in WEIGHT_LOWEST order, or null until first needed
+    private int[] byWeight;
+    // Series positions in DISTANCE_FROM_GOAL order for distanceGoal, or null until first needed
+    private int[] byDistance;
+    private Float distanceGoal;
+
+    /**
+     * Orders series positions for a sort; lets the permutations be sorted without boxing.
+     */
+    private interface PositionComparator {
+        int compare(int positionA, int positionB);
+    }
+
+    /**
+     * Creates an index over a user's entries.
+     * @param seriesByDateAscending The entries, oldest first, as returned for SortUtils.DATE_OLDEST.
+     */
+    public WeightOrderIndex(WeightSeries seriesByDateAscending) {
+        this.series = seriesByDateAscending;
+    }
+
+    /**
+     * Gets the number of entries.
+     * @return The number of entries.
+     */
+    public int size() {
+        return series.size();
+    }
+
+    /**
+     * Gets the entries, oldest first. Use {@link #seriesIndex} to read them in another order.
+     * {@link #removeAll} replaces the series, so get it again after entries are removed.
+     * @return The entries in DATE_OLDEST order.
+     */
+    public WeightSeries getSeries() {
+        return series;
+    }
+
+    /**
+     * Maps a position in a sort order to the position of the same entry in {@link #getSeries()}.
+     * Builds the permutation for the order if this is its first use.
+     * @param sortOption A constant from SortUtils defining the sort order.
+     * @param weightGoal The user's weight goal for DISTANCE_FROM_GOAL, or null if none is set.
+     * @param position The position in the sort order.
+     * @return The position of the entry in the series.
+     */
+    public int seriesIndex(int sortOption, Float weightGoal, int position) {
+        int last = series.size() - 1;
+        switch (sortOption) {
+            case SortUtils.WEIGHT_LOWEST:
+                return weightOrder()[position];
+            case SortUtils.WEIGHT_HIGHEST:
+                return weightOrder()[last - position];
+            case SortUtils.DISTANCE_FROM_GOAL:
+                return distanceOrder(weightGoal)[position];
+            case SortUtils.DATE_OLDEST:
+                return position;
+            case SortUtils.DATE_NEWEST:
+            default:
+                return last - position;
+        }
+    }
+
+    /**
+     * Builds the permutation a sort order needs, if it hasn't been built yet, e.g. on a background thread
+     * before the index is handed to the UI.
+     * @param sortOption A constant from SortUtils defining the sort order.
+     * @param weightGoal The user's weight goal for DISTANCE_FROM_GOAL, or null if none is set.
+     */
+    public void prepare(int sortOption, Float weightGoal) {
+        if (sortOption == SortUtils.WEIGHT_LOWEST || sortOption == SortUtils.WEIGHT_HIGHEST) {
+            weightOrder();
+        } else if (sortOption == SortUtils.DISTANCE_FROM_GOAL) {
+            distanceOrder(weightGoal);
+        }
+    }
+
+    /**
+     * Inserts an entry. An entry whose weight changed must be removed before it is inserted again.
+     * @param weightId The unique ID of the entry.
+     * @param epochDay The date of the entry.
+     * @param weight The weight of the entry.
+     * @param sortOption The sort order to report the entry's new position in.
+     * @param weightGoal The user's weight goal for DISTANCE_FROM_GOAL, or null if none is set.
+     * @return The entry's position in the given sort order.
+     */
+    public int insert(int weightId, int epochDay, float weight, int sortOption, Float weightGoal) {
+        // The series is in date order, so a binary search on the date finds the entry's place
+        int low = 0;
+        int high = series.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (series.getEpochDay(mid) < epochDay) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        series.insert(low, weightId, epochDay, weight);
+        byWeight = insertPosition(byWeight, low, weightComparator());
+        byDistance = insertPosition(byDistance, low, distanceComparator(distanceGoal));
+        return displayPosition(sortOption, weightGoal, low);
+    }
+
+    /**
+     * Finds where an entry is displayed in a sort order.
+     * @param weightId The unique ID of the entry.
+     * @param sortOption A constant from SortUtils defining the sort order.
+     * @param weightGoal The user's weight goal for DISTANCE_FROM_GOAL, or null if none is set.
+     * @return The entry's position in the sort order, or -1 if the index doesn't hold it.
+     */
+    public int positionOfWeightId(int weightId, int sortOption, Float weightGoal) {
+        int seriesIndex = series.indexOfWeightId(weightId);
+        return seriesIndex == -1 ? -1 : displayPosition(sortOption, weightGoal, seriesIndex);
+    }
+
+    /**
+     * Removes the entries with the given IDs, in one pass over the entries and each built permutation.
+     * @param sortedWeightIds The IDs of the entries to remove, in ascending order.
+     */
+    public void removeAll(int[] sortedWeightIds) {
+        int size = series.size();
+        // newPositions[i] is the position entry i moves to, or -1 if it is removed
+        int[] newPositions = new int[size];
+        WeightSeries kept = new WeightSeries(size);
+        for (int i = 0; i < size; i++) {
+            int weightId = series.getWeightId(i);
+            if (Arrays.binarySearch(sortedWeightIds, weightId) >= 0) {
+                newPositions[i] = -1;
+            } else {
+                newPositions[i] = kept.size();
+                kept.add(weightId, series.getEpochDay(i), series.getWeight(i));
+            }
+        }
+        if (kept.size() == size) {
+            return;
+        }
+        series = kept;
+        byWeight = remapPositions(byWeight, newPositions, kept.size());
+        byDistance = remapPositions(byDistance, newPositions, kept.size());
+    }
+
+    /**
+     * Finds the position in a sort order of the entry at a series position.
+     */
+    private int displayPosition(int sortOption, Float weightGoal, int seriesIndex) {
+        int last = series.size() - 1;
+        switch (sortOption) {
+            case SortUtils.WEIGHT_LOWEST:
+                return searchPosition(weightOrder(), seriesIndex, weightComparator());
+            case SortUtils.WEIGHT_HIGHEST:
+                return last - searchPosition(weightOrder(), seriesIndex, weightComparator());
+            case SortUtils.DISTANCE_FROM_GOAL:
+                return searchPosition(distanceOrder(weightGoal), seriesIndex, distanceComparator(weightGoal));
+            case SortUtils.DATE_OLDEST:
+                return seriesIndex;
+            case SortUtils.DATE_NEWEST:
+            default:
+                return last - seriesIndex;
+        }
+    }
+
+    /**
+     * Gets the WEIGHT_LOWEST permutation, building it on first use.
+     */
+    private int[] weightOrder() {
+        if (byWeight == null) {
+            byWeight = buildOrder(weightComparator());
+        }
+        return byWeight;
+    }
+
+    /**
+     * Gets the DISTANCE_FROM_GOAL permutation for a goal, building it if needed.
+     */
+    private int[] distanceOrder(Float weightGoal) {
+        boolean sameGoal = weightGoal == null ? distanceGoal == null : weightGoal.equals(distanceGoal);
+        if (byDistance == null || !sameGoal) {
+            distanceGoal = weightGoal;
+            byDistance = buildOrder(distanceComparator(weightGoal));
+        }
+        return byDistance;
+    }
+
+    private PositionComparator weightComparator() {
+        return (a, b) -> SortUtils.compare(SortUtils.WEIGHT_LOWEST, null,
+                series.getEpochDay(a), series.getWeight(a), series.getEpochDay(b), series.getWeight(b));
+    }
+
+    private PositionComparator distanceComparator(Float weightGoal) {
+        return (a, b) -> SortUtils.compare(SortUtils.DISTANCE_FROM_GOAL, weightGoal,
+                series.getEpochDay(a), series.getWeight(a), series.getEpochDay(b), series.getWeight(b));
+    }
+
+    /**
+     * Builds a permutation of every series position, sorted with a stable bottom-up merge sort.
+     */
+    private int[] buildOrder(PositionComparator comparator) {
+        int size = series.size();
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        int[] buffer = new int[size];
+        for (int width = 1; width < size; width *= 2) {
+            for (int start = 0; start < size - width; start += 2 * width) {
+                int mid = start + width;
+                int end = Math.min(start + 2 * width, size);
+                int left = start;
+                int right = mid;
+                int out = start;
+                while (left < mid && right < end) {
+                    buffer[out++] = comparator.compare(order[left], order[right]) <= 0 ? order[left++] : order[right++];
+                }
+                while (left < mid) {
+                    buffer[out++] = order[left++];
+                }
+                while (right < end) {
+                    buffer[out++] = order[right++];
+                }
+                System.arraycopy(buffer, start, order, start, end - start);
+            }
+        }
+        return order;
+    }
+
+    /**
+     * Finds where a series position is, or belongs, in a permutation sorted by a comparator.
+     */
+    private int searchPosition(int[] order, int seriesIndex, PositionComparator comparator) {
+        int low = 0;
+        int high = order.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (comparator.compare(order[mid], seriesIndex) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Updates a built permutation after an entry was inserted into the series at a position:
+     * positions at or after it move up by one, and the new position is inserted in sorted order.
+     * @return The updated permutation, or null if it hadn't been built.
+     */
+    private int[] insertPosition(int[] order, int seriesIndex, PositionComparator comparator) {
+        if (order == null) {
+            return null;
+        }
+        int[] updated = new int[order.length + 1];
+        int target = -1;
+        for (int i = 0, out = 0; i < order.length; i++) {
+            int position = order[i] >= seriesIndex ? order[i] + 1 : order[i];
+            if (target == -1 && comparator.compare(seriesIndex, position) < 0) {
+                target = out++;
+            }
+            updated[out++] = position;
+        }
+        updated[target == -1 ? order.length : target] = seriesIndex;
+        return updated;
+    }
+
+    /**
+     * Updates a built permutation after entries were removed from the series.
+     * @return The updated permutation, or null if it hadn't been built.
+     */
+    private static int[] remapPositions(int[] order, int[] newPositions, int newSize) {
+        if (order == null) {
+            return null;
+        }
+        int[] updated = new int[newSize];
+        int out = 0;
+        for (int position : order) {
+            if (newPositions[position] != -1) {
+                updated[out++] = newPositions[position];
+            }
+        }
+        return updated;
+    }
+}
@@ -0,0 +1,91 @@
+package com.test.weighttrackingapplicationmatthewbates;
+
+import java.util.BitSet;
+
+/**
+ * The set of weight entries the user has selected, kept as a BitSet indexed by weight ID.
+ * Weight IDs are small, increasing integers, so one bit per ID holds even a selection of the whole
+ * history in a few kilobytes without boxing, and whole-set operations work a word at a time.
+ */
+public class WeightSelection {
+
+    private final BitSet selectedIds = new BitSet();
+
+    /**
+     * Checks whether an entry is selected.
+     * @param weightId The unique ID of the weight entry.
+     * @return true if the entry is selected.
+     */
+    public boolean isSelected(int weightId) {
+        return selectedIds.get(weightId);
+    }
+
+    /**
+     * Selects or deselects a single entry.
+     * @param weightId The unique ID of the weight entry.
+     * @param selected true to select the entry, false to deselect it.
+     */
+    public void setSelected(int weightId, boolean selected) {
+        selectedIds.set(weightId, selected);
+    }
+
+    /**
+     * Selects every given entry, in addition to those already selected.
+     * @param weightIds The unique IDs of the weight entries to select.
+     */
+    public void selectAll(int[] weightIds) {
+        for (int weightId : weightIds) {
+            selectedIds.set(weightId);
+        }
+    }
+
+    /**
+     * Inverts the selection within the given entries: those that were selected are deselected and the rest
+     * are selected. Selected entries outside the given ones, e.g. hidden by a filter, are deselected.
+     * @param weightIds The unique IDs of all the entries the user can currently see.
+     */
+    public void invert(int[] weightIds) {
+        BitSet visibleIds = new BitSet();
+        for (int weightId : weightIds) {
+            visibleIds.set(weightId);
+        }
+        selectedIds.xor(visibleIds);
+        selectedIds.and(visibleIds);
+    }
+
+    /**
+     * Deselects every entry.
+     */
+    public void clear() {
+        selectedIds.clear();
+    }
+
+    /**
+     * Checks whether no entry is selected.
+     * @return true if the selection is empty.
+     */
+    public boolean isEmpty() {
+        return selectedIds.isEmpty();
+    }
+
+    /**
+     * Gets the number of selected entries.
+     * @return The number of selected entries.
+     */
+    public int size() {
+        return selectedIds.cardinality();
+    }
+
+    /**
+     * Copies the selected IDs into an array, e.g. to pass to DatabaseHelper.deleteWeightsById().
+     * @return The selected weight IDs in ascending order.
+     */
+    public int[] toArray() {
+        int[] ids = new int[selectedIds.cardinality()];
+        int count = 0;
+        for (int id = selectedIds.nextSetBit(0); id >= 0; id = selectedIds.nextSetBit(id + 1)) {
+            ids[count++] = id;
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,259 @@
+package com.test.weighttrackingapplicationmatthewbates;
+
+import java.util.Arrays;
+
+/**
+ * A compact, ordered series of weight entries stored column by column in primitive arrays.
+ * Each entry costs 12 bytes (an int ID, an int epoch day and a float weight) instead of a ProgressItem
+ * object per entry. The columns grow in fixed-size chunks, so appending never copies more than one chunk
+ * and a large history is loaded without creating garbage for the collector. Only the first chunk starts
+ * out smaller, sized from the expected number of entries, so a short page doesn't reserve a whole chunk.
+ * A WeightSeries is not thread-safe; it is filled on one thread and handed over once complete.
+ */
+public class WeightSeries {
+
+    // Entries per chunk as a power of two, so an index splits into chunk and offset with a shift and a mask
+    private static final int CHUNK_SHIFT = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    // Starting capacity of the first chunk when the expected size is unknown
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private int[][] weightIds;
+    private int[][] epochDays;
+    private float[][] weights;
+    private int chunkCount;
+    private int size;
+    private final int initialCapacity;
+
+    /**
+     * Creates an empty series. No chunk is allocated until the first entry is added.
+     */
+    public WeightSeries() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates an empty series whose first chunk is sized for the given number of entries.
+     * @param expectedSize The number of entries the series is expected to hold.
+     */
+    public WeightSeries(int expectedSize) {
+        initialCapacity = Math.max(1, Math.min(expectedSize, CHUNK_SIZE));
+        weightIds = new int[0][];
+        epochDays = new int[0][];
+        weights = new float[0][];
+    }
+
+    /**
+     * Gets the number of entries in the series.
+     * @return The number of entries.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Checks whether the series has no entries.
+     * @return true if the series is empty.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Appends an entry to the end of the series.
+     * @param weightId The unique ID of the weight entry from the database.
+     * @param epochDay The date of the weight entry, as days since 1970-01-01.
+     * @param weight The weight value.
+     */
+    public void add(int weightId, int epochDay, float weight) {
+        int chunk = size >>> CHUNK_SHIFT;
+        int offset = size & CHUNK_MASK;
+        if (chunk == chunkCount) {
+            allocateChunk();
+        } else if (offset == weightIds[chunk].length) {
+            growChunk(chunk);
+        }
+        weightIds[chunk][offset] = weightId;
+        epochDays[chunk][offset] = epochDay;
+        weights[chunk][offset] = weight;
+        size++;
+    }
+
+    /**
+     * Appends every entry of another series to the end of this one, in order.
+     * @param other The series to append.
+     */
+    public void addAll(WeightSeries other) {
+        int count = other.size;
+        for (int i = 0; i < count; i++) {
+            int chunk = i >>> CHUNK_SHIFT;
+            int offset = i & CHUNK_MASK;
+            add(other.weightIds[chunk][offset], other.epochDays[chunk][offset], other.weights[chunk][offset]);
+        }
+    }
+
+    /**
+     * Gets the unique database ID of an entry.
+     * @param index The position of the entry in the series.
+     * @return The integer weight ID.
+     */
+    public int getWeightId(int index) {
+        checkIndex(index);
+        return weightIds[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+    }
+
+    /**
+     * Gets the date of an entry.
+     * @param index The position of the entry in the series.
+     * @return The date as days since 1970-01-01.
+     */
+    public int getEpochDay(int index) {
+        checkIndex(index);
+        return epochDays[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+    }
+
+    /**
+     * Gets the weight value of an entry.
+     * @param index The position of the entry in the series.
+     * @return The weight as a float.
+     */
+    public float getWeight(int index) {
+        checkIndex(index);
+        return weights[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+    }
+
+    /**
+     * Creates a ProgressItem for one entry, e.g. to use as a keyset pagination cursor.
+     * @param index The position of the entry in the series.
+     * @return A new ProgressItem holding the entry's values.
+     */
+    public ProgressItem get(int index) {
+        return new ProgressItem(getWeightId(index), getEpochDay(index), getWeight(index));
+    }
+
+    /**
+     * Inserts an entry at a position, shifting the entries from that position onwards one place later.
+     * @param index The position to insert at, from 0 to size() inclusive.
+     * @param weightId The unique ID of the weight entry from the database.
+     * @param epochDay The date of the weight entry, as days since 1970-01-01.
+     * @param weight The weight value.
+     */
+    public void insert(int index, int weightId, int epochDay, float weight) {
+        if (index < 0 || index > size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        add(weightId, epochDay, weight);
+        for (int i = size - 1; i > index; i--) {
+            copy(i - 1, i);
+        }
+        set(index, weightId, epochDay, weight);
+    }
+
+    /**
+     * Removes the entry at a position, shifting the entries after it one place earlier.
+     * @param index The position of the entry to remove.
+     */
+    public void remove(int index) {
+        checkIndex(index);
+        removeRange(index, index + 1);
+    }
+
+    /**
+     * Removes a run of consecutive entries, shifting the entries after it earlier in a single pass.
+     * @param fromIndex The position of the first entry to remove.
+     * @param toIndex The position after the last entry to remove.
+     */
+    public void removeRange(int fromIndex, int toIndex) {
+        if (fromIndex < 0 || toIndex > size || fromIndex > toIndex) {
+            throw new IndexOutOfBoundsException("From: " + fromIndex + ", To: " + toIndex + ", Size: " + size);
+        }
+        int removed = toIndex - fromIndex;
+        for (int i = toIndex; i < size; i++) {
+            copy(i, i - removed);
+        }
+        size -= removed;
+    }
+
+    /**
+     * Finds the position of an entry by its weight ID.
+     * @param weightId The unique ID of the weight entry.
+     * @return The entry's position, or -1 if the series doesn't hold it.
+     */
+    public int indexOfWeightId(int weightId) {
+        for (int i = 0; i < size; i++) {
+            if (weightIds[i >>> CHUNK_SHIFT][i & CHUNK_MASK] == weightId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Removes every entry. The allocated chunks are kept and reused as the series is refilled.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Adds a new chunk after the last one, growing the chunk tables if needed.
+     * The first chunk starts at the initial capacity; every later one is full-sized.
+     */
+    private void allocateChunk() {
+        if (chunkCount == weightIds.length) {
+            int tableSize = Math.max(4, weightIds.length * 2);
+            weightIds = Arrays.copyOf(weightIds, tableSize);
+            epochDays = Arrays.copyOf(epochDays, tableSize);
+            weights = Arrays.copyOf(weights, tableSize);
+        }
+        int capacity = chunkCount == 0 ? initialCapacity : CHUNK_SIZE;
+        weightIds[chunkCount] = new int[capacity];
+        epochDays[chunkCount] = new int[capacity];
+        weights[chunkCount] = new float[capacity];
+        chunkCount++;
+    }
+
+    /**
+     * Doubles the capacity of a chunk that started out smaller than full-sized, up to the full size.
+     * @param chunk The number of the chunk to grow.
+     */
+    private void growChunk(int chunk) {
+        int capacity = Math.min(weightIds[chunk].length * 2, CHUNK_SIZE);
+        weightIds[chunk] = Arrays.copyOf(weightIds[chunk], capacity);
+        epochDays[chunk] = Arrays.copyOf(epochDays[chunk], capacity);
+        weights[chunk] = Arrays.copyOf(weights[chunk], capacity);
+    }
+
+    /**
+     * Overwrites the entry at a position that is already within the series.
+     */
+    private void set(int index, int weightId, int epochDay, float weight) {
+        int chunk = index >>> CHUNK_SHIFT;
+        int offset = index & CHUNK_MASK;
+        weightIds[chunk][offset] = weightId;
+        epochDays[chunk][offset] = epochDay;
+        weights[chunk][offset] = weight;
+    }
+
+    /**
+     * Copies the entry at one position over the entry at another.
+     */
+    private void copy(int from, int to) {
+        int fromChunk = from >>> CHUNK_SHIFT;
+        int fromOffset = from & CHUNK_MASK;
+        set(to, weightIds[fromChunk][fromOffset], epochDays[fromChunk][fromOffset], weights[fromChunk][fromOffset]);
+    }
+
+    /**
+     * Throws if an index is outside the series.
+     * @param index The index to check.
+     * @throws IndexOutOfBoundsException If index is negative or not less than size().
+     */
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+}
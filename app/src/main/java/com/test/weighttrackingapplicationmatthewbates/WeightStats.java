@@ -0,0 +1,107 @@
+package com.test.weighttrackingapplicationmatthewbates;
+
+/**
+ * A simple data class (POJO) holding a user's running weight statistics.
+ * The trend is an exponential moving average over the entries in date order, the rolling means cover the
+ * 7 and 30 days ending on the newest entry, and the slope is the least-squares fit over the whole history.
+ * All of them are read from state the database keeps up to date on every write, see
+ * DatabaseHelper.getWeightStats().
+ */
+public class WeightStats {
+
+    // Projections further out than this are not meaningful, and would also overflow a LocalDate
+    private static final int MAX_PROJECTION_DAYS = 10 * 365;
+
+    private final int entryCount;
+    private final int latestEpochDay;
+    private final float trendWeight;
+    private final float sevenDayMean;
+    private final float thirtyDayMean;
+    private final double slopePerDay;
+
+    /**
+     * Constructor for creating a new WeightStats.
+     * @param entryCount The number of weight entries.
+     * @param latestEpochDay The date of the newest entry.
+     * @param trendWeight The exponential moving average of the weights, as of the newest entry.
+     * @param sevenDayMean The mean weight over the 7 days ending on the newest entry.
+     * @param thirtyDayMean The mean weight over the 30 days ending on the newest entry.
+     * @param slopePerDay The fitted change in weight per day, or NaN with fewer than two entries.
+     */
+    public WeightStats(int entryCount, int latestEpochDay, float trendWeight,
+                       float sevenDayMean, float thirtyDayMean, double slopePerDay) {
+        this.entryCount = entryCount;
+        this.latestEpochDay = latestEpochDay;
+        this.trendWeight = trendWeight;
+        this.sevenDayMean = sevenDayMean;
+        this.thirtyDayMean = thirtyDayMean;
+        this.slopePerDay = slopePerDay;
+    }
+
+    /**
+     * Gets the number of weight entries the statistics cover.
+     * @return The entry count.
+     */
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * Gets the date of the newest entry, which the trend and rolling means are as of.
+     * @return The epoch day of the newest entry.
+     */
+    public int getLatestEpochDay() {
+        return latestEpochDay;
+    }
+
+    /**
+     * Gets the exponential moving average of the weights, which smooths out day-to-day fluctuation.
+     * @return The trend weight.
+     */
+    public float getTrendWeight() {
+        return trendWeight;
+    }
+
+    /**
+     * Gets the mean weight over the 7 days ending on the newest entry.
+     * @return The 7-day mean.
+     */
+    public float getSevenDayMean() {
+        return sevenDayMean;
+    }
+
+    /**
+     * Gets the mean weight over the 30 days ending on the newest entry.
+     * @return The 30-day mean.
+     */
+    public float getThirtyDayMean() {
+        return thirtyDayMean;
+    }
+
+    /**
+     * Gets the fitted change in weight per day; negative when losing weight.
+     * @return The slope, or NaN with fewer than two entries.
+     */
+    public double getSlopePerDay() {
+        return slopePerDay;
+    }
+
+    /**
+     * Projects when the trend weight reaches a goal if the fitted slope continues.
+     * @param goal The weight goal.
+     * @return The projected epoch day, the newest entry's date if the goal is already reached, or null
+     *         if the weight isn't moving towards the goal or wouldn't reach it within ten years.
+     */
+    public Integer projectGoalEpochDay(float goal) {
+        double remaining = goal - trendWeight;
+        if (remaining == 0) {
+            return latestEpochDay;
+        }
+        // NaN and zero slopes fail this check too
+        if (!(remaining / slopePerDay > 0)) {
+            return null;
+        }
+        double days = Math.ceil(remaining / slopePerDay);
+        return days > MAX_PROJECTION_DAYS ? null : latestEpochDay + (int) days;
+    }
+}
@@ -0,0 +1,55 @@
+package com.test.weighttrackingapplicationmatthewbates;
+
+import android.app.Application;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * The application class, which starts preparing the database as soon as the process starts.
+ * The database is opened, created or migrated on the DatabaseExecutor's writer thread while the first
+ * Activity is still inflating, and the logged-in user's profile is read into the UserRepository, so the
+ * first screen finds the schema ready and its data in memory instead of opening the database itself.
+ */
+public class WeightTrackingApplication extends Application {
+
+    private static final String TAG = "Startup";
+
+    // Whether the time to the first HomeFragment data has been logged in this process
+    private static boolean homeDataReported;
+
+    /**
+     * Called when the process starts, before any Activity is created. Submits the prewarm work.
+     */
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        // Writes run in submission order, so anything written later waits for the schema to be ready
+        DatabaseExecutor.getInstance(this).write(null, db -> {
+            long start = SystemClock.uptimeMillis();
+            db.getWritableDatabase();
+            // Reading the session from SharedPreferences and the profile from the indexes here keeps
+            // that disk I/O off the main thread and leaves the pages in SQLite's cache
+            UserRepository userRepository = UserRepository.getInstance(this);
+            userRepository.getWeightGoal();
+            userRepository.getMostRecentWeight();
+            userRepository.getWeightStats();
+            Log.i(TAG, "Database prewarmed in " + (SystemClock.uptimeMillis() - start) + " ms");
+            return null;
+        }, null);
+    }
+
+    /**
+     * Logs how long it took for the HomeFragment to show its data, the first time it does in this process.
+     * @param viewCreatedUptime The SystemClock.uptimeMillis() at which the HomeFragment's view was created.
+     */
+    public static void reportHomeDataShown(long viewCreatedUptime) {
+        if (homeDataReported) {
+            return;
+        }
+        homeDataReported = true;
+        long now = SystemClock.uptimeMillis();
+        Log.i(TAG, "First HomeFragment data shown " + (now - viewCreatedUptime) + " ms after its view was created, "
+                + (now - Process.getStartUptimeMillis()) + " ms after the process started");
+    }
+}
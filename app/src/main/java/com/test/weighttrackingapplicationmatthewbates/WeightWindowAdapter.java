@@ -0,0 +1,240 @@
+package com.test.weighttrackingapplicationmatthewbates;
+
+import android.util.LruCache;
+import android.util.SparseBooleanArray;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A RecyclerView adapter for histories too long to copy into memory. It holds the IDs of the entries in
+ * display order, from DatabaseHelper.getOrderedWeightIds(), and only the last few windows of WINDOW_SIZE
+ * entries, which a {@link WindowLoader} reads by ID in the background as the grid scrolls to them.
+ * Binding never touches the database: a position whose window hasn't arrived yet shows the entry from
+ * before the last ID change, if it had one, or stays blank until the window is loaded and rebound.
+ * Stable IDs and range selection come from the ID array too. The grid is refreshed after a change in
+ * the sort order or data by loading the IDs again in the background and handing them to
+ * {@link #setWeightIds(int[])}. Selection works as in WeightAdapter, by weight ID.
+ */
+public class WeightWindowAdapter extends RecyclerView.Adapter<WeightAdapter.WeightViewHolder> {
+
+    // Entries read from the database at a time
+    private static final int WINDOW_SIZE = 100;
+    // Windows kept in memory, several screens' worth either side of the visible one
+    private static final int MAX_WINDOWS = 8;
+
+    /**
+     * Reads windows of entries for the adapter on demand.
+     */
+    public interface WindowLoader {
+        /**
+         * Starts loading the entries with some of the given IDs.
+         * @param weightIds The adapter's weight IDs in display order.
+         * @param fromIndex The index of the first ID to load.
+         * @param toIndex The index after the last ID to load.
+         * @param callback Receives the entries on the main thread.
+         */
+        void loadWindow(int[] weightIds, int fromIndex, int toIndex, WindowCallback callback);
+    }
+
+    /**
+     * Receives a window of weight entries from a {@link WindowLoader}.
+     */
+    public interface WindowCallback {
+        /**
+         * Called on the main thread with the loaded window.
+         * @param entries The entries that still exist, in any order.
+         */
+        void onWindowLoaded(WeightSeries entries);
+    }
+
+    private final WindowLoader windowLoader;
+    private int[] weightIds = new int[0];
+    // Loaded windows by window number, the least recently bound evicted first
+    private final LruCache<Integer, WeightSeries> windows = new LruCache<>(MAX_WINDOWS);
+    // Window numbers being loaded, so a window isn't requested again while its rows are rebound
+    private final SparseBooleanArray pendingWindows = new SparseBooleanArray();
+    // The windows loaded for the previous IDs, shown until the new ones arrive so the grid doesn't blank
+    private List<WeightSeries> previousWindows = new ArrayList<>();
+    // Incremented for every change of IDs, so a window loaded for the old IDs is discarded
+    private int generation;
+    private final WeightSelection selection;
+    // Position of the entry last toggled by its checkbox, where a long-press range selection starts
+    private int selectionAnchor = RecyclerView.NO_POSITION;
+
+    /**
+     * Constructor for the WeightWindowAdapter. The adapter starts empty until IDs are set.
+     * @param windowLoader Reads the entries of each window in the background.
+     */
+    public WeightWindowAdapter(WindowLoader windowLoader) {
+        this.windowLoader = windowLoader;
+        this.selection = new WeightSelection();
+        // Weight IDs identify entries across changes, so the grid can keep its place when they are replaced
+        setHasStableIds(true);
+    }
+
+    /**
+     * Replaces the entries shown, e.g. after a change in the sort order or data.
+     * @param newWeightIds The IDs from DatabaseHelper.getOrderedWeightIds().
+     */
+    public void setWeightIds(int[] newWeightIds) {
+        weightIds = newWeightIds;
+        generation++;
+        previousWindows = new ArrayList<>(windows.snapshot().values());
+        windows.evictAll();
+        pendingWindows.clear();
+        selectionAnchor = RecyclerView.NO_POSITION; // Positions no longer refer to the same entries
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Starts loading a window unless it is loaded or already being loaded.
+     * @param window The window number, i.e. the position of its first entry divided by WINDOW_SIZE.
+     */
+    private void requestWindow(int window) {
+        if (window < 0 || window * WINDOW_SIZE >= weightIds.length
+                || windows.get(window) != null || pendingWindows.get(window)) {
+            return;
+        }
+        pendingWindows.put(window, true);
+        int windowGeneration = generation;
+        int fromIndex = window * WINDOW_SIZE;
+        int toIndex = Math.min(fromIndex + WINDOW_SIZE, weightIds.length);
+        windowLoader.loadWindow(weightIds, fromIndex, toIndex, entries -> {
+            if (windowGeneration != generation) {
+                return;
+            }
+            pendingWindows.delete(window);
+            windows.put(window, entries);
+            notifyItemRangeChanged(fromIndex, toIndex - fromIndex);
+        });
+    }
+
+    /**
+     * Finds the loaded window holding an entry: its own window, or else one of the previous IDs' windows.
+     * @param window The window number of the entry's position.
+     * @param weightId The entry's weight ID.
+     * @return The entries holding it, or null if it isn't loaded.
+     */
+    private WeightSeries findEntries(int window, int weightId) {
+        WeightSeries entries = windows.get(window);
+        if (entries != null) {
+            return entries.indexOfWeightId(weightId) == -1 ? null : entries;
+        }
+        for (WeightSeries previous : previousWindows) {
+            if (previous.indexOfWeightId(weightId) != -1) {
+                return previous;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Called when RecyclerView needs a new ViewHolder to represent an item.
+     * @param parent The ViewGroup into which the new View will be added.
+     * @param viewType The view type of the new View.
+     * @return A new WeightViewHolder for a grid item.
+     */
+    @NonNull
+    @Override
+    public WeightAdapter.WeightViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext())
+                .inflate(R.layout.grid_item, parent, false);
+        return new WeightAdapter.WeightViewHolder(view);
+    }
+
+    /**
+     * Called by RecyclerView to display the entry at the specified position from its window, requesting the
+     * window if it isn't loaded, and the neighbouring window once the position is halfway towards it.
+     * @param holder The ViewHolder to update.
+     * @param position The position of the entry in the display order.
+     */
+    @Override
+    public void onBindViewHolder(@NonNull WeightAdapter.WeightViewHolder holder, int position) {
+        int window = position / WINDOW_SIZE;
+        requestWindow(window);
+        requestWindow(position % WINDOW_SIZE < WINDOW_SIZE / 2 ? window - 1 : window + 1);
+
+        int weightId = weightIds[position];
+        WeightSeries entries = findEntries(window, weightId);
+        if (entries != null) {
+            int index = entries.indexOfWeightId(weightId);
+            holder.dateTextView.setText(DateUtils.formatEpochDay(entries.getEpochDay(index)));
+            holder.weightTextView.setText(String.valueOf(entries.getWeight(index)));
+        } else {
+            holder.dateTextView.setText("");
+            holder.weightTextView.setText("");
+        }
+
+        holder.checkBox.setChecked(selection.isSelected(weightId));
+        holder.checkBox.setOnClickListener(v -> {
+            selection.setSelected(weightId, holder.checkBox.isChecked());
+            selectionAnchor = holder.getAdapterPosition();
+        });
+
+        // Long-press selects the range from the anchor to this entry, or just this entry without an anchor
+        holder.itemView.setOnLongClickListener(v -> {
+            int current = holder.getAdapterPosition();
+            if (current == RecyclerView.NO_POSITION) {
+                return false;
+            }
+            int anchor = selectionAnchor != RecyclerView.NO_POSITION && selectionAnchor < getItemCount()
+                    ? selectionAnchor : current;
+            for (int i = Math.min(anchor, current); i <= Math.max(anchor, current); i++) {
+                selection.setSelected(weightIds[i], true);
+            }
+            selectionAnchor = current;
+            notifyItemRangeChanged(Math.min(anchor, current), Math.abs(current - anchor) + 1);
+            return true;
+        });
+    }
+
+    /**
+     * Returns the weight ID of the entry at a position, as its stable ID.
+     * @param position The position of the entry in the display order.
+     * @return The entry's weight ID.
+     */
+    @Override
+    public long getItemId(int position) {
+        return weightIds[position];
+    }
+
+    /**
+     * Returns the number of entries shown.
+     * @return The number of weight IDs.
+     */
+    @Override
+    public int getItemCount() {
+        return weightIds.length;
+    }
+
+    /**
+     * Gets the selection model, e.g. to select all entries or to read the selected IDs.
+     * Call {@link #notifySelectionChanged()} after changing it directly.
+     * @return The adapter's WeightSelection.
+     */
+    public WeightSelection getSelection() {
+        return selection;
+    }
+
+    /**
+     * Refreshes the checkboxes of the bound entries after the selection was changed outside the adapter.
+     */
+    public void notifySelectionChanged() {
+        notifyItemRangeChanged(0, getItemCount());
+    }
+
+    /**
+     * Clears the current selection of items.
+     */
+    public void clearSelection() {
+        selection.clear();
+        selectionAnchor = RecyclerView.NO_POSITION;
+    }
+}
@@ -0,0 +1,280 @@
+package com.test.weighttrackingapplicationmatthewbates;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Tests for the backup codec: BackupFormat's number encodings, a BackupWriter to BackupReader round trip,
+ * and the reader's handling of truncated, corrupted and inconsistent streams.
+ */
+public class BackupFormatTest {
+
+    @Test
+    public void zigzagRoundTrips() {
+        assertEquals(0, BackupFormat.zigzag(0));
+        assertEquals(1, BackupFormat.zigzag(-1));
+        assertEquals(2, BackupFormat.zigzag(1));
+        assertEquals(3, BackupFormat.zigzag(-2));
+        for (long value : new long[]{0, 1, -1, 63, -64, 64, Integer.MAX_VALUE, Integer.MIN_VALUE,
+                Long.MAX_VALUE, Long.MIN_VALUE}) {
+            assertEquals(value, BackupFormat.unzigzag(BackupFormat.zigzag(value)));
+        }
+    }
+
+    @Test
+    public void varintsUseSevenBitsPerByte() {
+        byte[] buffer = new byte[10];
+        assertEquals(1, BackupFormat.putVarint(buffer, 0, 0));
+        assertEquals(1, BackupFormat.putVarint(buffer, 0, 127));
+        assertEquals(2, BackupFormat.putVarint(buffer, 0, 128));
+        assertEquals((byte) 0x80, buffer[0]);
+        assertEquals(1, buffer[1]);
+        // Negative values are unsigned, so they take all ten bytes
+        assertEquals(10, BackupFormat.putVarint(buffer, 0, -1));
+    }
+
+    @Test
+    public void quantizesToHundredths() {
+        assertEquals(7235, BackupFormat.quantize(72.346));
+        assertEquals(72.35, BackupFormat.dequantize(7235), 0);
+        assertEquals(-150, BackupFormat.quantize(-1.5));
+    }
+
+    @Test
+    public void roundTripsUsersAndWeights() throws IOException {
+        // More entries than fit in one block, with falling weights and gaps between dates
+        int entryCount = BackupFormat.MAX_BLOCK_ENTRIES * 2 + 10;
+        int[] epochDays = new int[entryCount];
+        double[] weights = new double[entryCount];
+        for (int i = 0; i < entryCount; i++) {
+            epochDays[i] = 19000 + i * (1 + i % 3);
+            weights[i] = 100 - (i % 700) / 10.0;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BackupWriter writer = new BackupWriter(out);
+        writer.writeUser(3, "\u00e5sa \u2713", 65.5f, "+15551234567");
+        writer.writeUser(7, "bob", null, null);
+        writer.writeUser(9, null, null, "");
+        for (int i = 0; i < entryCount; i++) {
+            writer.writeWeight(3, epochDays[i], weights[i]);
+        }
+        writer.writeWeight(7, -5, 0.01);
+        writer.finish();
+        assertEquals(out.size(), writer.getBytesWritten());
+
+        BackupReader reader = new BackupReader(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(BackupFormat.BLOCK_USERS, reader.nextBlock());
+        assertTrue(reader.nextUser());
+        assertEquals(3, reader.getUserId());
+        assertEquals("\u00e5sa \u2713", reader.getUsername());
+        assertEquals(65.5f, reader.getWeightGoal(), 0f);
+        assertEquals("+15551234567", reader.getPhoneNumber());
+        assertTrue(reader.nextUser());
+        assertEquals(7, reader.getUserId());
+        assertEquals("bob", reader.getUsername());
+        assertNull(reader.getWeightGoal());
+        assertNull(reader.getPhoneNumber());
+        assertTrue(reader.nextUser());
+        assertEquals(9, reader.getUserId());
+        assertNull(reader.getUsername());
+        assertEquals("", reader.getPhoneNumber());
+        assertFalse(reader.nextUser());
+
+        int[] blockDays = new int[BackupFormat.MAX_BLOCK_ENTRIES];
+        double[] blockWeights = new double[BackupFormat.MAX_BLOCK_ENTRIES];
+        int read = 0;
+        int block;
+        while ((block = reader.nextBlock()) == BackupFormat.BLOCK_WEIGHTS && reader.getBlockUserId() == 3) {
+            int count = reader.readWeights(blockDays, blockWeights);
+            for (int i = 0; i < count; i++, read++) {
+                assertEquals(epochDays[read], blockDays[i]);
+                assertEquals(weights[read], blockWeights[i], 1e-9);
+            }
+        }
+        assertEquals(entryCount, read);
+        assertEquals(BackupFormat.BLOCK_WEIGHTS, block);
+        assertEquals(7, reader.getBlockUserId());
+        assertEquals(1, reader.readWeights(blockDays, blockWeights));
+        assertEquals(-5, blockDays[0]);
+        assertEquals(0.01, blockWeights[0], 1e-9);
+        assertEquals(BackupFormat.BLOCK_END, reader.nextBlock());
+    }
+
+    @Test
+    public void rejectsEveryTruncation() throws IOException {
+        byte[] backup = smallBackup();
+        for (int length = 0; length < backup.length; length++) {
+            byte[] truncated = Arrays.copyOf(backup, length);
+            assertThrows("Cut at " + length, IOException.class, () -> readAll(truncated));
+        }
+        readAll(backup);
+    }
+
+    @Test
+    public void rejectsAStreamWithoutItsEndBlock() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(header());
+        out.write(block(BackupFormat.BLOCK_USERS, 0));
+        assertThrows(EOFException.class, () -> readAll(out.toByteArray()));
+    }
+
+    @Test
+    public void rejectsEveryCorruptedByte() throws IOException {
+        byte[] backup = smallBackup();
+        for (int i = BackupFormat.MAGIC.length + 1; i < backup.length; i++) {
+            byte[] corrupted = backup.clone();
+            corrupted[i] ^= 0x5A;
+            assertThrows("Byte " + i, IOException.class, () -> readAll(corrupted));
+        }
+    }
+
+    @Test
+    public void reportsABadChecksum() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(header());
+        byte[] users = block(BackupFormat.BLOCK_USERS, 0);
+        users[users.length - 1] ^= 1;
+        out.write(users);
+        IOException e = assertThrows(IOException.class, () -> readAll(out.toByteArray()));
+        assertTrue(e.getMessage(), e.getMessage().contains("checksum"));
+    }
+
+    @Test
+    public void rejectsAPayloadLongerThanTheLimit() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(header());
+        out.write(BackupFormat.BLOCK_USERS);
+        byte[] length = new byte[10];
+        out.write(length, 0, BackupFormat.putVarint(length, 0, BackupFormat.MAX_PAYLOAD_BYTES + 1));
+        // No payload follows; the length alone must be refused, before anything is allocated or read
+        IOException e = assertThrows(IOException.class, () -> readAll(out.toByteArray()));
+        assertTrue(e.getMessage(), e.getMessage().contains("too long"));
+    }
+
+    @Test
+    public void rejectsTooManyEntriesInABlock() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(header());
+        out.write(block(BackupFormat.BLOCK_WEIGHTS, 1, BackupFormat.MAX_BLOCK_ENTRIES + 1));
+        IOException e = assertThrows(IOException.class, () -> readAll(out.toByteArray()));
+        assertTrue(e.getMessage(), e.getMessage().contains("too many entries"));
+    }
+
+    @Test
+    public void checksTheEndBlockTotals() throws IOException {
+        // One user with one entry, then end blocks claiming other totals
+        byte[] users = block(BackupFormat.BLOCK_USERS, 1, 1, 0);
+        byte[] weights = block(BackupFormat.BLOCK_WEIGHTS, 1, 1, BackupFormat.zigzag(19000), BackupFormat.zigzag(8000));
+        long[][] totals = {{2, 1}, {1, 0}, {1, 2}, {0, 0}, {1, 1, 0}};
+        for (long[] total : totals) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.write(header());
+            out.write(users);
+            out.write(weights);
+            out.write(block(BackupFormat.BLOCK_END, total));
+            IOException e = assertThrows(Arrays.toString(total), IOException.class, () -> readAll(out.toByteArray()));
+            assertTrue(e.getMessage(), e.getMessage().contains("does not match"));
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(header());
+        out.write(users);
+        out.write(weights);
+        out.write(block(BackupFormat.BLOCK_END, 1, 1));
+        assertArrayEquals(new int[]{1, 1}, readAll(out.toByteArray()));
+    }
+
+    @Test
+    public void rejectsOtherFiles() {
+        assertThrows(IOException.class, () -> new BackupReader(new ByteArrayInputStream("date,weight\n".getBytes())));
+        byte[] futureVersion = header();
+        futureVersion[BackupFormat.MAGIC.length]++;
+        assertThrows(IOException.class, () -> new BackupReader(new ByteArrayInputStream(futureVersion)));
+    }
+
+    /**
+     * Writes a backup of two users and a few entries.
+     */
+    private static byte[] smallBackup() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BackupWriter writer = new BackupWriter(out);
+        writer.writeUser(1, "alice", 70f, "5551234");
+        writer.writeUser(2, "bob", null, null);
+        writer.writeWeight(1, 19000, 80.5);
+        writer.writeWeight(1, 19001, 80.25);
+        writer.writeWeight(2, 19000, 90);
+        writer.finish();
+        return out.toByteArray();
+    }
+
+    /**
+     * Reads a whole backup the way DatabaseHelper.restoreBackup does.
+     * @return The number of users and of weight entries read.
+     */
+    private static int[] readAll(byte[] backup) throws IOException {
+        BackupReader reader = new BackupReader(new ByteArrayInputStream(backup));
+        int[] epochDays = new int[BackupFormat.MAX_BLOCK_ENTRIES];
+        double[] weights = new double[BackupFormat.MAX_BLOCK_ENTRIES];
+        int users = 0;
+        int entries = 0;
+        int block;
+        while ((block = reader.nextBlock()) != BackupFormat.BLOCK_END) {
+            if (block == BackupFormat.BLOCK_USERS) {
+                while (reader.nextUser()) {
+                    users++;
+                }
+            } else {
+                entries += reader.readWeights(epochDays, weights);
+            }
+        }
+        return new int[]{users, entries};
+    }
+
+    /**
+     * Gets the header every backup starts with.
+     */
+    private static byte[] header() {
+        byte[] header = Arrays.copyOf(BackupFormat.MAGIC, BackupFormat.MAGIC.length + 1);
+        header[BackupFormat.MAGIC.length] = (byte) BackupFormat.VERSION;
+        return header;
+    }
+
+    /**
+     * Frames a block whose payload is the given varints, with a valid length and checksum.
+     */
+    private static byte[] block(int type, long... varints) {
+        byte[] payload = new byte[varints.length * 10];
+        int payloadLength = 0;
+        for (long value : varints) {
+            payloadLength = BackupFormat.putVarint(payload, payloadLength, value);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(payload, 0, payloadLength);
+        long checksum = crc.getValue();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(type);
+        byte[] length = new byte[10];
+        out.write(length, 0, BackupFormat.putVarint(length, 0, payloadLength));
+        out.write(payload, 0, payloadLength);
+        for (int i = 0; i < 4; i++) {
+            out.write((int) (checksum >>> (24 - 8 * i)));
+        }
+        return out.toByteArray();
+    }
+}
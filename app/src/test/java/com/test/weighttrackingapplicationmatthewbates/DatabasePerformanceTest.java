@@ -0,0 +1,229 @@
+package com.test.weighttrackingapplicationmatthewbates;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.app.Application;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+/**
+ * Performance regression tests for DatabaseHelper, run on the JVM against a real SQLite database.
+ * Each test seeds a user with a SyntheticHistory of a given size and checks the heap allocated on the
+ * test thread for bulk inserts, every getAllWeightEntries sort order, getMostRecentWeight and a bulk
+ * deleteWeightsById against fixed budgets, failing if any is exceeded. The 1k and 100k histories are
+ * checked in every unit test run; the 1M history takes minutes to seed, so it is a {@link SlowTest} run
+ * by ./gradlew perfTest, which check depends on. Times are the best of several runs after a warm-up, so
+ * the budgets catch regressions rather than noise; they are generous enough for a typical development
+ * machine and can be scaled for a slower or busy one, e.g. ./gradlew check -Pperf.budgetScale=2
+ */
+@RunWith(RobolectricTestRunner.class)
+// A plain Application, so WeightTrackingApplication's prewarm doesn't open the database during a measurement
+@Config(sdk = 34, application = Application.class)
+public class DatabasePerformanceTest {
+
+    // A factor every time budget is multiplied by, e.g. 2 on a slow CI machine
+    private static final String BUDGET_SCALE_PROPERTY = "perf.budgetScale";
+
+    // Timed runs per measurement, after one warm-up run
+    private static final int RUNS = 3;
+    // getMostRecentWeight() is timed over this many calls, as a single call is below timer resolution
+    private static final int RECENT_WEIGHT_CALLS = 100;
+    // Every this many entries are deleted by the bulk delete, i.e. 10% of the history
+    private static final int DELETE_STRIDE = 10;
+    // Entries of the history the once-measured operations are warmed up on
+    private static final int WARM_UP_SIZE = 1000;
+
+    // Allocation budgets, which don't depend on the machine: a fixed allowance plus a cost per entry.
+    // A read stores 12 bytes per entry in a WeightSeries; anything near 24 means per-row objects crept back in.
+    // The distance order also holds the date-ordered read and a permutation with its merge buffer, 32 bytes.
+    private static final long FIXED_BYTES = 64 * 1024;
+    private static final long READ_BYTES_PER_ENTRY = 24;
+    private static final long DISTANCE_READ_BYTES_PER_ENTRY = 48;
+    private static final long INSERT_BYTES_PER_ENTRY = 2048;
+    private static final long DELETE_BYTES_PER_ENTRY = 256;
+    private static final long RECENT_WEIGHT_BYTES_PER_CALL = 1024;
+
+    private DatabaseHelper db;
+
+    /**
+     * The time limits for one history size, in milliseconds.
+     */
+    private static final class Budget {
+        final long insertMillis;
+        // Every order, DISTANCE_FROM_GOAL included, is read in one pass over an index
+        final long readMillis;
+        final long recentWeightMillis;
+        final long deleteMillis;
+
+        Budget(long insertMillis, long readMillis, long recentWeightMillis, long deleteMillis) {
+            this.insertMillis = insertMillis;
+            this.readMillis = readMillis;
+            this.recentWeightMillis = recentWeightMillis;
+            this.deleteMillis = deleteMillis;
+        }
+    }
+
+    /**
+     * The outcome of a measured operation.
+     */
+    private static final class Measurement {
+        final long millis;
+        final long allocatedBytes;
+
+        Measurement(long millis, long allocatedBytes) {
+            this.millis = millis;
+            this.allocatedBytes = allocatedBytes;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        db = DatabaseHelper.getInstance(ApplicationProvider.getApplicationContext());
+        warmUp();
+    }
+
+    @After
+    public void tearDown() {
+        DatabaseHelper.closeInstance();
+    }
+
+    @Test
+    public void history1k() {
+        checkBudgets(1000, new Budget(500, 50, 100, 200));
+    }
+
+    @Test
+    public void history100k() {
+        checkBudgets(100000, new Budget(20000, 750, 100, 3000));
+    }
+
+    @Test
+    @Category(SlowTest.class)
+    public void history1m() {
+        checkBudgets(1000000, new Budget(120000, 10000, 100, 30000));
+    }
+
+    /**
+     * Creates the schema and runs the operations that are only measured once, an insert and a delete,
+     * on a separate user, so class loading and statement compilation aren't counted against them.
+     */
+    private void warmUp() {
+        int userId = SyntheticHistory.seedUser(db, "warmup", WARM_UP_SIZE, 0);
+        WeightSeries all = db.getAllWeightEntries(userId, SortUtils.DATE_OLDEST);
+        int[] ids = new int[all.size() / DELETE_STRIDE];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = all.getWeightId(i * DELETE_STRIDE);
+        }
+        db.deleteWeightsById(ids);
+    }
+
+    /**
+     * Seeds a history of the given size and checks every measured operation against its budget.
+     * @param size The number of entries to seed.
+     * @param budget The limits for this size.
+     */
+    private void checkBudgets(int size, Budget budget) {
+        Measurement insert = measureOnce(() -> SyntheticHistory.seedUser(db, "perf", size, size));
+        int userId = db.getUserId("perf", "password");
+        assertWithin("upsertWeights x" + size, insert, budget.insertMillis, FIXED_BYTES + INSERT_BYTES_PER_ENTRY * size);
+
+        for (int sortOption = SortUtils.DATE_NEWEST; sortOption <= SortUtils.DISTANCE_FROM_GOAL; sortOption++) {
+            int sort = sortOption;
+            if (sort == SortUtils.DISTANCE_FROM_GOAL) {
+                db.updateWeightGoal(userId, 80f);
+            }
+            Measurement read = measureBest(() -> assertEquals(size, db.getAllWeightEntries(userId, sort).size()));
+            long readBytes = sort == SortUtils.DISTANCE_FROM_GOAL ? DISTANCE_READ_BYTES_PER_ENTRY : READ_BYTES_PER_ENTRY;
+            assertWithin("getAllWeightEntries sort " + sort + " x" + size, read, budget.readMillis,
+                    FIXED_BYTES + readBytes * size);
+        }
+
+        Measurement recent = measureBest(() -> {
+            for (int i = 0; i < RECENT_WEIGHT_CALLS; i++) {
+                db.getMostRecentWeight(userId);
+            }
+        });
+        assertWithin("getMostRecentWeight x" + RECENT_WEIGHT_CALLS, recent, budget.recentWeightMillis,
+                RECENT_WEIGHT_BYTES_PER_CALL * RECENT_WEIGHT_CALLS);
+
+        // Delete every tenth entry, spread over the whole history like a large selection
+        WeightSeries all = db.getAllWeightEntries(userId, SortUtils.DATE_OLDEST);
+        int[] ids = new int[(size + DELETE_STRIDE - 1) / DELETE_STRIDE];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = all.getWeightId(i * DELETE_STRIDE);
+        }
+        Arrays.sort(ids);
+        int[] deleted = new int[1];
+        Measurement delete = measureOnce(() -> deleted[0] = db.deleteWeightsById(ids));
+        assertEquals(ids.length, deleted[0]);
+        assertWithin("deleteWeightsById x" + ids.length, delete, budget.deleteMillis,
+                FIXED_BYTES + DELETE_BYTES_PER_ENTRY * ids.length);
+    }
+
+    /**
+     * Runs an operation once, for operations that change the data and can't be repeated.
+     */
+    private static Measurement measureOnce(Runnable operation) {
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+        operation.run();
+        long millis = (System.nanoTime() - start) / 1000000;
+        return new Measurement(millis, allocatedBefore < 0 ? -1 : allocatedBytes() - allocatedBefore);
+    }
+
+    /**
+     * Runs an operation once to warm up, then RUNS times, keeping the fastest time and smallest allocation.
+     */
+    private static Measurement measureBest(Runnable operation) {
+        operation.run();
+        long bestMillis = Long.MAX_VALUE;
+        long bestBytes = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            Measurement run = measureOnce(operation);
+            bestMillis = Math.min(bestMillis, run.millis);
+            bestBytes = Math.min(bestBytes, run.allocatedBytes);
+        }
+        return new Measurement(bestMillis, bestBytes);
+    }
+
+    /**
+     * Fails if a measurement exceeds its budget.
+     * @param name What was measured.
+     * @param measurement The measured time and allocation.
+     * @param maxMillis The time budget, before scaling by the budget scale property.
+     * @param maxBytes The allocation budget.
+     */
+    private static void assertWithin(String name, Measurement measurement, long maxMillis, long maxBytes) {
+        long scaledMillis = (long) (maxMillis * Double.parseDouble(System.getProperty(BUDGET_SCALE_PROPERTY, "1")));
+        assertTrue(name + " took " + measurement.millis + " ms, budget " + scaledMillis + " ms",
+                measurement.millis <= scaledMillis);
+        if (measurement.allocatedBytes >= 0) {
+            assertTrue(name + " allocated " + measurement.allocatedBytes + " bytes, budget " + maxBytes,
+                    measurement.allocatedBytes <= maxBytes);
+        }
+    }
+
+    /**
+     * Gets the total bytes allocated so far by the current thread.
+     * @return The allocated bytes, or -1 if the JVM can't measure them.
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,9 @@
+package com.test.weighttrackingapplicationmatthewbates;
+
+/**
+ * JUnit category for tests too slow to run with every unit test run, e.g. the performance tests on the
+ * largest histories. The unit test tasks leave them out and the perfTest task runs them; check depends
+ * on perfTest, so they still run before every merge.
+ */
+public interface SlowTest {
+}
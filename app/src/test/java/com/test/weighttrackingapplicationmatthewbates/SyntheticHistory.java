@@ -0,0 +1,50 @@
+package com.test.weighttrackingapplicationmatthewbates;
+
+import java.util.Random;
+
+/**
+ * Generates deterministic weight histories for performance tests.
+ * A history is one entry per day from a fixed date onwards, with a weight that drifts in a bounded
+ * random walk at 0.1 precision, so the same seed and size always produce exactly the same rows and
+ * timings can be compared between runs. Even a million entries stay within the years SQLite's date
+ * functions (and so the rollup triggers) support, although they run far into the future.
+ */
+public final class SyntheticHistory {
+
+    // The date of the oldest entry in every history, 2000-01-01, so results don't depend on today's date
+    public static final int FIRST_EPOCH_DAY = 10957;
+
+    // Entries written per upsertWeights() call when seeding
+    private static final int BATCH_SIZE = 10000;
+
+    private SyntheticHistory() {}
+
+    /**
+     * Creates a user and writes a generated history for them in batches.
+     * @param db The DatabaseHelper to write to.
+     * @param username A username not used by any other seeded user.
+     * @param size The number of daily entries to generate.
+     * @param seed The seed of the random walk.
+     * @return The ID of the seeded user.
+     */
+    public static int seedUser(DatabaseHelper db, String username, int size, long seed) {
+        db.addUser(username, "password");
+        int userId = db.getUserId(username, "password");
+
+        Random random = new Random(seed);
+        int[] epochDays = new int[BATCH_SIZE];
+        float[] weights = new float[BATCH_SIZE];
+        // Weights are kept in tenths as an int, so the walk never accumulates float rounding error
+        int tenths = 800;
+        for (int start = 0; start < size; start += BATCH_SIZE) {
+            int count = Math.min(BATCH_SIZE, size - start);
+            for (int i = 0; i < count; i++) {
+                tenths = Math.max(400, Math.min(1600, tenths + random.nextInt(11) - 5));
+                epochDays[i] = FIRST_EPOCH_DAY + start + i;
+                weights[i] = tenths / 10f;
+            }
+            db.upsertWeights(userId, epochDays, weights, count);
+        }
+        return userId;
+    }
+}
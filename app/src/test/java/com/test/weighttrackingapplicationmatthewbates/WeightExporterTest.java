@@ -0,0 +1,82 @@
+package com.test.weighttrackingapplicationmatthewbates;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.util.Random;
+
+/**
+ * Tests for WeightExporter's allocation-free formatting, against the library formatting it stands in for:
+ * every date SQLite can hold against LocalDate, and a sample of weights against Float.parseFloat.
+ */
+public class WeightExporterTest {
+
+    // Random weights checked on top of the systematic ones
+    private static final int RANDOM_WEIGHTS = 1000000;
+
+    @Test
+    public void formatsEveryFourDigitYearDateLikeLocalDate() {
+        StringBuilder row = new StringBuilder();
+        long first = LocalDate.of(0, 1, 1).toEpochDay();
+        long last = LocalDate.of(9999, 12, 31).toEpochDay();
+        for (long epochDay = first; epochDay <= last; epochDay++) {
+            row.setLength(0);
+            WeightExporter.appendDate(row, (int) epochDay);
+            String expected = LocalDate.ofEpochDay(epochDay).toString();
+            if (!expected.contentEquals(row)) {
+                assertEquals("Epoch day " + epochDay, expected, row.toString());
+            }
+        }
+    }
+
+    @Test
+    public void writesTenthsAndHundredthsAsTyped() {
+        StringBuilder row = new StringBuilder();
+        for (int tenths = 1; tenths <= 10000; tenths++) {
+            String typed = tenths / 10 + "." + tenths % 10;
+            row.setLength(0);
+            WeightExporter.appendWeight(row, Float.parseFloat(typed));
+            assertEquals(typed, row.toString());
+        }
+        for (int hundredths = 1; hundredths <= 100000; hundredths++) {
+            if (hundredths % 10 == 0) {
+                continue; // Written with one decimal, as above
+            }
+            String typed = hundredths / 100 + "." + hundredths / 10 % 10 + hundredths % 10;
+            row.setLength(0);
+            WeightExporter.appendWeight(row, Float.parseFloat(typed));
+            assertEquals(typed, row.toString());
+        }
+    }
+
+    @Test
+    public void writesWeightsThatParseBackExactly() {
+        Random random = new Random(1);
+        for (int i = 0; i < RANDOM_WEIGHTS; i++) {
+            // Spread over every magnitude the fixed-point form covers, down to the smallest normal floats
+            float weight = (float) Math.pow(10, random.nextDouble() * 44 - 38);
+            assertParsesBack(weight);
+            assertParsesBack(Math.nextUp(weight));
+        }
+        for (float weight : new float[]{Float.MIN_VALUE, Float.MIN_NORMAL, 999999.94f, 1000000f, 1e7f,
+                Float.MAX_VALUE, 0f, -72.5f}) {
+            assertParsesBack(weight);
+        }
+    }
+
+    /**
+     * Fails unless a weight is written as a decimal that Float.parseFloat reads back as the same float.
+     */
+    private static void assertParsesBack(float weight) {
+        StringBuilder row = new StringBuilder();
+        WeightExporter.appendWeight(row, weight);
+        String written = row.toString();
+        assertEquals(written, Float.floatToIntBits(weight), Float.floatToIntBits(Float.parseFloat(written)));
+        if (weight > 0 && weight < 1000000 && written.indexOf('E') < 0) {
+            assertTrue(written, written.indexOf('.') > 0);
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package com.test.weighttrackingapplicationmatthewbates;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.app.Application;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Tests for WeightImporter: the CSV variations it accepts, the lines it rejects, lines that cross or
+ * overflow its read buffer, and a round trip through WeightExporter and back into the database.
+ * Most tests collect the parsed entries with a BatchWriter instead of writing them to a database.
+ */
+@RunWith(RobolectricTestRunner.class)
+// A plain Application, so WeightTrackingApplication's prewarm doesn't open the database
+@Config(sdk = 34, application = Application.class)
+public class WeightImporterTest {
+
+    // The importer's read buffer size; lines are placed around multiples of it
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * A BatchWriter that keeps every entry it is given, reporting them all as inserted.
+     */
+    private static final class CollectingWriter implements WeightImporter.BatchWriter {
+        final WeightSeries entries = new WeightSeries();
+
+        @Override
+        public WeightBatchResult write(int[] epochDays, float[] weights, int count) {
+            for (int i = 0; i < count; i++) {
+                entries.add(0, epochDays[i], weights[i]);
+            }
+            return new WeightBatchResult(count, 0, 0);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        DatabaseHelper.closeInstance();
+    }
+
+    @Test
+    public void skipsHeaderAndByteOrderMark() throws IOException {
+        CollectingWriter writer = new CollectingWriter();
+        WeightImportResult result = importCsv("\uFEFFdate,weight\n2024-01-02,80.5\n", writer);
+        assertEntries(writer, day(2024, 1, 2), 80.5f);
+        assertEquals(0, result.getBadLineCount());
+
+        writer = new CollectingWriter();
+        result = importCsv("\uFEFF2024-01-02,80.5\n", writer);
+        assertEntries(writer, day(2024, 1, 2), 80.5f);
+        assertEquals(0, result.getBadLineCount());
+
+        writer = new CollectingWriter();
+        result = importCsv("\"Date\",\"Weight\"\n2024-01-02,80.5\n", writer);
+        assertEntries(writer, day(2024, 1, 2), 80.5f);
+        assertEquals(0, result.getBadLineCount());
+    }
+
+    @Test
+    public void treatsLaterOrNumericHeadersAsBadLines() throws IOException {
+        CollectingWriter writer = new CollectingWriter();
+        WeightImportResult result = importCsv("2024-01-02,80.5\ndate,weight\n", writer);
+        assertEntries(writer, day(2024, 1, 2), 80.5f);
+        assertArrayEquals(new int[]{2}, result.getBadLineNumbers());
+
+        writer = new CollectingWriter();
+        result = importCsv("1,2\n2024-01-02,80.5\n", writer);
+        assertEntries(writer, day(2024, 1, 2), 80.5f);
+        assertArrayEquals(new int[]{1}, result.getBadLineNumbers());
+    }
+
+    @Test
+    public void acceptsQuotedFieldsAndSpaces() throws IOException {
+        CollectingWriter writer = new CollectingWriter();
+        WeightImportResult result = importCsv("\"2024-01-02\",\"80.5\"\n \"2024-1-3\" , 81 \n2024-01-04,\t\"82\"\n", writer);
+        assertEntries(writer, day(2024, 1, 2), 80.5f, day(2024, 1, 3), 81f, day(2024, 1, 4), 82f);
+        assertEquals(0, result.getBadLineCount());
+
+        result = importCsv("\"2024-01-02,80.5\n2024-01-02,\"80.5\n2024-01-02,80.5\"\n", new CollectingWriter());
+        assertArrayEquals(new int[]{1, 2, 3}, result.getBadLineNumbers());
+    }
+
+    @Test
+    public void checksLeapDays() throws IOException {
+        CollectingWriter writer = new CollectingWriter();
+        WeightImportResult result = importCsv("2024-02-29,80\n2000-02-29,81\n2023-02-29,82\n1900-02-29,83\n"
+                + "2024-02-30,84\n2024-04-31,85\n2024-13-01,86\n2024-00-10,87\n", writer);
+        assertEntries(writer, day(2024, 2, 29), 80f, day(2000, 2, 29), 81f);
+        assertArrayEquals(new int[]{3, 4, 5, 6, 7, 8}, result.getBadLineNumbers());
+    }
+
+    @Test
+    public void limitsWeightsToFifteenDigits() throws IOException {
+        CollectingWriter writer = new CollectingWriter();
+        WeightImportResult result = importCsv("2024-01-01,80.0000000000000\n2024-01-02,123456789012345\n"
+                + "2024-01-03,80.00000000000000\n2024-01-04,1234567890123456\n", writer);
+        assertEntries(writer, day(2024, 1, 1), 80f, day(2024, 1, 2), (float) 123456789012345d);
+        assertArrayEquals(new int[]{3, 4}, result.getBadLineNumbers());
+    }
+
+    @Test
+    public void rejectsInvalidWeights() throws IOException {
+        WeightImportResult result = importCsv("2024-01-01,0\n2024-01-01,-3\n2024-01-01,abc\n2024-01-01,\n"
+                + "2024-01-01\n2024-01-01,80,1\n2024-01-01,8.0.1\n2024-01-01,.\n", new CollectingWriter());
+        assertEquals(8, result.getBadLineCount());
+        assertEquals(0, result.getInsertedCount());
+    }
+
+    @Test
+    public void acceptsCrLfAndBlankLines() throws IOException {
+        CollectingWriter writer = new CollectingWriter();
+        WeightImportResult result = importCsv("date,weight\r\n2024-01-02,80.5\r\n\r\n   \r\n2024-01-03,81\r\n", writer);
+        assertEntries(writer, day(2024, 1, 2), 80.5f, day(2024, 1, 3), 81f);
+        assertEquals(0, result.getBadLineCount());
+
+        // The last line needs no newline, and a lone CR at the end is trimmed
+        writer = new CollectingWriter();
+        importCsv("2024-01-02,80.5\r\n2024-01-03,81\r", writer);
+        assertEntries(writer, day(2024, 1, 2), 80.5f, day(2024, 1, 3), 81f);
+    }
+
+    @Test
+    public void readsLinesAcrossBufferRefills() throws IOException {
+        // Pad the first line so the second one straddles the end of the first buffer
+        StringBuilder csv = new StringBuilder("2024-01-01,70");
+        while (csv.length() < BUFFER_SIZE - 6) {
+            csv.append(' ');
+        }
+        csv.append("\n2024-01-02,71.25\r\n");
+        CollectingWriter writer = new CollectingWriter();
+        WeightImportResult result = importCsv(csv.toString(), writer);
+        assertEntries(writer, day(2024, 1, 1), 70f, day(2024, 1, 2), 71.25f);
+        assertEquals(0, result.getBadLineCount());
+
+        // A stream that returns a few bytes per read refills the buffer in the middle of every field
+        writer = new CollectingWriter();
+        byte[] bytes = "\uFEFFdate,weight\r\n\"2024-01-02\",80.5\r\n2024-01-03,81\n".getBytes(StandardCharsets.UTF_8);
+        result = new WeightImporter().importCsv(new TrickleInputStream(bytes, 3), writer, null);
+        assertEntries(writer, day(2024, 1, 2), 80.5f, day(2024, 1, 3), 81f);
+        assertEquals(0, result.getBadLineCount());
+    }
+
+    @Test
+    public void skipsLinesLongerThanTheBuffer() throws IOException {
+        StringBuilder csv = new StringBuilder("2024-01-01,70\n");
+        for (int i = 0; i < 3 * BUFFER_SIZE; i++) {
+            csv.append('x');
+        }
+        csv.append("\n2024-01-02,71\n");
+        // A line that exactly fills the buffer without its newline is too long as well
+        for (int i = 0; i < BUFFER_SIZE; i++) {
+            csv.append('y');
+        }
+        csv.append("\n2024-01-03,72\n");
+        // An overlong last line without a newline
+        for (int i = 0; i < BUFFER_SIZE + 10; i++) {
+            csv.append('z');
+        }
+        CollectingWriter writer = new CollectingWriter();
+        WeightImportResult result = importCsv(csv.toString(), writer);
+        assertEntries(writer, day(2024, 1, 1), 70f, day(2024, 1, 2), 71f, day(2024, 1, 3), 72f);
+        assertArrayEquals(new int[]{2, 4, 6}, result.getBadLineNumbers());
+    }
+
+    @Test
+    public void reportsOnlyTheFirstBadLineNumbers() throws IOException {
+        StringBuilder csv = new StringBuilder("2024-01-01,70\n");
+        for (int i = 0; i < 100; i++) {
+            csv.append("bad\n");
+        }
+        WeightImportResult result = importCsv(csv.toString(), new CollectingWriter());
+        assertEquals(100, result.getBadLineCount());
+        assertEquals(20, result.getBadLineNumbers().length);
+        assertEquals(2, result.getBadLineNumbers()[0]);
+    }
+
+    @Test
+    public void importsAnExportedHistoryExactly() throws IOException {
+        DatabaseHelper db = DatabaseHelper.getInstance(ApplicationProvider.getApplicationContext());
+        int exportUserId = SyntheticHistory.seedUser(db, "export", 12000, 1);
+        // Add weights with no short decimal form, which the exporter has to write with more digits
+        Random random = new Random(2);
+        int[] epochDays = new int[500];
+        float[] weights = new float[epochDays.length];
+        for (int i = 0; i < epochDays.length; i++) {
+            epochDays[i] = SyntheticHistory.FIRST_EPOCH_DAY - 1 - i;
+            weights[i] = 30 + random.nextFloat() * 200;
+        }
+        db.upsertWeights(exportUserId, epochDays, weights);
+
+        ByteArrayOutputStream csv = new ByteArrayOutputStream();
+        int exported = new WeightExporter(WeightExporter.FORMAT_CSV).export(db, exportUserId, csv, null);
+        assertEquals(12500, exported);
+
+        db.addUser("import", "password");
+        int importUserId = db.getUserId("import", "password");
+        WeightImportResult result = new WeightImporter().importCsv(new ByteArrayInputStream(csv.toByteArray()),
+                (days, values, count) -> db.upsertWeights(importUserId, days, values, count), null);
+        assertEquals(exported, result.getInsertedCount());
+        assertEquals(0, result.getBadLineCount());
+
+        WeightSeries expected = db.getAllWeightEntries(exportUserId, SortUtils.DATE_OLDEST);
+        WeightSeries actual = db.getAllWeightEntries(importUserId, SortUtils.DATE_OLDEST);
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.getEpochDay(i), actual.getEpochDay(i));
+            assertEquals("Weight of entry " + i, Float.floatToIntBits(expected.getWeight(i)),
+                    Float.floatToIntBits(actual.getWeight(i)));
+        }
+    }
+
+    @Test
+    public void cancelKeepsTheWrittenBatches() throws IOException {
+        StringBuilder csv = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            csv.append(DateUtils.formatEpochDay(SyntheticHistory.FIRST_EPOCH_DAY + i)).append(",80\n");
+        }
+        WeightImporter importer = new WeightImporter();
+        int[] batches = new int[1];
+        WeightImportResult result = importer.importCsv(
+                new ByteArrayInputStream(csv.toString().getBytes(StandardCharsets.UTF_8)),
+                (days, values, count) -> {
+                    batches[0]++;
+                    importer.cancel();
+                    return new WeightBatchResult(count, 0, 0);
+                }, null);
+        assertTrue(result.isCancelled());
+        assertEquals(1, batches[0]);
+        assertTrue(result.getInsertedCount() > 0 && result.getInsertedCount() < 20000);
+    }
+
+    /**
+     * Imports a CSV string, encoded as UTF-8, with a fresh WeightImporter.
+     */
+    private static WeightImportResult importCsv(String csv, WeightImporter.BatchWriter writer) throws IOException {
+        return new WeightImporter().importCsv(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)),
+                writer, null);
+    }
+
+    /**
+     * Fails unless the writer received exactly the given entries, in order.
+     * @param dayWeightPairs Alternating epoch days and weights.
+     */
+    private static void assertEntries(CollectingWriter writer, float... dayWeightPairs) {
+        assertEquals(dayWeightPairs.length / 2, writer.entries.size());
+        for (int i = 0; i < writer.entries.size(); i++) {
+            assertEquals((int) dayWeightPairs[2 * i], writer.entries.getEpochDay(i));
+            assertEquals(dayWeightPairs[2 * i + 1], writer.entries.getWeight(i), 0f);
+        }
+    }
+
+    private static int day(int year, int month, int dayOfMonth) {
+        return DateUtils.toEpochDay(year, month, dayOfMonth);
+    }
+
+    /**
+     * An InputStream that returns at most a few bytes per read, as a slow network stream might.
+     */
+    private static final class TrickleInputStream extends InputStream {
+        private final byte[] bytes;
+        private final int maxRead;
+        private int position;
+
+        TrickleInputStream(byte[] bytes, int maxRead) {
+            this.bytes = bytes;
+            this.maxRead = maxRead;
+        }
+
+        @Override
+        public int read() {
+            return position < bytes.length ? bytes[position++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (position == bytes.length) {
+                return -1;
+            }
+            int count = Math.min(Math.min(length, maxRead), bytes.length - position);
+            System.arraycopy(bytes, position, buffer, offset, count);
+            position += count;
+            return count;
+        }
+    }
+}